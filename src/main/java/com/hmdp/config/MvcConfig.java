@@ -25,6 +25,8 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/shop-type/**",
                         "/upload/**",
                         "/blog/hot",
+                        "/blog-comments/of/blog",
+                        "/blog-comments/replies",
                         "/user/code",
                         "/user/login"
                 ).order(1);
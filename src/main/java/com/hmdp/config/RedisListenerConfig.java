@@ -0,0 +1,32 @@
+package com.hmdp.config;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.utils.FollowGraph;
+import com.hmdp.utils.ShopChangeNotifier;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Configuration
+public class RedisListenerConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(
+            RedisConnectionFactory connectionFactory, ShopChangeNotifier shopChangeNotifier, FollowGraph followGraph) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        // 单线程处理消息，保证同一节点上的变更按顺序生效
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setThreadNamePrefix("redis-listener-");
+        executor.initialize();
+        container.setTaskExecutor(executor);
+        container.addMessageListener(shopChangeNotifier, new ChannelTopic(RedisConstants.SHOP_CHANGED_CHANNEL));
+        container.addMessageListener(followGraph, new ChannelTopic(RedisConstants.FOLLOW_CHANGED_CHANNEL));
+        return container;
+    }
+}
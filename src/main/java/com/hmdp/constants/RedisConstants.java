@@ -12,15 +12,74 @@ public class RedisConstants {
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
+    public static final String CACHE_SHOP_SUMMARY_KEY = "cache:shop:summary:";
+    public static final String CACHE_SHOP_ETAG_KEY = "cache:shop:etag:";
     public static final String CACHE_SHOP_TYPE_KEY = "cache:shop:type:list";
+    public static final String CACHE_SHOP_TYPE_VERSION_KEY = "cache:shop:type:version";
+
+    public static final Long CACHE_VOUCHER_TTL = 30L;
+    public static final String CACHE_VOUCHER_KEY = "cache:voucher:shop:";
+
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final Long CACHE_LOGICAL_KEEP_TTL = 24 * 60L;
+
+    public static final Long CACHE_BLOG_SUMMARY_TTL = 30L;
+    public static final String CACHE_BLOG_SUMMARY_KEY = "cache:blog:summary:";
+
+    public static final Long CACHE_BLOG_LIKES_TTL = 5L;
+    public static final String CACHE_BLOG_LIKES_KEY = "cache:blog:likes:";
+
+    public static final Long CACHE_BLOG_COMMENTS_TTL = 10L;
+    public static final String CACHE_BLOG_COMMENTS_KEY = "cache:blog:comments:";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKED_DELTA_KEY = "blog:liked-delta";
+    public static final String BLOG_COMMENTS_DELTA_KEY = "blog:comments-delta";
+    public static final String BLOG_COMMENT_LIKED_KEY = "blog:comment:liked:";
+    public static final String BLOG_COMMENT_LIKED_DELTA_KEY = "blog:comment:liked-delta";
+    public static final String BLOG_HOT_KEY = "blog:hot";
+    public static final String BLOG_HOT_DIRTY_KEY = "blog:hot:dirty";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_FANOUT_TASK_KEY = "feed:fanout:task:";
+    public static final String FEED_FANOUT_PENDING_KEY = "feed:fanout:pending";
+    public static final String FEED_FANOUT_LOCK_NAME = "feed:fanout:";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIG_AUTHORS_KEY = "feed:big-authors";
+    public static final String FEED_DROPPED_KEY = "feed:dropped";
+    public static final String FEED_COMPACT_LOCK_NAME = "feed:compact";
+    public static final String USER_LAST_LOGIN_KEY = "user:last-login";
     public static final String FOLLOW_KEY = "follows:";
+    public static final String FANS_KEY = "fans:";
+    public static final String USER_FOLLOWEE_DELTA_KEY = "user:followee-delta";
+    public static final String USER_FANS_DELTA_KEY = "user:fans-delta";
+    public static final String FOLLOW_REBUILD_KEY = "follow:rebuild:";
+    public static final String FOLLOW_REBUILD_CHECKPOINT_KEY = "follow:rebuild:checkpoint";
+    public static final String FOLLOW_REBUILD_LOCK_NAME = "follow:rebuild";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_CHANGED_CHANNEL = "shop:changed";
+    public static final String FOLLOW_CHANGED_CHANNEL = "follow:changed";
+    public static final String SHOP_GEO_WINDOW_KEY = "shop:geo:window:";
+    public static final Long SHOP_GEO_WINDOW_TTL = 60L;
+    public static final int SHOP_GEO_WINDOW_SIZE = 500;
+    public static final int SHOP_GEO_WINDOW_MAX_SIZE = 16000;
+    public static final String SHOP_GEO_REBUILDING_KEY = "shop:geo:rebuilding";
+    public static final String SHOP_GEO_REBUILD_KEY = "shop:geo:rebuild:";
+    public static final Long SHOP_GEO_REBUILD_TTL = 30L;
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SHOP_RANK_REBUILD_KEY = "shop:rank:rebuild:";
+    public static final String SHOP_RANK_READY_KEY = "shop:rank:ready";
+    public static final String SHOP_RANK_TYPES_KEY = "shop:rank:types";
+    public static final String SHOP_RANK_REBUILD_LOCK_NAME = "shop:rank:rebuild";
+    public static final Long SHOP_RANK_REBUILD_TTL = 30L;
+    public static final String SHOP_SOLD_DELTA_KEY = "shop:sold-delta";
+    public static final String VOUCHER_SHOP_KEY = "voucher:shop";
     public static final String USER_SIGN_KEY = "sign:";
 }
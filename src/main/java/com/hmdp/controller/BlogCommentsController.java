@@ -1,13 +1,42 @@
 package com.hmdp.controller;
 
 
-import org.springframework.web.bind.annotation.RequestMapping;
+import com.hmdp.dto.Result;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import org.springframework.web.bind.annotation.*;
 
-import org.springframework.web.bind.annotation.RestController;
+import javax.annotation.Resource;
 
 
 @RestController
 @RequestMapping("/blog-comments")
 public class BlogCommentsController {
 
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+
+    @PostMapping
+    public Result saveComment(@RequestBody BlogComments comment) {
+        return blogCommentsService.saveComment(comment);
+    }
+
+    @GetMapping("/of/blog")
+    public Result queryComments(
+            @RequestParam("id") Long blogId,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogCommentsService.queryComments(blogId, cursor);
+    }
+
+    @GetMapping("/replies")
+    public Result queryReplies(
+            @RequestParam("parentId") Long parentId,
+            @RequestParam(value = "cursor", required = false) String cursor) {
+        return blogCommentsService.queryReplies(parentId, cursor);
+    }
+
+    @PutMapping("/like/{id}")
+    public Result likeComment(@PathVariable("id") Long id) {
+        return blogCommentsService.likeComment(id);
+    }
 }
@@ -1,13 +1,11 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import javax.annotation.Resource;
 
@@ -22,12 +20,12 @@ public class ShopController {
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
-     * @return 商铺详情数据
+     * @return 商铺详情数据，客户端版本未变化时返回304
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
-
-        return shopService.queryShopById(id);
+    public Result queryShopById(@PathVariable("id") Long id, ServletWebRequest webRequest) {
+        // ETag由返回的商铺数据计算，版本未变化时返回null
+        return shopService.queryShopById(id, webRequest::checkNotModified);
     }
 
     /**
@@ -38,9 +36,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -58,6 +54,12 @@ public class ShopController {
      * 根据商铺类型分页查询商铺信息
      * @param typeId 商铺类型
      * @param current 页码
+     * @param lastDistance 上一页最后一个商铺的距离，传入时按游标分页
+     * @param lastId 上一页最后一个商铺的id
+     * @param sortBy 排序字段：sold、score、comments、avgPrice
+     * @param cursor 上一页返回的游标，传入时按游标分页，第一页传空字符串
+     * @param openNow 是否只查询正在营业的商铺
+     * @param fields 逗号分隔的返回字段，例如 id,name,score，为空时返回所有字段
      * @return 商铺列表
      */
     @GetMapping("/of/type")
@@ -65,27 +67,42 @@ public class ShopController {
             @RequestParam("typeId") Integer typeId,
             @RequestParam(value = "current", defaultValue = "1") Integer current,
             @RequestParam(value = "x", required = false) Double x,
-            @RequestParam(value = "y", required = false) Double y
+            @RequestParam(value = "y", required = false) Double y,
+            @RequestParam(value = "lastDistance", required = false) Double lastDistance,
+            @RequestParam(value = "lastId", required = false) Long lastId,
+            @RequestParam(value = "sortBy", required = false) String sortBy,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "openNow", required = false) Boolean openNow,
+            @RequestParam(value = "fields", required = false) String fields
     ) {
-        return shopService.queryShopByType(typeId, current, x, y);
+        return shopService.queryShopByType(typeId, current, x, y, lastDistance, lastId, sortBy, cursor, openNow, fields);
     }
 
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
      * @param current 页码
+     * @param cursor 上一页返回的游标，传入时按游标分页，第一页传空字符串
+     * @param fields 逗号分隔的返回字段，为空时返回所有字段
      * @return 商铺列表
      */
     @GetMapping("/of/name")
     public Result queryShopByName(
             @RequestParam(value = "name", required = false) String name,
-            @RequestParam(value = "current", defaultValue = "1") Integer current
+            @RequestParam(value = "current", defaultValue = "1") Integer current,
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "fields", required = false) String fields
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current, cursor, fields);
+    }
+
+    /**
+     * 根据用户已输入的内容联想商铺名称和商圈
+     * @param prefix 已输入的内容
+     * @return 联想词列表
+     */
+    @GetMapping("/suggest")
+    public Result querySuggestions(@RequestParam(value = "prefix", required = false) String prefix) {
+        return shopService.querySuggestions(prefix);
     }
 }
@@ -2,14 +2,15 @@ package com.hmdp.controller;
 
 
 import com.hmdp.dto.Result;
-import com.hmdp.entity.ShopType;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import javax.annotation.Resource;
-import java.util.List;
 
 
 @RestController
@@ -18,9 +19,19 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
-    @GetMapping("list")
-    public Result queryTypeList() {
-
-        return typeService.queryTypeList();
+    /**
+     * 查询商铺类型列表，直接返回快照中预先序列化好的响应体
+     * @return 商铺类型列表，客户端版本未变化时返回304
+     */
+    @GetMapping(value = "list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public Object queryTypeList(ServletWebRequest webRequest) {
+        ShopTypeSnapshot snapshot = typeService.getSnapshot();
+        if (snapshot == null) {
+            return Result.fail("商铺分类不存在");
+        }
+        if (webRequest.checkNotModified(snapshot.getEtag())) {
+            return null;
+        }
+        return snapshot.getBody();
     }
 }
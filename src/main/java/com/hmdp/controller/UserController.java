@@ -9,6 +9,7 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowCounter;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -28,6 +29,9 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private FollowCounter followCounter;
+
     /**
      * 发送手机验证码
      * @param phone
@@ -75,6 +79,8 @@ public class UserController {
         }
         info.setCreateTime(null);
         info.setUpdateTime(null);
+        // 关注数和粉丝数加上尚未写回的增量
+        followCounter.merge(info);
         // 返回
         return Result.ok(info);
     }
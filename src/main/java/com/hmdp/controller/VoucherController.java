@@ -5,6 +5,7 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.hmdp.service.IVoucherService;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
 
 import javax.annotation.Resource;
 
@@ -23,7 +24,7 @@ public class VoucherController {
      */
     @PostMapping
     public Result addVoucher(@RequestBody Voucher voucher) {
-        voucherService.save(voucher);
+        voucherService.addVoucher(voucher);
         return Result.ok(voucher.getId());
     }
 
@@ -41,10 +42,11 @@ public class VoucherController {
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
-     * @return 优惠券列表
+     * @return 优惠券列表，客户端版本未变化时返回304
      */
     @GetMapping("/list/{shopId}")
-    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId) {
-       return voucherService.queryVoucherOfShop(shopId);
+    public Result queryVoucherOfShop(@PathVariable("shopId") Long shopId, ServletWebRequest webRequest) {
+        // ETag包含实时库存，版本未变化时返回null
+        return voucherService.queryVoucherOfShop(shopId, webRequest::checkNotModified);
     }
 }
@@ -0,0 +1,44 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 笔记列表使用的摘要，不包含图片和正文，单独缓存
+ */
+@Data
+public class BlogSummaryDTO {
+    /**
+     * 摘要中来自数据库的字段
+     */
+    public static final List<String> COLUMN_FIELDS = Arrays.asList(
+            "id", "shopId", "userId", "title", "liked", "comments", "createTime");
+    /**
+     * 摘要包含的所有字段，name、icon、isLike每次请求时填充，不写入缓存
+     */
+    public static final List<String> FIELDS = Arrays.asList(
+            "id", "shopId", "userId", "title", "liked", "comments", "createTime", "name", "icon", "isLike");
+
+    private Long id;
+    private Long shopId;
+    private Long userId;
+    private String title;
+    private Integer liked;
+    private Integer comments;
+    private LocalDateTime createTime;
+    /**
+     * 用户名称
+     */
+    private String name;
+    /**
+     * 用户图标
+     */
+    private String icon;
+    /**
+     * 是否点赞过了
+     */
+    private Boolean isLike;
+}
@@ -0,0 +1,25 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.BlogComments;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 笔记的第一页评论，整体缓存，不包含评论用户信息和当前用户是否点赞
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CommentPageDTO {
+    /**
+     * 当前页评论
+     */
+    private List<BlogComments> list;
+    /**
+     * 下一页的游标，没有下一页时为null
+     */
+    private String nextCursor;
+}
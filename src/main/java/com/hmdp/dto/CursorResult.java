@@ -0,0 +1,21 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CursorResult<T> {
+    /**
+     * 当前页数据
+     */
+    private List<T> list;
+    /**
+     * 下一页的游标，没有下一页时为null
+     */
+    private String nextCursor;
+}
@@ -0,0 +1,32 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ShopSuggestion {
+    /**
+     * 联想类型：商铺
+     */
+    public static final String TYPE_SHOP = "shop";
+    /**
+     * 联想类型：商圈
+     */
+    public static final String TYPE_AREA = "area";
+
+    /**
+     * 联想词
+     */
+    private String text;
+    /**
+     * 类型，shop或area
+     */
+    private String type;
+    /**
+     * 商铺id，商圈时为null
+     */
+    private Long shopId;
+}
@@ -0,0 +1,30 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 商铺列表使用的摘要，不包含图片和地址，单独缓存
+ */
+@Data
+public class ShopSummaryDTO {
+    /**
+     * 摘要包含的字段，与数据库列一一对应
+     */
+    public static final List<String> FIELDS = Arrays.asList(
+            "id", "name", "typeId", "area", "x", "y", "avgPrice", "sold", "comments", "score", "openHours");
+
+    private Long id;
+    private String name;
+    private Long typeId;
+    private String area;
+    private Double x;
+    private Double y;
+    private Long avgPrice;
+    private Integer sold;
+    private Integer comments;
+    private Integer score;
+    private String openHours;
+}
@@ -0,0 +1,32 @@
+package com.hmdp.dto;
+
+import com.hmdp.entity.ShopType;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * 商铺类型列表的不可变快照
+ * 保存排好序的列表以及序列化好的响应体，命中时不需要再解析和序列化
+ */
+@Getter
+@AllArgsConstructor
+public class ShopTypeSnapshot {
+    /**
+     * 快照对应的版本号，来自Redis中的版本key
+     */
+    private final String version;
+    /**
+     * 按sort字段排好序的类型列表（只读）
+     */
+    private final List<ShopType> types;
+    /**
+     * Result.ok(types)序列化后的JSON字节
+     */
+    private final byte[] body;
+    /**
+     * 响应体的ETag
+     */
+    private final String etag;
+}
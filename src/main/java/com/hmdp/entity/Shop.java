@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.annotation.IdType;
 import com.baomidou.mybatisplus.annotation.TableField;
 import com.baomidou.mybatisplus.annotation.TableId;
 import com.baomidou.mybatisplus.annotation.TableName;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.hmdp.utils.OpenHours;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
 import lombok.experimental.Accessors;
@@ -99,4 +101,11 @@ public class Shop implements Serializable {
 
     @TableField(exist = false)
     private Double distance;
+
+    /**
+     * 解析后的营业时间，只保存在进程内的商铺摘要中，不写入数据库和缓存
+     */
+    @TableField(exist = false)
+    @JsonIgnore
+    private transient OpenHours openSchedule;
 }
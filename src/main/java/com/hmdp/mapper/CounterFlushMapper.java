@@ -0,0 +1,25 @@
+package com.hmdp.mapper;
+
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+
+/**
+ * <p>
+ *  计数器写回记录 Mapper 接口
+ * </p>
+ */
+public interface CounterFlushMapper {
+
+    /**
+     * 记录一个写回批次，已存在时跳过
+     *
+     * @return 1表示新记录，0表示这一批已经写回过
+     */
+    int insertIgnore(@Param("batchKey") String batchKey);
+
+    /**
+     * 删除某个时间之前的记录
+     */
+    int deleteBefore(@Param("time") LocalDateTime time);
+}
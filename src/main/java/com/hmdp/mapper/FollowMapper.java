@@ -2,6 +2,8 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Follow;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.cursor.Cursor;
 
 /**
  * <p>
@@ -13,4 +15,14 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface FollowMapper extends BaseMapper<Follow> {
 
+    /**
+     * 按user_id、follow_user_id顺序流式读取user_id在[from, to)内的关注关系，走(user_id, follow_user_id)唯一索引
+     * 需要在事务中读取，读取期间占用一个数据库连接
+     */
+    Cursor<Follow> scanFollowing(@Param("from") long from, @Param("to") long to);
+
+    /**
+     * 按follow_user_id、user_id顺序流式读取follow_user_id在[from, to)内的关注关系，走(follow_user_id, user_id)索引
+     */
+    Cursor<Follow> scanFans(@Param("from") long from, @Param("to") long to);
 }
@@ -2,6 +2,9 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
 
 /**
  * <p>
@@ -13,4 +16,23 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface UserInfoMapper extends BaseMapper<UserInfo> {
 
+    /**
+     * 为没有详情的用户插入默认详情，已存在的跳过
+     */
+    int insertIgnore(@Param("userIds") Collection<Long> userIds);
+
+    /**
+     * tb_user_info和tb_follow中最大的用户id，没有数据时返回0
+     */
+    long selectMaxUserId();
+
+    /**
+     * 为user_id在[from, to)内、有关注关系但没有详情的用户插入默认详情
+     */
+    int insertMissingFollowUsers(@Param("from") long from, @Param("to") long to);
+
+    /**
+     * 按tb_follow重新计算user_id在[from, to)内用户的关注数和粉丝数，没有关注关系的用户置为0
+     */
+    int recountFollow(@Param("from") long from, @Param("to") long to);
 }
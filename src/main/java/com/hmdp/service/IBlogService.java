@@ -14,7 +14,23 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IBlogService extends IService<Blog> {
 
-    Result queryHotBlog(Integer current);
+    /**
+     * 按热门榜单（HotBlogRanker，点赞、评论数随发布时间衰减后的热度分数）分页查询热门笔记
+     * @param current 页码，cursor不为null时忽略
+     * @param cursor 上一页返回的游标，不为null时按游标分页，第一页传空字符串，无法解析时返回失败
+     * @param fields 逗号分隔的返回字段，为空时返回所有字段
+     * @return 笔记列表，按游标分页时返回CursorResult
+     */
+    Result queryHotBlog(Integer current, String cursor, String fields);
+
+    /**
+     * 分页查询用户的笔记
+     * @param userId 用户id
+     * @param current 页码，cursor不为null时忽略
+     * @param cursor 上一页返回的游标，不为null时按游标分页，第一页传空字符串
+     * @return 笔记列表，按游标分页时返回CursorResult
+     */
+    Result queryBlogOfUser(Long userId, Integer current, String cursor);
 
     Result queryBlogById(Long id);
 
@@ -24,5 +40,12 @@ public interface IBlogService extends IService<Blog> {
 
     Result saveBlog(Blog blog);
 
-    Result queryBlogOfFollow(Long max, Integer offset);
+    /**
+     * 滚动分页查询关注的人发布的笔记
+     * @param max 上一次查询的最小时间戳
+     * @param offset 与最小时间戳相同的元素个数
+     * @param fields 逗号分隔的返回字段，为空时返回所有字段
+     * @return ScrollResult
+     */
+    Result queryBlogOfFollow(Long max, Integer offset, String fields);
 }
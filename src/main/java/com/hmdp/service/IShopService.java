@@ -4,6 +4,10 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
 /**
  * <p>
  *  服务类
@@ -21,6 +25,21 @@ public interface IShopService extends IService<Shop> {
      */
     Result queryShopById(Long id);
 
+    /**
+     * 根据id查询商铺信息，ETag由返回的商铺数据计算
+     * @param id 商铺id
+     * @param notModified 传入当前数据的ETag，返回true表示客户端版本未变化
+     * @return 商铺详情数据，客户端版本未变化时返回null
+     */
+    Result queryShopById(Long id, Predicate<String> notModified);
+
+    /**
+     * 新增商铺信息
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    Result saveShop(Shop shop);
+
     /**
      * 更新商铺信息
      * @param shop 商铺数据
@@ -28,5 +47,44 @@ public interface IShopService extends IService<Shop> {
      */
     Result updateShop(Shop shop);
 
-    Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+    /**
+     * 根据商铺类型分页查询商铺信息
+     * @param typeId 商铺类型
+     * @param current 页码
+     * @param x 经度，为空时按数据库分页
+     * @param y 纬度
+     * @param lastDistance 上一页最后一个商铺的距离，与lastId一起传入时按游标分页，忽略current
+     * @param lastId 上一页最后一个商铺的id，按距离或排序字段分页时作为游标
+     * @param sortBy 排序字段（sold、score、comments、avgPrice），只在不按坐标查询时生效
+     * @param cursor 上一页返回的游标，只在不按坐标和排序字段查询时生效，第一页传空字符串
+     * @param openNow 为true时只返回当前正在营业的商铺，营业时间无法解析的商铺视为不营业
+     * @param fields 逗号分隔的返回字段，为空时返回所有字段
+     * @return 商铺列表，按游标分页时返回CursorResult
+     */
+    Result queryShopByType(Integer typeId, Integer current, Double x, Double y, Double lastDistance,
+                           Long lastId, String sortBy, String cursor, Boolean openNow, String fields);
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息
+     * @param name 商铺名称关键字
+     * @param current 页码，cursor不为null时忽略
+     * @param cursor 上一页返回的游标，不为null时按游标分页，第一页传空字符串
+     * @param fields 逗号分隔的返回字段，为空时返回所有字段
+     * @return 商铺列表，按游标分页时返回CursorResult
+     */
+    Result queryShopByName(String name, Integer current, String cursor, String fields);
+
+    /**
+     * 根据用户已输入的内容联想商铺名称和商圈
+     * @param prefix 已输入的内容
+     * @return 联想词列表
+     */
+    Result querySuggestions(String prefix);
+
+    /**
+     * 按id升序分批遍历所有商铺
+     * @param batchSize 每批的数量
+     * @param consumer 每批商铺的处理逻辑
+     */
+    void scanShops(int batchSize, Consumer<List<Shop>> consumer);
 }
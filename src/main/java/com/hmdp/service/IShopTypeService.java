@@ -1,11 +1,9 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.baomidou.mybatisplus.extension.service.IService;
-import org.springframework.data.redis.core.StringRedisTemplate;
-
-import javax.annotation.Resource;
 
 /**
  * <p>
@@ -20,4 +18,15 @@ public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
 
+    /**
+     * 获取当前节点的商铺类型快照，最多每隔几秒检查一次Redis中的版本号
+     * @return 快照，数据库中没有商铺类型时返回null
+     */
+    ShopTypeSnapshot getSnapshot();
+
+    /**
+     * 商铺类型变更后调用，删除共享缓存并递增版本号，通知各节点重建快照
+     */
+    void refreshTypeList();
+
 }
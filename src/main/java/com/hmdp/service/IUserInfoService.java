@@ -3,6 +3,8 @@ package com.hmdp.service;
 import com.hmdp.entity.UserInfo;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.Collection;
+
 /**
  * <p>
  *  服务类
@@ -13,4 +15,15 @@ import com.baomidou.mybatisplus.extension.service.IService;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    /**
+     * 为没有详情的用户插入默认详情，用于之后直接累加计数
+     */
+    void createIfAbsent(Collection<Long> userIds);
+
+    /**
+     * 按tb_follow重新计算所有用户的关注数和粉丝数并覆盖tb_user_info中的值，按用户id区间分批执行
+     *
+     * @return 处理的区间数
+     */
+    int recountFollow();
 }
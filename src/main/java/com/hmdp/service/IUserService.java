@@ -3,9 +3,11 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.List;
 
 /**
  * <p>
@@ -31,4 +33,11 @@ public interface IUserService extends IService<User> {
      * @param session
      */
     Result login(LoginFormDTO loginForm, HttpSession session);
+
+    /**
+     * 批量查询用户的公开信息，先批量读取缓存，未命中的一次性查询数据库
+     * @param ids 用户id
+     * @return 用户信息，按ids的顺序，不存在的用户不返回
+     */
+    List<UserDTO> queryUserBatch(List<Long> ids);
 }
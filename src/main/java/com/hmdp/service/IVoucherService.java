@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.function.Predicate;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,15 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    /**
+     * 查询店铺的优惠券列表，库存从Redis中实时读取
+     * @param shopId 店铺id
+     * @param notModified 传入当前列表的ETag，返回true表示客户端版本未变化
+     * @return 优惠券列表，客户端版本未变化时返回null
+     */
+    Result queryVoucherOfShop(Long shopId, Predicate<String> notModified);
+
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
 }
@@ -1,11 +1,37 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.dto.CommentPageDTO;
+import com.hmdp.dto.CursorResult;
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
 import com.hmdp.entity.BlogComments;
 import com.hmdp.mapper.BlogCommentsMapper;
 import com.hmdp.service.IBlogCommentsService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.service.IBlogService;
+import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogCommentCounter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.KeysetPager;
+import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TxUtils;
+import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +43,174 @@ import org.springframework.stereotype.Service;
 @Service
 public class BlogCommentsServiceImpl extends ServiceImpl<BlogCommentsMapper, BlogComments> implements IBlogCommentsService {
 
+    /**
+     * 评论内容的最大长度，与tb_blog_comments.content一致
+     */
+    private static final int MAX_CONTENT_LENGTH = 255;
+    /**
+     * 被禁止查看的评论状态
+     */
+    private static final int STATUS_HIDDEN = 2;
+
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private IUserService userService;
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private BlogCommentCounter blogCommentCounter;
+
+    @Override
+    public Result saveComment(BlogComments comment) {
+        // 1.校验内容
+        if (StrUtil.isBlank(comment.getContent()) || comment.getContent().length() > MAX_CONTENT_LENGTH) {
+            return Result.fail("评论内容不能为空且不能超过" + MAX_CONTENT_LENGTH + "个字");
+        }
+        Long blogId = comment.getBlogId();
+        if (blogId == null || blogService.lambdaQuery().eq(Blog::getId, blogId).count() == 0) {
+            return Result.fail("该笔记不存在");
+        }
+        // 2.回复时校验一级评论和被回复的评论属于同一个笔记和同一个楼
+        Long parentId = comment.getParentId() == null ? 0L : comment.getParentId();
+        Long answerId = comment.getAnswerId() == null ? parentId : comment.getAnswerId();
+        if (parentId != 0) {
+            BlogComments parent = getById(parentId);
+            if (parent == null || !blogId.equals(parent.getBlogId()) || parent.getParentId() != 0) {
+                return Result.fail("回复的评论不存在");
+            }
+            if (!answerId.equals(parentId)) {
+                BlogComments answer = getById(answerId);
+                if (answer == null || !parentId.equals(answer.getParentId())) {
+                    return Result.fail("回复的评论不存在");
+                }
+            }
+        } else {
+            answerId = 0L;
+        }
+        // 3.保存评论
+        Long userId = UserHolder.getUser().getId();
+        comment.setId(null)
+                .setUserId(userId)
+                .setParentId(parentId)
+                .setAnswerId(answerId)
+                .setLiked(0)
+                .setStatus(false);
+        save(comment);
+        // 4.事务提交后累加笔记的评论数，新的一级评论删除第一页评论缓存
+        boolean topLevel = parentId == 0;
+        TxUtils.afterCommit(() -> {
+            blogCommentCounter.increment(blogId);
+            if (topLevel) {
+                stringRedisTemplate.delete(RedisConstants.CACHE_BLOG_COMMENTS_KEY + blogId);
+            }
+        });
+        return Result.ok(comment.getId());
+    }
+
+    @Override
+    public Result queryComments(Long blogId, String cursor) {
+        // 游标只能为空（第一页）或上一页返回的值
+        if (!KeysetPager.isValid(cursor, 1)) {
+            return Result.fail("游标无效！");
+        }
+        // 1.第一页读取缓存，新的一级评论或评论点赞数写回时删除
+        CursorResult<BlogComments> page;
+        if (StrUtil.isBlank(cursor)) {
+            CommentPageDTO cached = cacheClient.queryWithLogicalExpireOrLoad(RedisConstants.CACHE_BLOG_COMMENTS_KEY,
+                    blogId, CommentPageDTO.class, id -> {
+                        CursorResult<BlogComments> first = pageComments(id, null);
+                        return new CommentPageDTO(first.getList(), first.getNextCursor());
+                    }, RedisConstants.CACHE_BLOG_COMMENTS_TTL, TimeUnit.MINUTES);
+            page = cached == null ? new CursorResult<>(Collections.emptyList(), null)
+                    : new CursorResult<>(cached.getList(), cached.getNextCursor());
+        } else {
+            // 2.之后的页按游标查询数据库
+            page = pageComments(blogId, cursor);
+        }
+        // 3.填充用户、点赞状态和尚未写回的点赞数
+        fillComments(page.getList());
+        return Result.ok(page);
+    }
+
+    @Override
+    public Result queryReplies(Long parentId, String cursor) {
+        // parent_id为0的是一级评论，不能按回复查询，否则会扫描所有笔记的一级评论
+        if (parentId == null || parentId <= 0) {
+            return Result.fail("回复的评论不存在");
+        }
+        if (!KeysetPager.isValid(cursor, 1)) {
+            return Result.fail("游标无效！");
+        }
+        // 展开某一楼时才查询回复，按时间正序，走parent_id索引
+        QueryChainWrapper<BlogComments> query = query()
+                .eq("parent_id", parentId)
+                .ne("status", STATUS_HIDDEN);
+        CursorResult<BlogComments> page = KeysetPager.page(query, cursor, SystemConstants.MAX_PAGE_SIZE,
+                KeysetPager.asc("id", BlogComments::getId));
+        fillComments(page.getList());
+        return Result.ok(page);
+    }
+
+    @Override
+    public Result likeComment(Long id) {
+        // 点赞用户集合和点赞数增量在Lua脚本中一起修改，点赞数由后台批量写回数据库
+        Long userId = UserHolder.getUser().getId();
+        blogCommentCounter.toggleLike(id, userId);
+        return Result.ok();
+    }
+
+    /**
+     * 按游标查询笔记的一级评论，最新的在前，走(blog_id, parent_id, id)索引
+     */
+    private CursorResult<BlogComments> pageComments(Long blogId, String cursor) {
+        QueryChainWrapper<BlogComments> query = query()
+                .eq("blog_id", blogId)
+                .eq("parent_id", 0)
+                .ne("status", STATUS_HIDDEN);
+        return KeysetPager.page(query, cursor, SystemConstants.MAX_PAGE_SIZE,
+                KeysetPager.desc("id", BlogComments::getId));
+    }
+
+    /**
+     * 填充评论的用户信息和当前用户是否点赞，用户批量读取缓存，点赞状态通过一次管道查询
+     */
+    private void fillComments(List<BlogComments> comments) {
+        if (comments.isEmpty()) {
+            return;
+        }
+        // 1.去重后批量读取评论用户
+        List<Long> userIds = comments.stream().map(BlogComments::getUserId).distinct().collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserBatch(userIds).stream()
+                .collect(Collectors.toMap(UserDTO::getId, user -> user));
+        // 2.一次管道查询当前用户的点赞状态
+        List<Object> scores = null;
+        UserDTO current = UserHolder.getUser();
+        if (current != null) {
+            String member = current.getId().toString();
+            scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (BlogComments comment : comments) {
+                    conn.zScore(RedisConstants.BLOG_COMMENT_LIKED_KEY + comment.getId(), member);
+                }
+                return null;
+            });
+        }
+        // 3.点赞数加上尚未写回数据库的增量
+        blogCommentCounter.mergeLikes(comments);
+        // 4.填充
+        for (int i = 0; i < comments.size(); i++) {
+            BlogComments comment = comments.get(i);
+            UserDTO user = users.get(comment.getUserId());
+            if (user != null) {
+                comment.setName(user.getNickName());
+                comment.setIcon(user.getIcon());
+            }
+            if (scores != null) {
+                comment.setIsLike(scores.get(i) != null);
+            }
+        }
+    }
 }
@@ -3,21 +3,34 @@ package com.hmdp.service.impl;
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.constants.RedisConstants;
+import com.hmdp.dto.BlogSummaryDTO;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.BlogCommentCounter;
+import com.hmdp.utils.BlogLikeCounter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedCompactor;
+import com.hmdp.utils.FeedFanout;
+import com.hmdp.utils.FeedMerger;
+import com.hmdp.utils.FieldProjection;
+import com.hmdp.utils.HotBlogRanker;
+import com.hmdp.utils.KeysetPager;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TxUtils;
 import com.hmdp.utils.UserHolder;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
@@ -26,9 +39,13 @@ import org.springframework.util.StringUtils;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -47,31 +64,144 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     @Resource
     private StringRedisTemplate stringRedisTemplate;
     @Resource
-    private IFollowService followService;
+    private CacheClient cacheClient;
+    @Resource
+    private FeedFanout feedFanout;
+    @Resource
+    private FeedCompactor feedCompactor;
+    @Resource
+    private BlogLikeCounter blogLikeCounter;
+    @Resource
+    private HotBlogRanker hotBlogRanker;
+    @Resource
+    private BlogCommentCounter blogCommentCounter;
+
     @Override
-    public Result queryHotBlog(Integer current) {
-        // 根据用户查询
+    public Result queryHotBlog(Integer current, String cursor, String fields) {
+        // 只查询请求的字段，查询用户需要作者id
+        FieldProjection<Blog> projection = FieldProjection.parse(Blog.class, fields, "userId");
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 1.起始名次，游标中记录下一页的起始名次
+        long start = (long) (current - 1) * size;
+        if (StrUtil.isNotBlank(cursor)) {
+            List<Object> values = KeysetPager.decode(cursor);
+            if (values == null || values.size() != 1 || !(values.get(0) instanceof Number)
+                    || ((Number) values.get(0)).longValue() < 0) {
+                return Result.fail("游标无效！");
+            }
+            start = ((Number) values.get(0)).longValue();
+        } else if (cursor != null) {
+            start = 0;
+        }
+        // 2.从热门榜单读取这一页的笔记id，多取一条用于判断是否还有下一页
+        List<Long> ids = hotBlogRanker.range(start, size + 1);
+        boolean hasMore = ids.size() > size;
+        if (hasMore) {
+            ids = ids.subList(0, size);
+        }
+        // 3.批量查询笔记，填充用户和点赞信息
+        List<Blog> blogs = queryBlogByIds(ids, projection);
+        fillBlogs(blogs, projection);
+        if (cursor != null) {
+            String next = hasMore ? KeysetPager.encode(Collections.singletonList(start + size)) : null;
+            return Result.ok(FieldProjection.project(projection, new CursorResult<>(blogs, next)));
+        }
+        return Result.ok(FieldProjection.project(projection, blogs));
+    }
+
+    /**
+     * 填充笔记的作者信息、当前用户是否点赞和尚未写回的点赞数、评论数，没有请求的字段不查询
+     * 一页笔记的作者一次批量读取缓存，点赞状态和各个增量各通过一次管道查询，请求次数与笔记数无关
+     */
+    private void fillBlogs(List<Blog> blogs, FieldProjection<Blog> projection) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        boolean needUser = projection == null || projection.includes("name") || projection.includes("icon");
+        boolean needLike = projection == null || projection.includes("isLike");
+        boolean needLiked = projection == null || projection.includes("liked");
+        boolean needComments = projection == null || projection.includes("comments");
+        // 1.去重后批量读取作者，未命中缓存的一次性查询数据库
+        Map<Long, UserDTO> users = Collections.emptyMap();
+        if (needUser) {
+            List<Long> userIds = blogs.stream().map(Blog::getUserId).distinct().collect(Collectors.toList());
+            users = userService.queryUserBatch(userIds).stream()
+                    .collect(Collectors.toMap(UserDTO::getId, user -> user));
+        }
+        // 2.一次管道查询当前用户对这一页笔记的点赞状态
+        List<Object> scores = null;
+        UserDTO current = UserHolder.getUser();
+        if (needLike && current != null) {
+            String member = current.getId().toString();
+            scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Blog blog : blogs) {
+                    conn.zScore(RedisConstants.BLOG_LIKED_KEY + blog.getId(), member);
+                }
+                return null;
+            });
+        }
+        // 3.点赞数和评论数加上尚未写回数据库的增量
+        if (needLiked) {
+            blogLikeCounter.merge(blogs);
+        }
+        if (needComments) {
+            blogCommentCounter.mergeComments(blogs);
+        }
+        // 4.填充
+        for (int i = 0; i < blogs.size(); i++) {
+            Blog blog = blogs.get(i);
+            UserDTO user = users.get(blog.getUserId());
+            if (user != null) {
+                blog.setName(user.getNickName());
+                blog.setIcon(user.getIcon());
+            }
+            if (scores != null) {
+                blog.setIsLike(scores.get(i) != null);
+            }
+        }
+    }
+
+    /**
+     * 按字段筛选只查询需要的列，projection为null时查询所有列
+     */
+    private QueryChainWrapper<Blog> select(FieldProjection<Blog> projection) {
+        return projection == null ? query() : projection.select(query());
+    }
+
+    @Override
+    public Result queryBlogOfUser(Long userId, Integer current, String cursor) {
+        // 按游标分页
+        if (cursor != null) {
+            return Result.ok(KeysetPager.page(query().eq("user_id", userId), cursor, SystemConstants.MAX_PAGE_SIZE,
+                    KeysetPager.asc("id", Blog::getId)));
+        }
+        // 按页码分页，不查询总数
         Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog -> {
-            queryBlogUser(blog);
-            setBlogIsLike(blog);
-        });
-        return Result.ok(records);
+                .eq("user_id", userId)
+                .orderByAsc("id")
+                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE, false));
+        return Result.ok(page.getRecords());
     }
 
     @Override
     public Result queryBlogById(Long id) {
-        Blog blog = getById(id);
+        // 1.笔记发布后不再修改，按逻辑过期缓存
+        Blog blog = cacheClient.queryWithLogicalExpireOrLoad(RedisConstants.CACHE_BLOG_KEY, id, Blog.class,
+                this::getById, RedisConstants.CACHE_BLOG_TTL, TimeUnit.MINUTES);
         if (blog == null) {
             return Result.fail("该笔记不存在");
         }
-        queryBlogUser(blog);
+        // 2.作者信息读取用户缓存
+        List<UserDTO> users = userService.queryUserBatch(Collections.singletonList(blog.getUserId()));
+        if (!users.isEmpty()) {
+            blog.setName(users.get(0).getNickName());
+            blog.setIcon(users.get(0).getIcon());
+        }
+        // 3.每次请求叠加当前用户是否点赞和尚未写回的点赞数、评论数
         setBlogIsLike(blog);
+        blogLikeCounter.merge(Collections.singletonList(blog));
+        blogCommentCounter.mergeComments(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
@@ -88,37 +218,36 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result likeBlog(Long id) {
+        // 点赞用户集合和点赞数增量在Lua脚本中一起修改，点赞数由后台批量写回数据库
         Long userId = UserHolder.getUser().getId();
-        String key = RedisConstants.BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        // 当前用户未点赞
-        if (score == null) {
-            boolean success = lambdaUpdate().setSql("liked = liked + 1").eq(Blog::getId, id).update();
-            if (success) {
-                stringRedisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
-            }
-        } else {
-            boolean success = lambdaUpdate().setSql("liked = liked - 1").eq(Blog::getId, id).update();
-            if (success) {
-                stringRedisTemplate.opsForZSet().remove(key, userId.toString());
-            }
-        }
+        blogLikeCounter.toggle(id, userId);
         return Result.ok();
     }
 
     @Override
     public Result queryBlogLikes(Long id) {
-        String key = RedisConstants.BLOG_LIKED_KEY + id;
-        Set<String> likeTop5 = stringRedisTemplate.opsForZSet().range(key, 0, 4);
-        if (CollectionUtils.isEmpty(likeTop5)) {
-            return Result.ok(Collections.EMPTY_LIST);
-        }
-        List<Long> userIds = likeTop5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String userStr = StrUtil.join(",", userIds);
-        List<UserDTO> userDTOS = userService.lambdaQuery().in(User::getId, userIds)
-                .last("ORDER BY FIELD(id,"+ userStr+ ")").list()
-                .stream().map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        // 1.读取缓存的前5名点赞用户，前5名变化时由点赞脚本删除
+        String cacheKey = RedisConstants.CACHE_BLOG_LIKES_KEY + id;
+        String json = stringRedisTemplate.opsForValue().get(cacheKey);
+        if (json != null) {
+            return Result.ok(JSONUtil.toList(json, UserDTO.class));
+        }
+        // 2.未命中，查询最早点赞的5个用户，用户信息批量读取缓存
+        String likedKey = RedisConstants.BLOG_LIKED_KEY + id;
+        Set<String> likeTop5 = stringRedisTemplate.opsForZSet().range(likedKey, 0, 4);
+        List<UserDTO> userDTOS = Collections.emptyList();
+        if (!CollectionUtils.isEmpty(likeTop5)) {
+            List<Long> userIds = likeTop5.stream().map(Long::valueOf).collect(Collectors.toList());
+            userDTOS = userService.queryUserBatch(userIds);
+        }
+        // 3.不存在时才写入缓存，不覆盖其它请求写入的结果
+        Boolean stored = stringRedisTemplate.opsForValue().setIfAbsent(cacheKey, JSONUtil.toJsonStr(userDTOS),
+                RedisConstants.CACHE_BLOG_LIKES_TTL, TimeUnit.MINUTES);
+        // 4.读取前5名之后、写入缓存之前点赞脚本已经删除过缓存时，写入的是旧数据，重新读取前5名，变化了就删除
+        if (Boolean.TRUE.equals(stored)
+                && !Objects.equals(likeTop5, stringRedisTemplate.opsForZSet().range(likedKey, 0, 4))) {
+            stringRedisTemplate.delete(cacheKey);
+        }
         return Result.ok(userDTOS);
     }
 
@@ -132,28 +261,24 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if(!isSuccess){
             return Result.fail("新增笔记失败!");
         }
-        // 3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        // 4.推送笔记id给所有粉丝
-        for (Follow follow : follows) {
-            // 4.1.获取粉丝id
-            Long userId = follow.getUserId();
-            // 4.2.推送
-            String key = RedisConstants.FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key, blog.getId().toString(), System.currentTimeMillis());
-        }
-        // 5.返回id
+        // 3.事务提交后记录推送任务，由后台分批推送笔记id给所有粉丝，并加入热门榜单
+        Long blogId = blog.getId();
+        long time = System.currentTimeMillis();
+        TxUtils.afterCommit(() -> {
+            feedFanout.submit(blogId, user.getId(), time);
+            hotBlogRanker.publish(blogId, time);
+        });
+        // 4.返回id
         return Result.ok(blog.getId());
     }
 
     @Override
-    public Result queryBlogOfFollow(Long max, Integer offset) {
-        // 1.获取当前用户
+    public Result queryBlogOfFollow(Long max, Integer offset, String fields) {
+        // 1.获取当前用户，收件箱因长期未登录被删除过时先重建
         Long userId = UserHolder.getUser().getId();
-        // 2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
-        String key = RedisConstants.FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples = stringRedisTemplate.opsForZSet()
-                .reverseRangeByScoreWithScores(key, 0, max, offset, 2);
+        feedCompactor.restoreIfDropped(userId);
+        // 2.查询收件箱和关注的大V的发件箱
+        Collection<ZSetOperations.TypedTuple<String>> typedTuples = queryFeed(userId, max, offset, 2);
         // 3.非空判断
         if (typedTuples == null || typedTuples.isEmpty()) {
             return Result.ok();
@@ -176,30 +301,82 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         os = minTime == max ? os : os + offset;
         // 5.根据id查询blog
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-
-        for (Blog blog : blogs) {
-            // 5.1.查询blog有关的用户
-            queryBlogUser(blog);
-            // 5.2.查询blog是否被点赞
-            setBlogIsLike(blog);
-        }
+        FieldProjection<Blog> projection = FieldProjection.parse(Blog.class, fields, "userId");
+        List<Blog> blogs = queryBlogByIds(ids, projection);
+        // 5.1.查询blog有关的用户和是否被点赞
+        fillBlogs(blogs, projection);
 
         // 6.封装并返回
         ScrollResult r = new ScrollResult();
-        r.setList(blogs);
+        r.setList(projection == null ? blogs : projection.apply(blogs));
         r.setOffset(os);
         r.setMinTime(minTime);
 
         return Result.ok(r);
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
+    /**
+     * 查询用户的关注流，score不大于max，跳过offset条后返回count条
+     * 只关注普通作者时直接查询收件箱，关注了大V时通过一次管道读取收件箱和各个发件箱的前offset + count条，再k路归并
+     */
+    private Collection<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, long max, int offset, int count) {
+        String inboxKey = RedisConstants.FEED_KEY + userId;
+        // 1.关注的大V
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet()
+                .intersect(RedisConstants.FOLLOW_KEY + userId, RedisConstants.FEED_BIG_AUTHORS_KEY);
+        if (bigAuthors == null || bigAuthors.isEmpty()) {
+            // ZREVRANGEBYSCORE key Max Min LIMIT offset count
+            return stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(inboxKey, 0, max, offset, count);
+        }
+        // 2.一次管道读取收件箱和发件箱
+        List<String> keys = new ArrayList<>(bigAuthors.size() + 1);
+        keys.add(inboxKey);
+        for (String authorId : bigAuthors) {
+            keys.add(RedisConstants.FEED_OUTBOX_KEY + authorId);
+        }
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zRevRangeByScoreWithScores(key, 0, max, 0, offset + count);
+            }
+            return null;
+        });
+        // 3.k路归并
+        List<Set<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Set<ZSetOperations.TypedTuple<String>> tuples = (Set<ZSetOperations.TypedTuple<String>>) result;
+            sources.add(tuples);
+        }
+        return FeedMerger.merge(sources, offset, count);
     }
-    
+
+    /**
+     * 按id的顺序批量查询笔记，请求的字段都在摘要中时读取摘要缓存
+     */
+    private List<Blog> queryBlogByIds(List<Long> ids, FieldProjection<Blog> projection) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        if (projection != null && projection.within(BlogSummaryDTO.FIELDS)) {
+            return queryBlogSummaryBatch(ids);
+        }
+        String idStr = StrUtil.join(",", ids);
+        return select(projection).in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+    }
+
+    /**
+     * 批量读取笔记摘要缓存，未命中的一次性查询数据库中摘要需要的列
+     */
+    private List<Blog> queryBlogSummaryBatch(List<Long> ids) {
+        List<BlogSummaryDTO> summaries = cacheClient.queryBatch(RedisConstants.CACHE_BLOG_SUMMARY_KEY, ids,
+                BlogSummaryDTO.class,
+                missed -> select(FieldProjection.parse(Blog.class, String.join(",", BlogSummaryDTO.COLUMN_FIELDS)))
+                        .in("id", missed)
+                        .list().stream()
+                        .collect(Collectors.toMap(Blog::getId, blog -> BeanUtil.copyProperties(blog, BlogSummaryDTO.class))),
+                RedisConstants.CACHE_BLOG_SUMMARY_TTL, TimeUnit.MINUTES);
+        return summaries.stream().map(summary -> BeanUtil.copyProperties(summary, Blog.class)).collect(Collectors.toList());
+    }
+
 }
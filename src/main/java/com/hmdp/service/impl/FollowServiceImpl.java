@@ -1,17 +1,18 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.constants.RedisConstants;
 import com.hmdp.dto.Result;
-import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Follow;
 import com.hmdp.mapper.FollowMapper;
 import com.hmdp.service.IFollowService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.FollowCounter;
+import com.hmdp.utils.FollowGraph;
 import com.hmdp.utils.UserHolder;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
@@ -28,6 +29,10 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private IUserService userService;
+    @Resource
+    private FollowGraph followGraph;
+    @Resource
+    private FollowCounter followCounter;
 
     @Override
     public Result isFollow(Long followUserId) {
@@ -43,49 +48,51 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result followCommons(Long id) {
         // 1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        String key = RedisConstants.FOLLOW_KEY + userId;
-        // 2.求交集
-        String key2 = RedisConstants.FOLLOW_KEY + id;
-        Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
-        if (intersect == null || intersect.isEmpty()) {
+        // 2.求交集，关注图就绪时在进程内计算
+        List<Long> ids;
+        if (followGraph.isReady()) {
+            ids = followGraph.graph().common(userId, id, Integer.MAX_VALUE);
+        } else {
+            String key = RedisConstants.FOLLOW_KEY + userId;
+            String key2 = RedisConstants.FOLLOW_KEY + id;
+            Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
+            // 3.解析id集合
+            ids = intersect == null ? Collections.emptyList()
+                    : intersect.stream().map(Long::valueOf).collect(Collectors.toList());
+        }
+        if (ids.isEmpty()) {
             // 无交集
             return Result.ok(Collections.emptyList());
         }
-        // 3.解析id集合
-        List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
         // 4.查询用户
-        List<UserDTO> users = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
-        return Result.ok(users);
+        return Result.ok(userService.queryUserBatch(ids));
     }
     @Override
     public Result follow(Long followUserId, Boolean isFollow) {
         // 1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        String key = RedisConstants.FOLLOW_KEY + userId;
         // 1.判断到底是关注还是取关
         if (isFollow) {
-            // 2.关注，新增数据
+            // 2.关注，新增数据，(user_id, follow_user_id)唯一，重复关注直接返回
             Follow follow = new Follow();
             follow.setUserId(userId);
             follow.setFollowUserId(followUserId);
-            boolean isSuccess = save(follow);
-            if (isSuccess) {
-                // 把关注用户的id，放入redis的set集合 sadd userId followerUserId
-                stringRedisTemplate.opsForSet().add(key, followUserId.toString());
+            try {
+                save(follow);
+            } catch (DuplicateKeyException e) {
+                return Result.ok();
             }
-
         } else {
             // 3.取关，删除 delete from tb_follow where user_id = ? and follow_user_id = ?
             boolean isSuccess = remove(new QueryWrapper<Follow>()
                     .eq("user_id", userId).eq("follow_user_id", followUserId));
-            if (isSuccess) {
-                // 把关注用户的id从Redis集合中移除
-                stringRedisTemplate.opsForSet().remove(key, followUserId.toString());
+            if (!isSuccess) {
+                return Result.ok();
             }
         }
+        // 4.同时修改Redis中的关注集合、粉丝集合和关注数、粉丝数，并通知各节点更新关注图
+        followCounter.onFollowChanged(userId, followUserId, isFollow);
+        followGraph.publish(userId, followUserId, isFollow);
         return Result.ok();
     }
 }
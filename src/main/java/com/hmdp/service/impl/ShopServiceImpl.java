@@ -1,26 +1,46 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.IdUtil;
 import cn.hutool.core.util.RandomUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.constants.RedisConstants;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopSummaryDTO;
+import com.hmdp.dto.ShopSuggestion;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheRebuildExecutor;
+import com.hmdp.utils.ETagHelper;
+import com.hmdp.utils.FieldProjection;
+import com.hmdp.utils.KeysetPager;
+import com.hmdp.utils.OpenHours;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopChangeNotifier;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRanking;
+import com.hmdp.utils.ShopSuggestIndex;
 import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.TxUtils;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.DefaultTypedTuple;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -28,9 +48,11 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static com.hmdp.constants.RedisConstants.CACHE_SHOP_KEY;
 import static com.hmdp.constants.RedisConstants.CACHE_SHOP_TTL;
@@ -44,6 +66,20 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     private StringRedisTemplate stringRedisTemplate;
     @Resource
     private CacheClient cacheClient;
+    @Resource
+    private CacheRebuildExecutor cacheRebuildExecutor;
+    @Resource
+    private ShopChangeNotifier shopChangeNotifier;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopGeoSync shopGeoSync;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+    @Resource
+    private ShopSuggestIndex shopSuggestIndex;
+    @Resource
+    private ShopRanking shopRanking;
 
     /**
      * 根据id查询商铺信息
@@ -58,8 +94,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //                .queryWithPassThrough(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
 //         互斥锁解决缓存击穿
-         Shop shop = cacheClient
-                 .queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+         Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, RedisConstants.CACHE_SHOP_ETAG_KEY, id, Shop.class,
+                 this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         // 逻辑过期解决缓存击穿
 //         Shop shop = cacheClient
@@ -72,12 +108,29 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return Result.ok(shop);
     }
 
+    @Override
+    public Result queryShopById(Long id, Predicate<String> notModified) {
+        // 1.ETag与商铺缓存一起写入和删除，与客户端一致时直接返回304，不需要读取和序列化商铺
+        String etag = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_ETAG_KEY + id);
+        if (etag != null && notModified.test(etag)) {
+            return null;
+        }
+        Result result = queryShopById(id);
+        if (!BooleanUtil.isTrue(result.getSuccess())) {
+            return result;
+        }
+        // 2.缓存由其它途径写入、没有ETag时按返回的数据计算
+        if (etag == null) {
+            etag = ETagHelper.etagOf(JSONUtil.toJsonStr(result.getData()));
+        }
+        return notModified.test(etag) ? null : result;
+    }
+
     /**
      * 使用逻辑过期解决缓存击穿
      * @param id
      * @return
      */
-    private ExecutorService cacheReloadExecutor = Executors.newFixedThreadPool(5);
     private Shop queryWithLogicalExpire(Long id) {
         // 1.查询redis中的商铺缓存
         String shopKey = CACHE_SHOP_KEY + id;
@@ -104,16 +157,16 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             // 二次确认缓存是否存在，防止再次重建缓存
             Shop shopAfter = isNotLogicalExpire(shopKey);
             if (shopAfter != null) return shopAfter;
-            // 获取到互斥锁，开启子线程重建缓存
-            cacheReloadExecutor.submit(() -> {
+            // 获取到互斥锁，提交到公共重建线程池，任务被丢弃时也要释放锁
+            cacheRebuildExecutor.submit(CACHE_SHOP_KEY, shopKey, () -> {
                 try {
                     this.saveShopToRedis(id, 120L);
-                } catch (Exception e) {
+                } catch (InterruptedException e) {
                     throw new RuntimeException(e);
                 } finally {
                     unLock(lockKey);
                 }
-            });
+            }, () -> unLock(lockKey));
         }
         // 返回过期数据
         return shop;
@@ -282,6 +335,25 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    /**
+     * 新增商铺信息
+     *
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 写入GEO索引
+        Long shopId = shop.getId();
+        TxUtils.afterCommit(() -> syncIndexes(shopId, null));
+        // 通知各节点更新进程内索引
+        shopChangeNotifier.publish(shop.getId());
+        // 返回店铺id
+        return Result.ok(shop.getId());
+    }
+
     /**
      * 更新商铺信息
      *
@@ -297,66 +369,640 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (shop.getId() == null) {
             return Result.fail("商铺id不能为空！");
         }
+        //查询修改前的类型，用于商铺切换类型时从旧的GEO索引中删除
+        Shop old = getById(shop.getId());
+        if (old == null) {
+            return Result.fail("商铺不存在！");
+        }
         //更新数据库
         updateById(shop);
-        //删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        //事务提交后按最新数据同步GEO索引和排行榜
+        Long shopId = shop.getId();
+        TxUtils.afterCommit(() -> syncIndexes(shopId, old.getTypeId()));
+        //事务提交后删除缓存，避免并发的查询在提交前读到旧数据并写回缓存
+        TxUtils.afterCommit(() -> stringRedisTemplate.delete(Arrays.asList(CACHE_SHOP_KEY + shopId,
+                RedisConstants.CACHE_SHOP_SUMMARY_KEY + shopId, RedisConstants.CACHE_SHOP_ETAG_KEY + shopId)));
+        //通知各节点更新进程内索引
+        shopChangeNotifier.publish(shop.getId());
 
         return Result.ok();
     }
 
+    /**
+     * 按最新数据同步Redis中的GEO索引和排行榜
+     *
+     * @param oldTypeId 修改前的类型，新增时为null
+     */
+    private void syncIndexes(Long shopId, Long oldTypeId) {
+        Shop latest = getById(shopId);
+        shopGeoSync.sync(shopId, oldTypeId, latest);
+        shopRanking.sync(shopId, oldTypeId, latest);
+    }
+
     @Override
-    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
+    public Result queryShopByType(Integer typeId, Integer current, Double x, Double y, Double lastDistance,
+                                  Long lastId, String sortBy, String cursor, Boolean openNow, String fields) {
+        // 不按坐标查询时游标中是上一页最后一个商铺的id，按坐标查询时是附近商铺的游标
+        if (x == null || y == null ? !isOffsetCursor(cursor) : !isNearbyCursor(cursor)) {
+            return Result.fail("游标无效！");
+        }
+        // 只查询营业中的商铺时，每个商铺按当前时间判断一次营业时间位图
+        Predicate<Shop> filter = null;
+        if (BooleanUtil.isTrue(openNow)) {
+            int minuteOfWeek = OpenHours.nowMinuteOfWeek();
+            filter = shop -> OpenHours.forShop(shop).isOpenAt(minuteOfWeek);
+        }
+        // 只查询和返回请求的字段，过滤营业中的商铺时需要营业时间
+        FieldProjection<Shop> projection = filter == null
+                ? FieldProjection.parse(Shop.class, fields)
+                : FieldProjection.parse(Shop.class, fields, "openHours");
+        Object shops = queryShopByType(typeId, current, x, y, lastDistance, lastId, sortBy, cursor, filter, projection);
+        return Result.ok(FieldProjection.project(projection, shops));
+    }
+
+    /**
+     * 根据商铺类型分页查询商铺信息
+     *
+     * @param filter     额外的过滤条件，为null时不过滤
+     * @param projection 请求的字段，为null时查询所有字段
+     * @return 商铺列表，按游标分页时返回CursorResult
+     */
+    private Object queryShopByType(Integer typeId, Integer current, Double x, Double y, Double lastDistance,
+                                   Long lastId, String sortBy, String cursor, Predicate<Shop> filter,
+                                   FieldProjection<Shop> projection) {
         // 1.判断是否需要根据坐标查询
         if (x == null || y == null) {
-            // 不需要坐标查询，按数据库查询
-            Page<Shop> page = query()
+            // 指定了排序字段，按排行榜查询
+            ShopRanking.Criterion criterion = ShopRanking.Criterion.of(sortBy);
+            if (criterion != null) {
+                return queryShopByRank(typeId.longValue(), criterion, current, lastId, filter, projection);
+            }
+            if (filter != null) {
+                return queryOpenShopById(typeId, current, cursor, filter, projection);
+            }
+            // 不需要坐标查询，按数据库查询，传入游标时按id游标分页
+            if (cursor != null) {
+                return KeysetPager.page(select(projection).eq("type_id", typeId), cursor,
+                        SystemConstants.DEFAULT_PAGE_SIZE, KeysetPager.asc("id", Shop::getId));
+            }
+            Page<Shop> page = select(projection)
                     .eq("type_id", typeId)
-                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
+                    .orderByAsc("id")
+                    .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE, false));
             // 返回数据
-            return Result.ok(page.getRecords());
-        }
-
-        // 2.计算分页参数
-        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
-        int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-
-        // 3.查询redis、按照距离排序、分页。结果：shopId、distance
-        String key = RedisConstants.SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo() // GEOSEARCH key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
-                .search(
-                        key,
-                        GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
-                );
-        // 4.解析出id
-        if (results == null) {
-            return Result.ok(Collections.emptyList());
+            return page.getRecords();
+        }
+
+        // 2.传入游标时按游标分页，游标中记录上一页最后一条的距离和id
+        if (cursor != null) {
+            return queryNearbyByCursor(typeId, x, y, cursor, filter, projection);
+        }
+        // 计算分页参数，客户端传入上一页最后一条的距离和id时按游标分页
+        boolean useCursor = lastDistance != null && lastId != null;
+        int from = useCursor ? 0 : (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        int end = from + SystemConstants.DEFAULT_PAGE_SIZE;
+
+        // 启用了进程内索引时直接查询索引，结果中已包含距离
+        List<Shop> nearby = useCursor
+                ? shopGeoIndex.searchAfter(typeId.longValue(), x, y, SystemConstants.NEARBY_RADIUS,
+                        lastDistance, lastId, SystemConstants.DEFAULT_PAGE_SIZE, filter)
+                : shopGeoIndex.search(typeId.longValue(), x, y, SystemConstants.NEARBY_RADIUS,
+                        from, SystemConstants.DEFAULT_PAGE_SIZE, filter);
+        if (nearby != null) {
+            return nearby;
+        }
+
+        // 3.直接查询GEO索引，结果：shopId、distance，按距离和id排好序
+        // 从头读取时直接搜索，从某个位置之后读取时使用按坐标共享的结果窗口
+        GeoWindow window = new GeoWindow(typeId, x, y, "at:" + x + "," + y, RedisConstants.SHOP_GEO_WINDOW_SIZE);
+        NearbySource source = (distance, id, count) -> distance == null
+                ? searchNearby(typeId, x, y, count)
+                : window.after(distance, id, count);
+        if (filter != null) {
+            return filterNearby(source, useCursor ? lastDistance : null, lastId, from, filter, projection).shops;
         }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from) {
+        List<ZSetOperations.TypedTuple<String>> list = useCursor
+                ? source.after(lastDistance, lastId, SystemConstants.DEFAULT_PAGE_SIZE)
+                : source.after(null, null, end);
+        if (!useCursor) {
+            list = list.size() <= from ? Collections.emptyList() : list.subList(from, list.size());
+        }
+        // 4.根据id查询Shop并返回
+        return queryShopWithDistance(list, projection);
+    }
+
+    /**
+     * 根据窗口中的shopId、distance查询商铺，保持窗口中的顺序
+     */
+    private List<Shop> queryShopWithDistance(List<ZSetOperations.TypedTuple<String>> list,
+                                             FieldProjection<Shop> projection) {
+        // 1.解析出id
+        if (list.isEmpty()) {
             // 没有下一页了，结束
-            return Result.ok(Collections.emptyList());
+            return Collections.emptyList();
         }
-        // 4.1.截取 from ~ end的部分
         List<Long> ids = new ArrayList<>(list.size());
-        Map<String, Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result -> {
-            // 4.2.获取店铺id
-            String shopIdStr = result.getContent().getName();
+        Map<String, Double> distanceMap = new HashMap<>(list.size());
+        for (ZSetOperations.TypedTuple<String> tuple : list) {
+            // 1.1.获取店铺id
+            String shopIdStr = tuple.getValue();
             ids.add(Long.valueOf(shopIdStr));
-            // 4.3.获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr, distance);
-        });
-        // 5.根据id查询Shop
+            // 1.2.获取距离
+            distanceMap.put(shopIdStr, tuple.getScore());
+        }
+        // 2.根据id查询Shop
         String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        List<Shop> shops = select(projection).in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
         for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+            shop.setDistance(distanceMap.get(shop.getId().toString()));
+        }
+        return shops;
+    }
+
+    /**
+     * 按排行榜分页查询商铺
+     * 先从ZSET中按名次读出一页商铺id，再批量读取商铺缓存，未命中的一次性查询数据库
+     *
+     * 请求的字段都在摘要中时读取摘要缓存
+     *
+     * @param filter 额外的过滤条件，为null时不过滤
+     */
+    private List<?> queryShopByRank(Long typeId, ShopRanking.Criterion criterion, Integer current, Long lastId,
+                                    Predicate<Shop> filter, FieldProjection<Shop> projection) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        int from = (current - 1) * size;
+        // 1.排行榜还未建立，按数据库排序，不查询总数
+        if (!shopRanking.isReady()) {
+            if (filter != null) {
+                return filterPage((scanned, last) -> select(projection)
+                        .eq("type_id", typeId)
+                        .orderBy(true, !criterion.isDescending(), criterion.getColumn())
+                        .orderByAsc("id")
+                        .last("LIMIT " + scanned + "," + size * 4)
+                        .list(), from, size, filter).shops;
+            }
+            Page<Shop> page = select(projection)
+                    .eq("type_id", typeId)
+                    .orderBy(true, !criterion.isDescending(), criterion.getColumn())
+                    .orderByAsc("id")
+                    .page(new Page<>(current, size, false));
+            return page.getRecords();
+        }
+        if (filter != null) {
+            // 按名次逐批读取，用每批最后一个商铺作为下一批的游标
+            return filterPage((scanned, last) -> {
+                List<Long> ids = shopRanking.page(typeId, criterion, last == null ? lastId : last.getId(), 0, size * 4);
+                if (ids == null && last == null) {
+                    ids = shopRanking.page(typeId, criterion, null, 0, size * 4);
+                }
+                return ids == null ? Collections.emptyList() : queryShopBatch(ids);
+            }, lastId == null ? from : 0, size, filter).shops;
+        }
+        // 2.按名次读取一页商铺id，游标对应的商铺已不在排行榜中时退回按页码读取
+        List<Long> ids = shopRanking.page(typeId, criterion, lastId, from, size);
+        if (ids == null) {
+            ids = shopRanking.page(typeId, criterion, null, from, size);
+        }
+        // 3.批量读取商铺，请求的字段都在摘要中时只读取摘要
+        if (projection != null && projection.within(ShopSummaryDTO.FIELDS)) {
+            return queryShopSummaryBatch(ids);
+        }
+        return queryShopBatch(ids);
+    }
+
+    /**
+     * 批量读取商铺缓存，未命中的一次性查询数据库，保持ids的顺序
+     */
+    private List<Shop> queryShopBatch(List<Long> ids) {
+        return cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class,
+                missed -> listByIds(missed).stream().collect(Collectors.toMap(Shop::getId, shop -> shop)),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 批量读取商铺摘要缓存，未命中的一次性查询数据库中摘要需要的列
+     */
+    private List<ShopSummaryDTO> queryShopSummaryBatch(List<Long> ids) {
+        return cacheClient.queryBatch(RedisConstants.CACHE_SHOP_SUMMARY_KEY, ids, ShopSummaryDTO.class,
+                missed -> select(FieldProjection.parse(Shop.class, String.join(",", ShopSummaryDTO.FIELDS)))
+                        .in("id", missed)
+                        .list().stream()
+                        .collect(Collectors.toMap(Shop::getId, shop -> BeanUtil.copyProperties(shop, ShopSummaryDTO.class))),
+                CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 游标是否为空，或只包含一个非负整数（id或已返回的条数）
+     */
+    private static boolean isOffsetCursor(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return true;
+        }
+        List<Object> values = KeysetPager.decode(cursor);
+        return values != null && values.size() == 1
+                && (values.get(0) instanceof Integer || values.get(0) instanceof Long)
+                && ((Number) values.get(0)).longValue() >= 0;
+    }
+
+    /**
+     * 读取已通过isOffsetCursor校验的游标，为空时返回0
+     */
+    private static long offsetOf(String cursor) {
+        List<Object> values = KeysetPager.decode(cursor);
+        return values == null ? 0 : ((Number) values.get(0)).longValue();
+    }
+
+    /**
+     * 按字段筛选只查询需要的列，projection为null时查询所有列
+     */
+    private QueryChainWrapper<Shop> select(FieldProjection<Shop> projection) {
+        return projection == null ? query() : projection.select(query());
+    }
+
+    /**
+     * 按id顺序查询某个类型中营业中的商铺
+     *
+     * @param cursor 上一页返回的游标，为null时按页码分页
+     */
+    private Object queryOpenShopById(Integer typeId, Integer current, String cursor, Predicate<Shop> filter,
+                                     FieldProjection<Shop> projection) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        long startId = offsetOf(cursor);
+        // 每批从上一批最后一个商铺之后开始读取
+        FilteredPage page = filterPage((scanned, last) -> select(projection)
+                .eq("type_id", typeId)
+                .gt("id", last == null ? startId : last.getId())
+                .orderByAsc("id")
+                .last("LIMIT " + size * 4)
+                .list(), cursor == null ? (current - 1) * size : 0, size, filter);
+        if (cursor == null) {
+            return page.shops;
+        }
+        // 游标记录最后检查过的商铺，下一页从它之后继续
+        String next = page.hasMore ? KeysetPager.encode(Collections.singletonList(page.last.getId())) : null;
+        return new CursorResult<>(page.shops, next);
+    }
+
+    /**
+     * 分批读取商铺并过滤，直到凑满一页、没有更多数据或检查的商铺数达到上限
+     *
+     * @param fetcher 参数为已读取的条数和上一批最后一个商铺（第一批为null），返回下一批，空列表表示没有更多数据
+     * @param skip    需要跳过的符合条件的商铺数，按页码分页时为前面各页的条数
+     * @param size    每页条数
+     */
+    private static FilteredPage filterPage(BiFunction<Integer, Shop, List<Shop>> fetcher, int skip, int size,
+                                           Predicate<Shop> filter) {
+        FilteredPage page = new FilteredPage(size);
+        int limit = SystemConstants.OPEN_NOW_SCAN_LIMIT + skip;
+        int scanned = 0;
+        while (scanned < limit) {
+            List<Shop> batch = fetcher.apply(scanned, page.last);
+            if (batch.isEmpty()) {
+                page.hasMore = false;
+                return page;
+            }
+            for (Shop shop : batch) {
+                scanned++;
+                page.last = shop;
+                if (!filter.test(shop)) {
+                    continue;
+                }
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                page.shops.add(shop);
+                if (page.shops.size() == size) {
+                    return page;
+                }
+            }
+        }
+        return page;
+    }
+
+    /**
+     * 过滤后的一页商铺
+     */
+    private static final class FilteredPage {
+        final List<Shop> shops;
+        /**
+         * 最后检查过的商铺
+         */
+        Shop last;
+        /**
+         * 是否可能还有下一页
+         */
+        boolean hasMore = true;
+
+        FilteredPage(int size) {
+            this.shops = new ArrayList<>(size);
+        }
+    }
+
+    /**
+     * 按距离、id升序，距离相同时按商铺id的数值排序，与进程内索引（ShopGeoIndex.isAfter）的顺序一致
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> NEARBY_ORDER =
+            Comparator.comparingDouble((ZSetOperations.TypedTuple<String> t) -> t.getScore())
+                    .thenComparingLong(t -> Long.parseLong(t.getValue()));
+
+    /**
+     * 附近商铺的来源，按NEARBY_ORDER的顺序返回
+     */
+    private interface NearbySource {
+        /**
+         * 读取(lastDistance, lastId)之后的count个商铺
+         *
+         * @param lastDistance 上一页最后一个商铺的距离，为null时从第一个开始
+         */
+        List<ZSetOperations.TypedTuple<String>> after(Double lastDistance, Long lastId, int count);
+    }
+
+    /**
+     * 附近商铺的游标是否为空，或为[lastDistance, lastId, windowId, capacity]，windowId是第一页生成的UUID
+     */
+    private static boolean isNearbyCursor(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return true;
+        }
+        List<Object> values = KeysetPager.decode(cursor);
+        return values != null && values.size() == 4 && values.get(0) instanceof Number
+                && values.get(1) instanceof Number && values.get(2) instanceof String
+                && ((String) values.get(2)).matches("[0-9a-f]{32}") && values.get(3) instanceof Number;
+    }
+
+    /**
+     * 按游标分页查询附近的商铺
+     * 第一页直接查询GEO索引，之后的批次和页都读取结果窗口（GeoWindow），窗口的会话id和容量记录在游标中，第一页传空字符串
+     * 游标格式：[lastDistance, lastId, windowId, capacity]，进程内索引只使用前两项；游标已通过isNearbyCursor校验
+     */
+    private CursorResult<Shop> queryNearbyByCursor(Integer typeId, Double x, Double y, String cursor,
+                                                   Predicate<Shop> filter, FieldProjection<Shop> projection) {
+        int size = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<Object> values = KeysetPager.decode(cursor);
+        boolean firstPage = values == null;
+        Double lastDistance = firstPage ? null : ((Number) values.get(0)).doubleValue();
+        Long lastId = firstPage ? null : ((Number) values.get(1)).longValue();
+        GeoWindow window = firstPage
+                ? new GeoWindow(typeId, x, y, IdUtil.simpleUUID(), RedisConstants.SHOP_GEO_WINDOW_SIZE)
+                : new GeoWindow(typeId, x, y, (String) values.get(2), ((Number) values.get(3)).intValue());
+        // 1.启用了进程内索引时直接按游标查询索引，多查一条用于判断是否还有下一页
+        List<Shop> nearby = shopGeoIndex.searchAfter(typeId.longValue(), x, y, SystemConstants.NEARBY_RADIUS,
+                firstPage ? -1 : lastDistance, firstPage ? 0 : lastId, size + 1, filter);
+        if (nearby != null) {
+            if (nearby.size() <= size) {
+                return new CursorResult<>(nearby, null);
+            }
+            Shop last = nearby.get(size - 1);
+            return new CursorResult<>(nearby.subList(0, size), window.cursorAfter(last.getDistance(), last.getId()));
+        }
+        // 从头读取时直接搜索，不创建窗口
+        NearbySource source = (distance, id, count) -> distance == null
+                ? searchNearby(typeId, x, y, count)
+                : window.after(distance, id, count);
+        // 2.过滤营业中的商铺，游标记录最后检查过的商铺
+        if (filter != null) {
+            FilteredPage page = filterNearby(source, lastDistance, lastId, 0, filter, projection);
+            String next = page.hasMore && page.last != null
+                    ? window.cursorAfter(page.last.getDistance(), page.last.getId()) : null;
+            return new CursorResult<>(page.shops, next);
+        }
+        // 3.多读一条用于判断是否还有下一页
+        List<ZSetOperations.TypedTuple<String>> list = source.after(lastDistance, lastId, size + 1);
+        if (list.size() <= size) {
+            return new CursorResult<>(queryShopWithDistance(list, projection), null);
+        }
+        list = list.subList(0, size);
+        ZSetOperations.TypedTuple<String> last = list.get(size - 1);
+        return new CursorResult<>(queryShopWithDistance(list, projection),
+                window.cursorAfter(last.getScore(), Long.valueOf(last.getValue())));
+    }
+
+    /**
+     * 分批读取附近的商铺并过滤营业中的，每批从上一批最后一个商铺之后开始
+     */
+    private FilteredPage filterNearby(NearbySource source, Double lastDistance, Long lastId, int skip,
+                                      Predicate<Shop> filter, FieldProjection<Shop> projection) {
+        int batch = SystemConstants.DEFAULT_PAGE_SIZE * 4;
+        return filterPage((scanned, last) -> queryShopWithDistance(last == null
+                ? source.after(lastDistance, lastId, batch)
+                : source.after(last.getDistance(), last.getId(), batch), projection),
+                skip, SystemConstants.DEFAULT_PAGE_SIZE, filter);
+    }
+
+    /**
+     * GEOSEARCH key FROMLONLAT x y BYRADIUS 5000 m ASC COUNT limit WITHDIST，结果按NEARBY_ORDER排序
+     */
+    private List<ZSetOperations.TypedTuple<String>> searchNearby(Integer typeId, Double x, Double y, int limit) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                RedisConstants.SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(SystemConstants.NEARBY_RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                        .includeDistance().sortAscending().limit(limit)
+        );
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<ZSetOperations.TypedTuple<String>> list = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+            list.add(new DefaultTypedTuple<>(result.getContent().getName(), result.getDistance().getValue()));
+        }
+        list.sort(NEARBY_ORDER);
+        return list;
+    }
+
+    /**
+     * 附近商铺的结果窗口，只在按游标翻到第二页时创建
+     * 用GEOSEARCHSTORE把按距离排序的前capacity个结果连同距离存入一个短期的ZSET，key中是随游标传递的会话id，
+     * 之后的每一页都直接从窗口中读取，不需要重新搜索；窗口过期后按同样的容量重建，
+     * 读到窗口末尾且窗口已满时按两倍容量重建，容量不超过SHOP_GEO_WINDOW_MAX_SIZE
+     * 客户端只传上一页最后一条的距离和id时，会话id由坐标生成，同一坐标的请求共享窗口
+     */
+    private final class GeoWindow implements NearbySource {
+        private final Integer typeId;
+        private final Double x;
+        private final Double y;
+        private final String id;
+        private int capacity;
+
+        /**
+         * @param capacity 窗口容量，来自客户端的游标，限制在[SHOP_GEO_WINDOW_SIZE, SHOP_GEO_WINDOW_MAX_SIZE]之间
+         */
+        GeoWindow(Integer typeId, Double x, Double y, String id, int capacity) {
+            this.typeId = typeId;
+            this.x = x;
+            this.y = y;
+            this.id = id;
+            this.capacity = Math.min(Math.max(capacity, RedisConstants.SHOP_GEO_WINDOW_SIZE),
+                    RedisConstants.SHOP_GEO_WINDOW_MAX_SIZE);
+        }
+
+        @Override
+        public List<ZSetOperations.TypedTuple<String>> after(Double lastDistance, Long lastId, int count) {
+            String key = RedisConstants.SHOP_GEO_WINDOW_KEY + typeId + ":" + id;
+            // 续期，窗口不存在时重建
+            if (!BooleanUtil.isTrue(stringRedisTemplate.expire(key, RedisConstants.SHOP_GEO_WINDOW_TTL, TimeUnit.SECONDS))) {
+                build(key);
+            }
+            List<ZSetOperations.TypedTuple<String>> list = readAfter(key, lastDistance, lastId, count);
+            while (list.size() < count && capacity < RedisConstants.SHOP_GEO_WINDOW_MAX_SIZE) {
+                Long total = stringRedisTemplate.opsForZSet().zCard(key);
+                if (total == null || total < capacity) {
+                    break;
+                }
+                // 共享的窗口可能已按更大的容量建立过
+                capacity = (int) Math.min(Math.max(capacity, total) * 2, RedisConstants.SHOP_GEO_WINDOW_MAX_SIZE);
+                build(key);
+                list = readAfter(key, lastDistance, lastId, count);
+            }
+            return list;
+        }
+
+        /**
+         * 下一页的游标
+         */
+        String cursorAfter(Double distance, Long shopId) {
+            return KeysetPager.encode(Arrays.asList(distance, shopId, id, capacity));
+        }
+
+        private void build(String key) {
+            // GEOSEARCHSTORE window key FROMLONLAT x y BYRADIUS 5000 m ASC COUNT capacity STOREDIST
+            stringRedisTemplate.opsForGeo().searchAndStore(
+                    RedisConstants.SHOP_GEO_KEY + typeId,
+                    key,
+                    GeoReference.fromCoordinate(x, y),
+                    new Distance(SystemConstants.NEARBY_RADIUS),
+                    RedisGeoCommands.GeoSearchStoreCommandArgs.newGeoSearchStoreArgs()
+                            .storeDistance().sortAscending().limit(capacity)
+            );
+            stringRedisTemplate.expire(key, RedisConstants.SHOP_GEO_WINDOW_TTL, TimeUnit.SECONDS);
+        }
+
+        /**
+         * 从窗口中读取(lastDistance, lastId)之后的count个商铺
+         * ZSET中距离相同的元素按字典序排列，与数值顺序不同，因此每批读完整的同距离分组后在内存中重新排序
+         */
+        private List<ZSetOperations.TypedTuple<String>> readAfter(String key, Double lastDistance, Long lastId, int count) {
+            List<ZSetOperations.TypedTuple<String>> list = new ArrayList<>(count);
+            double min = lastDistance == null ? 0 : lastDistance;
+            while (list.size() < count) {
+                // ZRANGEBYSCORE window min +inf WITHSCORES LIMIT 0 count+1
+                Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet()
+                        .rangeByScoreWithScores(key, min, Double.POSITIVE_INFINITY, 0, count + 1);
+                if (tuples == null || tuples.isEmpty()) {
+                    break;
+                }
+                List<ZSetOperations.TypedTuple<String>> batch = new ArrayList<>(tuples);
+                double max = batch.get(batch.size() - 1).getScore();
+                boolean more = tuples.size() > count;
+                if (more) {
+                    // 最后一个距离可能还有没读到的商铺，补齐这一组
+                    batch.removeIf(t -> t.getScore() == max);
+                    Set<ZSetOperations.TypedTuple<String>> group = stringRedisTemplate.opsForZSet()
+                            .rangeByScoreWithScores(key, max, max);
+                    if (group != null) {
+                        batch.addAll(group);
+                    }
+                }
+                batch.sort(NEARBY_ORDER);
+                for (ZSetOperations.TypedTuple<String> tuple : batch) {
+                    if (list.size() < count && (lastDistance == null
+                            || ShopGeoIndex.isAfter(tuple.getScore(), Long.parseLong(tuple.getValue()), lastDistance, lastId))) {
+                        list.add(tuple);
+                    }
+                }
+                if (!more) {
+                    break;
+                }
+                min = Math.nextUp(max);
+            }
+            return list;
+        }
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current, String cursor, String fields) {
+        // 游标中是已返回的条数或上一页最后一个商铺的id
+        if (!isOffsetCursor(cursor)) {
+            return Result.fail("游标无效！");
+        }
+        FieldProjection<Shop> projection = FieldProjection.parse(Shop.class, fields);
+        return Result.ok(FieldProjection.project(projection, queryShopByName(name, current, cursor, projection)));
+    }
+
+    /**
+     * 根据商铺名称关键字分页查询商铺信息
+     *
+     * @param projection 请求的字段，为null时查询所有字段
+     * @return 商铺列表，按游标分页时返回CursorResult
+     */
+    private Object queryShopByName(String name, Integer current, String cursor, FieldProjection<Shop> projection) {
+        int size = SystemConstants.MAX_PAGE_SIZE;
+        // 1.名称索引已就绪时直接查询索引，索引中按名次排序，游标中记录已返回的条数
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady()) {
+            if (cursor == null) {
+                return shopNameIndex.search(name, (current - 1) * size, size);
+            }
+            int from = (int) Math.min(offsetOf(cursor), Integer.MAX_VALUE - size - 1);
+            // 多查一条用于判断是否还有下一页
+            List<Shop> shops = shopNameIndex.search(name, from, size + 1);
+            if (shops.size() <= size) {
+                return new CursorResult<>(shops, null);
+            }
+            return new CursorResult<>(shops.subList(0, size),
+                    KeysetPager.encode(Collections.singletonList(from + size)));
+        }
+        // 2.没有关键字或索引未就绪，按数据库查询，传入游标时按id游标分页
+        if (cursor != null) {
+            return KeysetPager.page(select(projection).like(StrUtil.isNotBlank(name), "name", name), cursor, size,
+                    KeysetPager.asc("id", Shop::getId));
+        }
+        Page<Shop> page = select(projection)
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .orderByAsc("id")
+                .page(new Page<>(current, size, false));
+        return page.getRecords();
+    }
+
+    @Override
+    public Result querySuggestions(String prefix) {
+        if (StrUtil.isBlank(prefix)) {
+            return Result.ok(Collections.emptyList());
+        }
+        // 1.联想索引已就绪时直接查询索引
+        List<ShopSuggestion> suggestions = shopSuggestIndex.suggest(prefix, SystemConstants.MAX_PAGE_SIZE);
+        if (suggestions != null) {
+            return Result.ok(suggestions);
+        }
+        // 2.索引未就绪，按名称前缀查询数据库，只联想商铺
+        List<Shop> shops = query()
+                .select("id", "name")
+                .likeRight("name", prefix)
+                .orderByDesc("sold")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        suggestions = new ArrayList<>(shops.size());
+        for (Shop shop : shops) {
+            suggestions.add(new ShopSuggestion(shop.getName(), ShopSuggestion.TYPE_SHOP, shop.getId()));
+        }
+        return Result.ok(suggestions);
+    }
+
+    @Override
+    public void scanShops(int batchSize, Consumer<List<Shop>> consumer) {
+        long lastId = 0;
+        while (true) {
+            // 按主键范围分批查询，避免深分页
+            List<Shop> shops = query().gt("id", lastId).orderByAsc("id").last("LIMIT " + batchSize).list();
+            if (shops.isEmpty()) {
+                return;
+            }
+            consumer.accept(shops);
+            if (shops.size() < batchSize) {
+                return;
+            }
+            lastId = shops.get(shops.size() - 1).getId();
         }
-        // 6.返回
-        return Result.ok(shops);
     }
 }
@@ -2,11 +2,15 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONUtil;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.constants.RedisConstants;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopTypeSnapshot;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import com.hmdp.utils.ETagHelper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -16,35 +20,119 @@ import javax.annotation.Resource;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
+    /**
+     * 两次检查Redis版本号之间的最小间隔（毫秒）
+     */
+    private static final long VERSION_CHECK_INTERVAL = 5000L;
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ObjectMapper objectMapper;
+
+    /**
+     * 当前节点持有的快照，为null表示还未加载
+     */
+    private volatile ShopTypeSnapshot snapshot;
+    /**
+     * 上一次检查版本号的时间
+     */
+    private volatile long lastCheckTime;
+    /**
+     * 保证同一时间只有一个线程去检查版本号、重建快照
+     */
+    private final ReentrantLock refreshLock = new ReentrantLock();
 
     @Override
     public Result queryTypeList() {
+        ShopTypeSnapshot current = getSnapshot();
+        if (current == null) {
+            return Result.fail("商铺分类不存在");
+        }
+        return Result.ok(current.getTypes());
+    }
+
+    @Override
+    public ShopTypeSnapshot getSnapshot() {
+        // 1.快照存在且在检查间隔内，直接返回
+        ShopTypeSnapshot current = snapshot;
+        if (current != null && System.currentTimeMillis() - lastCheckTime < VERSION_CHECK_INTERVAL) {
+            return current;
+        }
+        // 2.已有快照时，其它线程正在检查就直接返回旧快照；没有快照时需要等待加载完成
+        if (current != null) {
+            if (!refreshLock.tryLock()) {
+                return current;
+            }
+        } else {
+            refreshLock.lock();
+        }
+        try {
+            // 3.二次确认，防止重复检查
+            current = snapshot;
+            long now = System.currentTimeMillis();
+            if (current != null && now - lastCheckTime < VERSION_CHECK_INTERVAL) {
+                return current;
+            }
+            // 4.检查版本号，未变化则只刷新检查时间
+            String version = stringRedisTemplate.opsForValue().get(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+            version = StrUtil.blankToDefault(version, "0");
+            if (current != null && version.equals(current.getVersion())) {
+                lastCheckTime = now;
+                return current;
+            }
+            // 5.版本号变化，重建快照
+            ShopTypeSnapshot loaded = loadSnapshot(version);
+            if (loaded != null) {
+                snapshot = loaded;
+                lastCheckTime = now;
+            }
+            return loaded;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+
+    @Override
+    public void refreshTypeList() {
+        // 删除共享缓存并递增版本号，各节点最多VERSION_CHECK_INTERVAL后重建快照
+        stringRedisTemplate.delete(RedisConstants.CACHE_SHOP_TYPE_KEY);
+        stringRedisTemplate.opsForValue().increment(RedisConstants.CACHE_SHOP_TYPE_VERSION_KEY);
+    }
+
+    private ShopTypeSnapshot loadSnapshot(String version) {
         //查询缓存
         String key = RedisConstants.CACHE_SHOP_TYPE_KEY;
         String shopListJSON = stringRedisTemplate.opsForValue().get(key);
+        List<ShopType> shopTypes;
         //判断缓存是否命中
         if (StrUtil.isNotBlank(shopListJSON)) {
-            //缓存命中
-            List<ShopType> shopTypes = JSONUtil.toList(shopListJSON, ShopType.class);
-            //根据sort字段排序
-            Collections.sort(shopTypes, (o1, o2) -> o1.getSort()- o2.getSort());
-            return Result.ok(shopTypes);
+            //缓存命中，根据sort字段排序
+            shopTypes = JSONUtil.toList(shopListJSON, ShopType.class);
+            shopTypes.sort(Comparator.comparing(ShopType::getSort));
+        } else {
+            //缓存未命中，查询数据库
+            shopTypes = query().orderByAsc("sort").list();
+            //判断数据库中是否有数据
+            if (CollectionUtils.isEmpty(shopTypes)) {
+                return null;
+            }
+            //存入缓存
+            stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shopTypes));
         }
-        //缓存未命中，查询数据库
-        List<ShopType> shopTypes = query().orderByAsc("sort").list();
-        //判断数据库中是否有数据
-        if (CollectionUtils.isEmpty(shopTypes)) {
-            return Result.fail("商铺分类不存在");
+        //预先序列化响应体
+        List<ShopType> types = Collections.unmodifiableList(shopTypes);
+        try {
+            byte[] body = objectMapper.writeValueAsBytes(Result.ok(types));
+            return new ShopTypeSnapshot(version, types, body, ETagHelper.etagOf(body));
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException(e);
         }
-        //存入缓存，返回数据
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(shopTypes));
-        return Result.ok(shopTypes);
     }
 }
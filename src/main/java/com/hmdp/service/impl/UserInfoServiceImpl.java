@@ -6,6 +6,8 @@ import com.hmdp.service.IUserInfoService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import org.springframework.stereotype.Service;
 
+import java.util.Collection;
+
 /**
  * <p>
  *  服务实现类
@@ -17,4 +19,30 @@ import org.springframework.stereotype.Service;
 @Service
 public class UserInfoServiceImpl extends ServiceImpl<UserInfoMapper, UserInfo> implements IUserInfoService {
 
+    /**
+     * 重新计算计数时每条SQL处理的用户id个数
+     */
+    private static final long RECOUNT_RANGE_SIZE = 10_000L;
+
+    @Override
+    public void createIfAbsent(Collection<Long> userIds) {
+        if (!userIds.isEmpty()) {
+            baseMapper.insertIgnore(userIds);
+        }
+    }
+
+    @Override
+    public int recountFollow() {
+        long maxId = baseMapper.selectMaxUserId();
+        int ranges = 0;
+        for (long from = 1; from <= maxId; from += RECOUNT_RANGE_SIZE) {
+            long to = Math.min(from + RECOUNT_RANGE_SIZE, maxId + 1);
+            // 1.有关注关系但没有详情的用户先插入默认详情
+            baseMapper.insertMissingFollowUsers(from, to);
+            // 2.用分组计数覆盖原来的值
+            baseMapper.recountFollow(from, to);
+            ranges++;
+        }
+        return ranges;
+    }
 }
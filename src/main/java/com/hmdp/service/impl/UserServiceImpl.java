@@ -14,6 +14,8 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.FeedCompactor;
 import com.hmdp.utils.RegexUtils;
 import lombok.extern.log4j.Log4j;
 import lombok.extern.slf4j.Slf4j;
@@ -25,8 +27,10 @@ import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 import java.time.LocalDateTime;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 
 @Slf4j
@@ -35,6 +39,10 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private FeedCompactor feedCompactor;
+    @Resource
+    private CacheClient cacheClient;
 
     /**
      * 发送手机验证码
@@ -103,10 +111,23 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         stringRedisTemplate.opsForHash().putAll(tokenKey, userDtoMap);
         //5.3 设置过期时间
         stringRedisTemplate.expire(tokenKey, RedisConstants.LOGIN_USER_TTL, TimeUnit.MINUTES);
+        //5.4 记录登录时间，长期未登录用户的收件箱会被整理任务删除
+        feedCompactor.recordLogin(user.getId());
         //6.返回token
         return Result.ok(token);
     }
 
+    @Override
+    public List<UserDTO> queryUserBatch(List<Long> ids) {
+        return cacheClient.queryBatch(RedisConstants.CACHE_USER_KEY, ids, UserDTO.class,
+                missed -> query()
+                        .select("id", "nick_name", "icon")
+                        .in("id", missed)
+                        .list().stream()
+                        .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class))),
+                RedisConstants.CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
     /**
      * 注册新用户
      * @param phone
@@ -10,6 +10,8 @@ import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopRanking;
+import com.hmdp.utils.TxUtils;
 import com.hmdp.utils.UserHolder;
 import org.redisson.api.RLock;
 import org.redisson.api.RedissonClient;
@@ -43,6 +45,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Resource
     private RedissonClient redissonClient;
 
+    @Resource
+    private ShopRanking shopRanking;
+
     /**
      * 当前类初始化完毕就立马执行该方法
      */
@@ -193,6 +198,8 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         if (!flag) {
             throw new RuntimeException("创建秒杀券订单失败");
         }
+        // 4、事务提交后增加商铺的销量
+        TxUtils.afterCommit(() -> shopRanking.recordOrder(voucherId));
     }
 
    /* @Override
@@ -1,5 +1,9 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.constants.RedisConstants;
 import com.hmdp.dto.Result;
@@ -8,12 +12,21 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.ETagHelper;
+import com.hmdp.utils.TxUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 /**
  * <p>
@@ -33,12 +46,65 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        return queryVoucherOfShop(shopId, etag -> false);
+    }
+
+    @Override
+    public Result queryVoucherOfShop(Long shopId, Predicate<String> notModified) {
+        // 1.查询缓存中的优惠券元数据
+        String key = RedisConstants.CACHE_VOUCHER_KEY + shopId;
+        String json = stringRedisTemplate.opsForValue().get(key);
+        if (json == null) {
+            // 2.缓存未命中，查询数据库，没有优惠券时缓存空列表
+            List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+            json = JSONUtil.toJsonStr(vouchers);
+            stringRedisTemplate.opsForValue().set(key, json, RedisConstants.CACHE_VOUCHER_TTL, TimeUnit.MINUTES);
+        }
+        JSONArray array = JSONUtil.parseArray(json);
+        // 3.一次MGET读取所有秒杀券的实时库存
+        List<Long> seckillIds = new ArrayList<>();
+        for (int i = 0; i < array.size(); i++) {
+            JSONObject voucher = array.getJSONObject(i);
+            if (voucher.get("stock") != null) {
+                seckillIds.add(voucher.getLong("id"));
+            }
+        }
+        List<String> stocks = Collections.emptyList();
+        if (!seckillIds.isEmpty()) {
+            List<String> stockKeys = seckillIds.stream()
+                    .map(id -> RedisConstants.SECKILL_STOCK_KEY + id)
+                    .collect(Collectors.toList());
+            stocks = stringRedisTemplate.opsForValue().multiGet(stockKeys);
+        }
+        // 4.ETag由元数据和实时库存共同决定，客户端版本未变化时不再组装响应
+        String etag = ETagHelper.etagOf(json + "|" + StrUtil.join(",", stocks));
+        if (notModified.test(etag)) {
+            return null;
+        }
+        // 5.用实时库存覆盖元数据中的库存
+        Map<Long, String> stockMap = new HashMap<>(seckillIds.size());
+        for (int i = 0; i < seckillIds.size(); i++) {
+            stockMap.put(seckillIds.get(i), stocks.get(i));
+        }
+        List<Voucher> vouchers = JSONUtil.toList(array, Voucher.class);
+        for (Voucher voucher : vouchers) {
+            String stock = stockMap.get(voucher.getId());
+            if (StrUtil.isNotBlank(stock)) {
+                voucher.setStock(Integer.valueOf(stock));
+            }
+        }
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    @Override
+    public void addVoucher(Voucher voucher) {
+        // 保存优惠券
+        save(voucher);
+        // 店铺的优惠券列表发生变化，删除缓存
+        stringRedisTemplate.delete(RedisConstants.CACHE_VOUCHER_KEY + voucher.getShopId());
+    }
+
     @Override
     @Transactional
     public void addSeckillVoucher(Voucher voucher) {
@@ -53,5 +119,7 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucherService.save(seckillVoucher);
         // 将秒杀优惠券库存信息保存至redis中
         stringRedisTemplate.opsForValue().set(RedisConstants.SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        // 店铺的优惠券列表发生变化，事务提交后删除缓存
+        TxUtils.afterCommit(() -> stringRedisTemplate.delete(RedisConstants.CACHE_VOUCHER_KEY + voucher.getShopId()));
     }
 }
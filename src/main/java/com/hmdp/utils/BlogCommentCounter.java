@@ -0,0 +1,189 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.BlogComments;
+import com.hmdp.service.IBlogCommentsService;
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 笔记评论数和评论点赞数
+ * 与笔记点赞数相同，变化先累加在Redis中，后台定期批量写回tb_blog.comments和tb_blog_comments.liked，
+ * 读取时把尚未写回的增量加到数据库的值上
+ */
+@Slf4j
+@Component
+public class BlogCommentCounter {
+
+    @Value("${hmdp.blog.comment-flush-interval-ms:5000}")
+    private long flushInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CounterFlushLog counterFlushLog;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private IBlogCommentsService blogCommentsService;
+    @Resource
+    private HotBlogRanker hotBlogRanker;
+
+    private CounterFlusher commentsFlusher;
+    private CounterFlusher likeFlusher;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "blog-comment-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    private void init() {
+        commentsFlusher = new CounterFlusher(stringRedisTemplate, counterFlushLog, RedisConstants.BLOG_COMMENTS_DELTA_KEY,
+                this::applyComments);
+        likeFlusher = new CounterFlusher(stringRedisTemplate, counterFlushLog, RedisConstants.BLOG_COMMENT_LIKED_DELTA_KEY,
+                this::applyLikes);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+
+    /**
+     * 笔记新增一条评论，应在评论所在的事务提交后调用
+     */
+    public void increment(Long blogId) {
+        stringRedisTemplate.opsForHash().increment(RedisConstants.BLOG_COMMENTS_DELTA_KEY, blogId.toString(), 1);
+    }
+
+    /**
+     * 点赞或取消点赞评论
+     *
+     * @return true表示点赞，false表示取消点赞
+     */
+    public boolean toggleLike(Long commentId, Long userId) {
+        Long result = stringRedisTemplate.execute(
+                BlogLikeCounter.LIKE_SCRIPT,
+                Arrays.asList(RedisConstants.BLOG_COMMENT_LIKED_KEY + commentId,
+                        RedisConstants.BLOG_COMMENT_LIKED_DELTA_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), commentId.toString()
+        );
+        return result != null && (result & BlogLikeCounter.LIKED) != 0;
+    }
+
+    /**
+     * 把尚未写回的评论数加到笔记上，数据库中评论数为空的按0计算
+     */
+    public void mergeComments(List<Blog> blogs) {
+        Map<Long, Long> pending = commentsFlusher.pending(
+                blogs.stream().map(Blog::getId).collect(Collectors.toList()));
+        for (Blog blog : blogs) {
+            Long delta = pending.get(blog.getId());
+            if (delta != null) {
+                blog.setComments((int) (valueOf(blog.getComments()) + delta));
+            }
+        }
+    }
+
+    /**
+     * 把尚未写回的点赞数加到评论上
+     */
+    public void mergeLikes(List<BlogComments> comments) {
+        Map<Long, Long> pending = likeFlusher.pending(
+                comments.stream().map(BlogComments::getId).collect(Collectors.toList()));
+        for (BlogComments comment : comments) {
+            Long delta = pending.get(comment.getId());
+            if (delta != null) {
+                comment.setLiked((int) (valueOf(comment.getLiked()) + delta));
+            }
+        }
+    }
+
+    /**
+     * 写回笔记的评论数，删除这些笔记的摘要和详情缓存，并等待热门榜单重新打分
+     */
+    private void applyComments(Map<Long, Long> deltas) {
+        blogService.update()
+                .setSql(CounterFlusher.incrementSql("comments", deltas))
+                .in("id", deltas.keySet())
+                .update();
+        evict(deltas.keySet(), id -> Arrays.asList(
+                RedisConstants.CACHE_BLOG_SUMMARY_KEY + id, RedisConstants.CACHE_BLOG_KEY + id));
+        TxUtils.afterCommit(() -> hotBlogRanker.touch(deltas.keySet()));
+    }
+
+    /**
+     * 写回评论的点赞数，删除这些评论所在笔记的第一页评论缓存
+     */
+    private void applyLikes(Map<Long, Long> deltas) {
+        blogCommentsService.update()
+                .setSql(CounterFlusher.incrementSql("liked", deltas))
+                .in("id", deltas.keySet())
+                .update();
+        Set<Long> blogIds = blogCommentsService.query()
+                .select("id", "blog_id")
+                .in("id", deltas.keySet())
+                .list().stream()
+                .map(BlogComments::getBlogId)
+                .collect(Collectors.toSet());
+        evict(blogIds, id -> Arrays.asList(RedisConstants.CACHE_BLOG_COMMENTS_KEY + id));
+    }
+
+    /**
+     * 写回的事务提交后删除缓存
+     */
+    private void evict(Set<Long> ids, Function<Long, List<String>> keysOf) {
+        TxUtils.afterCommit(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : ids) {
+                conn.del(keysOf.apply(id).toArray(new String[0]));
+            }
+            return null;
+        }));
+    }
+
+    private static long valueOf(Integer count) {
+        return count == null ? 0 : count;
+    }
+
+    private void flushQuietly() {
+        try {
+            int blogs = commentsFlusher.flush();
+            int comments = likeFlusher.flush();
+            if (blogs > 0 || comments > 0) {
+                log.debug("评论计数写回完成, 笔记数: {}, 评论数: {}", blogs, comments);
+            }
+        } catch (Exception e) {
+            log.error("评论计数写回失败, 稍后重试", e);
+        }
+    }
+}
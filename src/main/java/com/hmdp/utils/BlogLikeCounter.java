@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 笔记点赞数
+ * 点赞时通过Lua脚本同时修改点赞用户集合和点赞数增量，不再同步更新数据库；
+ * 后台定期把增量批量写回tb_blog.liked，读取时把尚未写回的增量加到数据库的值上
+ */
+@Slf4j
+@Component
+public class BlogLikeCounter {
+
+    /**
+     * 点赞用户集合和增量HASH通过KEYS传入，评论点赞也使用这个脚本
+     */
+    static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    /**
+     * 脚本返回值中表示点赞的位
+     */
+    static final long LIKED = 1;
+
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("like.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Value("${hmdp.blog.like-flush-interval-ms:5000}")
+    private long flushInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CounterFlushLog counterFlushLog;
+    @Resource
+    private IBlogService blogService;
+    @Resource
+    private HotBlogRanker hotBlogRanker;
+
+    private CounterFlusher flusher;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "blog-like-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    private void init() {
+        flusher = new CounterFlusher(stringRedisTemplate, counterFlushLog, RedisConstants.BLOG_LIKED_DELTA_KEY, this::apply);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止前再写回一次，剩余的增量由其它节点或重启后写回
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+
+    /**
+     * 点赞或取消点赞，最早点赞的前5名变化时由脚本删除点赞用户缓存
+     *
+     * @return true表示点赞，false表示取消点赞
+     */
+    public boolean toggle(Long blogId, Long userId) {
+        Long result = stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(RedisConstants.BLOG_LIKED_KEY + blogId, RedisConstants.BLOG_LIKED_DELTA_KEY,
+                        RedisConstants.CACHE_BLOG_LIKES_KEY + blogId),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), blogId.toString()
+        );
+        return result != null && (result & LIKED) != 0;
+    }
+
+    /**
+     * 把尚未写回的增量加到笔记的点赞数上，没有查询点赞数的笔记跳过
+     */
+    public void merge(List<Blog> blogs) {
+        List<Long> ids = blogs.stream()
+                .filter(blog -> blog.getLiked() != null)
+                .map(Blog::getId)
+                .collect(Collectors.toList());
+        Map<Long, Long> pending = flusher.pending(ids);
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (Blog blog : blogs) {
+            Long delta = pending.get(blog.getId());
+            if (delta != null && blog.getLiked() != null) {
+                blog.setLiked((int) (blog.getLiked() + delta));
+            }
+        }
+    }
+
+    /**
+     * 写回一次
+     *
+     * @return 写回的笔记数
+     */
+    public int flush() {
+        return flusher.flush();
+    }
+
+    /**
+     * 一条UPDATE写回一批笔记的点赞数，提交后删除这些笔记的摘要和详情缓存，并等待热门榜单重新打分
+     */
+    private void apply(Map<Long, Long> deltas) {
+        blogService.update()
+                .setSql(CounterFlusher.incrementSql("liked", deltas))
+                .in("id", deltas.keySet())
+                .update();
+        TxUtils.afterCommit(() -> {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Long id : deltas.keySet()) {
+                    conn.del(RedisConstants.CACHE_BLOG_SUMMARY_KEY + id, RedisConstants.CACHE_BLOG_KEY + id);
+                }
+                return null;
+            });
+            hotBlogRanker.touch(deltas.keySet());
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            int count = flusher.flush();
+            if (count > 0) {
+                log.debug("点赞数写回完成, 笔记数: {}", count);
+            }
+        } catch (Exception e) {
+            log.error("点赞数写回失败, 稍后重试", e);
+        }
+    }
+}
@@ -5,15 +5,22 @@ import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 import java.util.function.Function;
 
+import static com.hmdp.constants.RedisConstants.CACHE_LOGICAL_KEEP_TTL;
 import static com.hmdp.constants.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.constants.RedisConstants.LOCK_SHOP_KEY;
 
@@ -21,12 +28,19 @@ import static com.hmdp.constants.RedisConstants.LOCK_SHOP_KEY;
 @Component
 public class CacheClient {
 
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    /**
+     * 缓存不存在时等待其它线程加载的次数，超过后直接查询数据库
+     */
+    private static final int LOAD_RETRIES = 20;
+
     private final StringRedisTemplate stringRedisTemplate;
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final CacheRebuildExecutor cacheRebuildExecutor;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    public CacheClient(StringRedisTemplate stringRedisTemplate, CacheRebuildExecutor cacheRebuildExecutor) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.cacheRebuildExecutor = cacheRebuildExecutor;
     }
 
     public void set(String key, Object value, Long time, TimeUnit unit) {
@@ -109,27 +123,128 @@ public class CacheClient {
                 return rA;
             }
 
-            // 6.3.确认为第一次缓存重建，开启独立线程，实现缓存重建
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
+            // 6.3.确认为第一次缓存重建，提交到公共重建线程池，任务被丢弃时也要释放锁
+            cacheRebuildExecutor.submit(keyPrefix, key, () -> {
                 try {
                     // 查询数据库
                     R newR = dbFallback.apply(id);
                     // 重建缓存
                     this.setWithLogicalExpire(key, newR, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }finally {
+                } finally {
                     // 释放锁
                     unlock(lockKey);
                 }
-            });
+            }, () -> unlock(lockKey));
         }
         // 6.4.返回过期的商铺信息
         return r;
     }
 
+    /**
+     * 逻辑过期，缓存不存在时加锁查询数据库并写入，适合不需要预热、写入后很少修改的数据
+     * 逻辑过期后仍保留CACHE_LOGICAL_KEEP_TTL，期间由后台重建，冷门数据最终从Redis删除
+     */
+    public <R, ID> R queryWithLogicalExpireOrLoad(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        String key = keyPrefix + id;
+        String lockKey = LOCK_KEY_PREFIX + key;
+        // 1.从redis查询缓存
+        String json = stringRedisTemplate.opsForValue().get(key);
+        // 判断命中的是否是空值
+        if ("".equals(json)) {
+            return null;
+        }
+        // 2.不存在，加锁查询数据库，获取锁失败时等待其它线程写入
+        if (json == null) {
+            boolean isLock = tryLock(lockKey);
+            for (int i = 0; !isLock && i < LOAD_RETRIES; i++) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                json = stringRedisTemplate.opsForValue().get(key);
+                if (json != null) {
+                    break;
+                }
+                isLock = tryLock(lockKey);
+            }
+            if (json == null) {
+                try {
+                    R r = dbFallback.apply(id);
+                    if (r == null) {
+                        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                        return null;
+                    }
+                    setWithLogicalExpireAndKeep(key, r, time, unit);
+                    return r;
+                } finally {
+                    if (isLock) {
+                        unlock(lockKey);
+                    }
+                }
+            }
+            if ("".equals(json)) {
+                return null;
+            }
+        }
+        // 3.存在，未过期直接返回
+        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
+        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+            return r;
+        }
+        // 4.已过期，获取锁成功时提交后台重建，返回过期的数据
+        if (tryLock(lockKey)) {
+            cacheRebuildExecutor.submit(keyPrefix, key, () -> {
+                try {
+                    R newR = dbFallback.apply(id);
+                    if (newR == null) {
+                        stringRedisTemplate.opsForValue().set(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                    } else {
+                        setWithLogicalExpireAndKeep(key, newR, time, unit);
+                    }
+                } finally {
+                    unlock(lockKey);
+                }
+            }, () -> unlock(lockKey));
+        }
+        return r;
+    }
+
+    private void setWithLogicalExpireAndKeep(String key, Object value, Long time, TimeUnit unit) {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData),
+                unit.toSeconds(time) + TimeUnit.MINUTES.toSeconds(CACHE_LOGICAL_KEEP_TTL), TimeUnit.SECONDS);
+    }
+
     public <R, ID> R queryWithMutex(
             String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, type, dbFallback, (key, r) -> this.set(key, r, time, unit));
+    }
+
+    /**
+     * 与queryWithMutex相同，重建缓存时在同一个管道中写入ETag（etagPrefix + id），过期时间与缓存相同
+     * ETag是缓存JSON的摘要，只在写入缓存时计算一次；删除缓存时需要一起删除ETag
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, String etagPrefix, ID id, Class<R> type,
+                                    Function<ID, R> dbFallback, Long time, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, type, dbFallback, (key, r) -> {
+            String json = JSONUtil.toJsonStr(r);
+            long seconds = unit.toSeconds(time);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                conn.setEx(key, seconds, json);
+                conn.setEx(etagPrefix + id, seconds, ETagHelper.etagOf(json));
+                return null;
+            });
+        });
+    }
+
+    private <R, ID> R queryWithMutex(
+            String keyPrefix, ID id, Class<R> type, Function<ID, R> dbFallback, BiConsumer<String, R> writer) {
         String key = keyPrefix + id;
         // 1.从redis查询商铺缓存
         String json = stringRedisTemplate.opsForValue().get(key);
@@ -153,7 +268,7 @@ public class CacheClient {
             if (!isLock) {
                 // 4.3.获取锁失败，休眠并重试
                 Thread.sleep(50);
-                return queryWithMutex(keyPrefix, id, type, dbFallback, time, unit);
+                return queryWithMutex(keyPrefix, id, type, dbFallback, writer);
             }
             // 获取锁成功，二次确认缓存中是否有数据，防止多次缓存重建
             String shopJsonAfter = stringRedisTemplate.opsForValue().get(key);
@@ -177,7 +292,7 @@ public class CacheClient {
                 return null;
             }
             // 6.存在，写入redis
-            this.set(key, r, time, unit);
+            writer.accept(key, r);
         } catch (InterruptedException e) {
             throw new RuntimeException(e);
         }finally {
@@ -188,6 +303,66 @@ public class CacheClient {
         return r;
     }
 
+    /**
+     * 批量查询缓存，一次MGET读取所有key，未命中的id一次性查询数据库后通过管道写回
+     *
+     * @param keyPrefix  key前缀
+     * @param ids        id列表
+     * @param type       数据类型
+     * @param dbFallback 根据未命中的id批量查询数据库，返回id到数据的映射
+     * @return 与ids顺序一致的数据，缓存和数据库中都不存在的id被跳过
+     */
+    public <R, ID> List<R> queryBatch(
+            String keyPrefix, List<ID> ids, Class<R> type, Function<List<ID>, Map<ID, R>> dbFallback,
+            Long time, TimeUnit unit) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        // 1.一次读取所有缓存
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        List<String> jsons = stringRedisTemplate.opsForValue().multiGet(keys);
+        // 2.区分命中、空值和未命中
+        Map<ID, R> found = new HashMap<>(ids.size());
+        List<ID> missed = new ArrayList<>();
+        for (int i = 0; i < ids.size(); i++) {
+            String json = jsons == null ? null : jsons.get(i);
+            if (StrUtil.isNotBlank(json)) {
+                found.put(ids.get(i), JSONUtil.toBean(json, type));
+            } else if (json == null) {
+                missed.add(ids.get(i));
+            }
+        }
+        // 3.未命中的一次性查询数据库，通过管道写回缓存，不存在的写入空值
+        if (!missed.isEmpty()) {
+            Map<ID, R> loaded = dbFallback.apply(missed);
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : missed) {
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        conn.setEx(keyPrefix + id, TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL), "");
+                    } else {
+                        conn.setEx(keyPrefix + id, unit.toSeconds(time), JSONUtil.toJsonStr(r));
+                        found.put(id, r);
+                    }
+                }
+                return null;
+            });
+        }
+        // 4.按原顺序返回
+        List<R> result = new ArrayList<>(found.size());
+        for (ID id : ids) {
+            R r = found.get(id);
+            if (r != null) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
     private boolean tryLock(String key) {
         Boolean flag = stringRedisTemplate.opsForValue().setIfAbsent(key, "1", 10, TimeUnit.SECONDS);
         return BooleanUtil.isTrue(flag);
@@ -0,0 +1,253 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存重建的公共线程池
+ * 1.同一个key同时只会有一个重建任务在排队或执行（进程内去重）
+ * 2.队列有界，队列满时丢弃最旧的任务，丢弃、去重或限流的任务都会执行onDiscard回调（通常是释放互斥锁）
+ * 3.每个key前缀有独立的并发上限，防止某一类缓存重建占满线程池
+ * 4.记录失败次数、丢弃次数和队列深度，有新任务时定期输出到日志，便于排查数据库变慢时的积压问题
+ */
+@Slf4j
+@Component
+public class CacheRebuildExecutor {
+
+    /**
+     * 核心线程数
+     */
+    private static final int POOL_SIZE = 10;
+    /**
+     * 队列容量，超过后丢弃最旧的任务
+     */
+    private static final int QUEUE_CAPACITY = 256;
+    /**
+     * 每个key前缀允许同时排队+执行的重建任务数
+     */
+    private static final int PREFIX_LIMIT = 64;
+
+    /**
+     * 正在排队或执行中的key
+     */
+    private final Set<String> inFlightKeys = ConcurrentHashMap.newKeySet();
+    /**
+     * 每个前缀正在排队或执行中的任务数
+     */
+    private final Map<String, AtomicInteger> prefixPending = new ConcurrentHashMap<>();
+    /**
+     * 每个前缀累计失败的任务数
+     */
+    private final Map<String, AtomicLong> prefixFailures = new ConcurrentHashMap<>();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private final ThreadPoolExecutor executor;
+
+    @Value("${hmdp.cache.rebuild.stats-interval-seconds:60}")
+    private long statsInterval;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "cache-rebuild-stats");
+        t.setDaemon(true);
+        return t;
+    });
+    /**
+     * 上次输出统计时的任务数，没有新任务时不输出
+     */
+    private long lastLogged;
+    /**
+     * 上次输出统计时的失败、丢弃和限流数
+     */
+    private long lastDropped;
+
+    public CacheRebuildExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(
+                POOL_SIZE, POOL_SIZE,
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY),
+                r -> {
+                    Thread t = new Thread(r, "cache-rebuild-" + threadIndex.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new DiscardOldestHandler());
+    }
+
+    /**
+     * 提交缓存重建任务
+     *
+     * @param prefix    key前缀，用于并发限制和统计
+     * @param key       缓存key，用于去重
+     * @param task      重建逻辑
+     * @param onDiscard 任务未被执行时的回调（被去重、限流或丢弃），可以为null
+     * @return true 任务已提交 false 任务被去重或限流
+     */
+    public boolean submit(String prefix, String key, Runnable task, Runnable onDiscard) {
+        // 1.同一个key已有任务在排队或执行，忽略本次任务，释放调用方为它加的锁
+        if (!inFlightKeys.add(key)) {
+            deduplicated.incrementAndGet();
+            runQuietly(onDiscard);
+            return false;
+        }
+        // 2.判断前缀是否超过并发上限
+        AtomicInteger pending = prefixPending.computeIfAbsent(prefix, p -> new AtomicInteger());
+        if (pending.incrementAndGet() > PREFIX_LIMIT) {
+            pending.decrementAndGet();
+            inFlightKeys.remove(key);
+            throttled.incrementAndGet();
+            runQuietly(onDiscard);
+            return false;
+        }
+        // 3.提交任务，队列已满时由DiscardOldestHandler丢弃最旧的任务
+        submitted.incrementAndGet();
+        executor.execute(new RebuildTask(prefix, key, task, onDiscard));
+        return true;
+    }
+
+    /**
+     * 获取线程池的运行状态
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("activeCount", executor.getActiveCount());
+        stats.put("inFlight", inFlightKeys.size());
+        stats.put("submitted", submitted.get());
+        stats.put("deduplicated", deduplicated.get());
+        stats.put("throttled", throttled.get());
+        stats.put("discarded", discarded.get());
+        stats.put("failed", failed.get());
+        Map<String, Long> failures = new HashMap<>();
+        prefixFailures.forEach((prefix, count) -> failures.put(prefix, count.get()));
+        stats.put("failuresByPrefix", failures);
+        return stats;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (statsInterval > 0) {
+            scheduler.scheduleWithFixedDelay(this::logStats, statsInterval, statsInterval, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    /**
+     * 有新任务时输出线程池的运行状态，期间有新的失败、丢弃或限流时用warn级别
+     */
+    private void logStats() {
+        long current = submitted.get() + deduplicated.get() + throttled.get();
+        if (current == lastLogged) {
+            return;
+        }
+        lastLogged = current;
+        long dropped = failed.get() + discarded.get() + throttled.get();
+        boolean warn = dropped > lastDropped;
+        lastDropped = dropped;
+        Map<String, Object> stats = stats();
+        if (warn) {
+            log.warn("缓存重建线程池状态: {}", stats);
+        } else {
+            log.info("缓存重建线程池状态: {}", stats);
+        }
+    }
+
+    private void release(RebuildTask task) {
+        inFlightKeys.remove(task.key);
+        AtomicInteger pending = prefixPending.get(task.prefix);
+        if (pending != null) {
+            pending.decrementAndGet();
+        }
+    }
+
+    private static void runQuietly(Runnable callback) {
+        if (callback == null) {
+            return;
+        }
+        try {
+            callback.run();
+        } catch (Exception e) {
+            log.warn("缓存重建回调执行失败", e);
+        }
+    }
+
+    private class RebuildTask implements Runnable {
+        private final String prefix;
+        private final String key;
+        private final Runnable task;
+        private final Runnable onDiscard;
+
+        RebuildTask(String prefix, String key, Runnable task, Runnable onDiscard) {
+            this.prefix = prefix;
+            this.key = key;
+            this.task = task;
+            this.onDiscard = onDiscard;
+        }
+
+        @Override
+        public void run() {
+            try {
+                task.run();
+            } catch (Exception e) {
+                // 异常不再抛给无人读取的Future，而是记录下来
+                failed.incrementAndGet();
+                prefixFailures.computeIfAbsent(prefix, p -> new AtomicLong()).incrementAndGet();
+                log.error("缓存重建失败, key: {}, 队列深度: {}", key, executor.getQueue().size(), e);
+            } finally {
+                release(this);
+            }
+        }
+
+        void discard() {
+            release(this);
+            runQuietly(onDiscard);
+        }
+    }
+
+    /**
+     * 队列满时丢弃最旧的任务，让最新的重建请求进入队列
+     */
+    private class DiscardOldestHandler implements RejectedExecutionHandler {
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor e) {
+            if (e.isShutdown()) {
+                ((RebuildTask) r).discard();
+                return;
+            }
+            Runnable oldest = e.getQueue().poll();
+            if (oldest != null) {
+                ((RebuildTask) oldest).discard();
+            }
+            discarded.incrementAndGet();
+            log.warn("缓存重建队列已满，丢弃最旧的任务, 队列深度: {}", e.getQueue().size());
+            e.execute(r);
+        }
+    }
+}
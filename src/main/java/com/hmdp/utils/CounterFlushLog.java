@@ -0,0 +1,51 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.CounterFlushMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+
+/**
+ * 计数器写回的去重记录（tb_counter_flush）
+ * 每批增量在同一个事务中先插入以批次标识为主键的记录再写回，插入不成功说明这一批已经写回过，
+ * 因此写回后删除Redis中的增量失败、或锁过期后其它节点重试同一批时，都不会重复累加
+ */
+@Component
+public class CounterFlushLog {
+
+    /**
+     * 记录保留的天数，远长于一次写回可能的重试时间
+     */
+    private static final long RETENTION_DAYS = 1;
+
+    @Resource
+    private CounterFlushMapper counterFlushMapper;
+    @Resource
+    private PlatformTransactionManager transactionManager;
+
+    /**
+     * 在一个事务中记录批次并写回，apply中用TxUtils.afterCommit注册的操作在提交后执行
+     *
+     * @return false表示这一批已经写回过，没有执行apply
+     */
+    public boolean applyOnce(String batchKey, Runnable apply) {
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        return Boolean.TRUE.equals(tx.execute(status -> {
+            if (counterFlushMapper.insertIgnore(batchKey) == 0) {
+                return false;
+            }
+            apply.run();
+            return true;
+        }));
+    }
+
+    /**
+     * 删除过期的记录
+     */
+    public int purge() {
+        return counterFlushMapper.deleteBefore(LocalDateTime.now().minusDays(RETENTION_DAYS));
+    }
+}
@@ -0,0 +1,208 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * 计数器的延迟写回
+ * 计数的变化先累加在Redis的HASH中（field为id，value为增量），定期把整个HASH RENAME为写回中的key，
+ * 再按批交给applier写入数据库，写入完成后删除。写回失败时写回中的key保留，下一次先重试它
+ * 每次写回有一个token，批次按id排序后划分，重试时剩余的批次与上一次相同；每批与去重记录（CounterFlushLog）
+ * 在同一个事务中写入，已经写回过的批次只删除增量，不会重复累加
+ * 读取时把两个HASH中的增量加到数据库的值上
+ */
+public class CounterFlusher {
+
+    /**
+     * 每批写回的id数
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * 写回期间持有的锁的过期时间（秒），每写回一批续期一次
+     */
+    private static final long LOCK_TTL = 60L;
+    /**
+     * 重新计算期间持有锁的过期时间（秒），期间不写回
+     */
+    private static final long RESET_LOCK_TTL = 30 * 60L;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final CounterFlushLog flushLog;
+    private final String deltaKey;
+    private final String flushingKey;
+    private final String tokenKey;
+    private final String lockKey;
+    private final Consumer<Map<Long, Long>> applier;
+
+    /**
+     * @param deltaKey 累加增量的HASH
+     * @param applier  在事务中把一批增量写入数据库，抛出异常时整体稍后重试；删除缓存等操作应通过TxUtils.afterCommit在提交后执行
+     */
+    public CounterFlusher(StringRedisTemplate stringRedisTemplate, CounterFlushLog flushLog, String deltaKey,
+                          Consumer<Map<Long, Long>> applier) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.flushLog = flushLog;
+        this.deltaKey = deltaKey;
+        this.flushingKey = deltaKey + ":flushing";
+        this.tokenKey = flushingKey + ":token";
+        this.lockKey = SimpleRedisLock.KEY_PREFIX + flushingKey;
+        this.applier = applier;
+    }
+
+    /**
+     * 写回一次，多个节点同时只有一个执行
+     *
+     * @return 写回的id数
+     */
+    public int flush() {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, flushingKey);
+        if (!lock.tryLock(LOCK_TTL)) {
+            return 0;
+        }
+        try {
+            // 1.上一次写回失败时先重试，否则取出当前所有增量，之后的变化累加到新的HASH中
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(flushingKey))) {
+                if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(deltaKey))) {
+                    return 0;
+                }
+                stringRedisTemplate.rename(deltaKey, flushingKey);
+            }
+            // 本次写回的token，与写回中的HASH一起删除，RENAME后中断时在重试时补上
+            stringRedisTemplate.opsForValue().setIfAbsent(tokenKey, UUID.randomUUID().toString(true));
+            String token = stringRedisTemplate.opsForValue().get(tokenKey);
+            // 2.按id排序后按批写回，增量为0的跳过
+            Map<Long, Long> sorted = new TreeMap<>();
+            stringRedisTemplate.opsForHash().entries(flushingKey).forEach((id, value) -> {
+                long delta = Long.parseLong((String) value);
+                if (delta != 0) {
+                    sorted.put(Long.valueOf((String) id), delta);
+                }
+            });
+            Map<Long, Long> batch = new LinkedHashMap<>();
+            int total = 0;
+            for (Map.Entry<Long, Long> entry : sorted.entrySet()) {
+                batch.put(entry.getKey(), entry.getValue());
+                if (batch.size() == BATCH_SIZE) {
+                    total += apply(token, batch);
+                    batch = new LinkedHashMap<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                total += apply(token, batch);
+            }
+            // 3.全部写回后删除，并清理过期的去重记录
+            stringRedisTemplate.delete(Arrays.asList(flushingKey, tokenKey));
+            flushLog.purge();
+            return total;
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 丢弃所有尚未写回的增量，再由recount从数据库重新计算计数
+     * 期间持有写回的锁，不会再写回旧的增量；其它节点正在写回时等待它完成
+     * 丢弃增量之后、recount读取到之前提交的变化会同时计入两边，应在维护窗口内执行
+     */
+    public void reset(Runnable recount) throws InterruptedException {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, flushingKey);
+        long deadline = System.currentTimeMillis() + LOCK_TTL * 1000;
+        while (!lock.tryLock(RESET_LOCK_TTL)) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("等待计数写回完成超时: " + deltaKey);
+            }
+            Thread.sleep(100);
+        }
+        try {
+            stringRedisTemplate.delete(Arrays.asList(deltaKey, flushingKey, tokenKey));
+            recount.run();
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 写回一批，批次标识为 增量key:token:批次中最小的id
+     * 写回后从写回中的HASH删除并给锁续期，已经写回过的批次只删除
+     *
+     * @return 本次写回的id数
+     */
+    private int apply(String token, Map<Long, Long> batch) {
+        String batchKey = deltaKey + ":" + token + ":" + batch.keySet().iterator().next();
+        boolean applied = flushLog.applyOnce(batchKey, () -> applier.accept(batch));
+        String[] fields = batch.keySet().stream().map(String::valueOf).toArray(String[]::new);
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hDel(flushingKey, fields);
+            conn.expire(lockKey, LOCK_TTL);
+            return null;
+        });
+        return applied ? batch.size() : 0;
+    }
+
+    /**
+     * 查询尚未写回数据库的增量
+     *
+     * @return id到增量的映射，没有增量的id不返回
+     */
+    public Map<Long, Long> pending(Collection<Long> ids) {
+        if (ids.isEmpty()) {
+            return new HashMap<>();
+        }
+        List<String> fields = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            fields.add(id.toString());
+        }
+        // 一次管道读取累加中和写回中的增量
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMGet(deltaKey, fields.toArray(new String[0]));
+            conn.hMGet(flushingKey, fields.toArray(new String[0]));
+            return null;
+        });
+        Map<Long, Long> pending = new HashMap<>();
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            List<String> values = (List<String>) result;
+            for (int i = 0; i < fields.size(); i++) {
+                String value = values.get(i);
+                if (value != null) {
+                    pending.merge(Long.valueOf(fields.get(i)), Long.parseLong(value), Long::sum);
+                }
+            }
+        }
+        return pending;
+    }
+
+    /**
+     * 生成批量累加的SQL片段，主键列为id
+     */
+    public static String incrementSql(String column, Map<Long, Long> deltas) {
+        return incrementSql(column, "id", deltas);
+    }
+
+    /**
+     * 生成批量累加的SQL片段：column = GREATEST(CAST(IFNULL(column, 0) AS SIGNED) + CASE id WHEN 1 THEN 3 WHEN 2 THEN -1 ELSE 0 END, 0)
+     * 计数列是UNSIGNED，先转为有符号数再相加，结果不小于0
+     */
+    public static String incrementSql(String column, String keyColumn, Map<Long, Long> deltas) {
+        StringBuilder sql = new StringBuilder(column)
+                .append(" = GREATEST(CAST(IFNULL(").append(column).append(", 0) AS SIGNED) + CASE ").append(keyColumn);
+        for (Map.Entry<Long, Long> entry : deltas.entrySet()) {
+            sql.append(" WHEN ").append(entry.getKey()).append(" THEN ").append(entry.getValue());
+        }
+        return sql.append(" ELSE 0 END, 0)").toString();
+    }
+}
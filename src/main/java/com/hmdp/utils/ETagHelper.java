@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+import cn.hutool.crypto.digest.DigestUtil;
+
+/**
+ * 条件GET（ETag/304）支持
+ * ETag是数据JSON的摘要，数据变化后ETag随之变化；写入缓存时一起计算并保存（CacheClient.queryWithMutex），
+ * 客户端携带的If-None-Match一致时（ServletWebRequest.checkNotModified）直接返回304，不需要读取和序列化数据
+ */
+public class ETagHelper {
+
+    public static String etagOf(String content) {
+        return "\"" + DigestUtil.md5Hex(content) + "\"";
+    }
+
+    public static String etagOf(byte[] content) {
+        return "\"" + DigestUtil.md5Hex(content) + "\"";
+    }
+}
@@ -0,0 +1,249 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * 收件箱（feed:{userId}）的保留策略
+ * 后台定期用SCAN遍历所有收件箱，每批通过管道删除超过最大条数和最大保留时间的笔记；
+ * 超过一定天数没有登录的用户直接删除整个收件箱并记录在feed:dropped中，下次读取关注流时再从数据库重建
+ */
+@Slf4j
+@Component
+public class FeedCompactor {
+
+    /**
+     * 每批处理的收件箱数
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * 整理期间持有的锁的过期时间（秒），多个节点只有一个执行
+     */
+    private static final long LOCK_TTL = 30 * 60L;
+    private static final Pattern INBOX_KEY = Pattern.compile(Pattern.quote(RedisConstants.FEED_KEY) + "\\d+");
+
+    @Value("${hmdp.feed.inbox.max-size:500}")
+    private int maxSize;
+    @Value("${hmdp.feed.inbox.max-age-days:30}")
+    private int maxAgeDays;
+    @Value("${hmdp.feed.inbox.inactive-days:30}")
+    private int inactiveDays;
+    @Value("${hmdp.feed.inbox.compact-interval-minutes:60}")
+    private long compactInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IBlogService blogService;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "feed-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (compactInterval > 0) {
+            scheduler.scheduleWithFixedDelay(this::compactQuietly, compactInterval, compactInterval, TimeUnit.MINUTES);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 记录用户的登录时间，用于判断收件箱是否可以删除
+     */
+    public void recordLogin(Long userId) {
+        stringRedisTemplate.opsForZSet().add(RedisConstants.USER_LAST_LOGIN_KEY, userId.toString(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * 收件箱被删除过时从数据库重建：读取关注的作者在保留时间内的笔记，最多maxSize篇
+     * 大V的笔记在发件箱中，读取时会再合并一次，这里一并写入也不会重复
+     * 重建成功后才移除删除标记，查询或写入失败时下次读取再重建；并发读取时重复写入也不会重复
+     */
+    public void restoreIfDropped(Long userId) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(RedisConstants.FEED_DROPPED_KEY, userId.toString()))) {
+            return;
+        }
+        Set<String> authors = stringRedisTemplate.opsForSet().members(RedisConstants.FOLLOW_KEY + userId);
+        if (authors == null || authors.isEmpty()) {
+            clearDropped(userId);
+            return;
+        }
+        // 1.关注的作者在保留时间内的笔记，按id倒序即发布时间倒序
+        List<Blog> blogs = blogService.query()
+                .select("id", "create_time")
+                .in("user_id", authors)
+                .ge("create_time", LocalDateTime.now().minusDays(maxAgeDays))
+                .orderByDesc("id")
+                .last("LIMIT " + maxSize)
+                .list();
+        if (blogs.isEmpty()) {
+            clearDropped(userId);
+            return;
+        }
+        // 2.一次管道写入收件箱
+        String key = RedisConstants.FEED_KEY + userId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+                conn.zAdd(key, time, blog.getId().toString());
+            }
+            return null;
+        });
+        // 3.写入成功后移除删除标记
+        clearDropped(userId);
+        log.debug("重建收件箱, userId: {}, 笔记数: {}", userId, blogs.size());
+    }
+
+    private void clearDropped(Long userId) {
+        stringRedisTemplate.opsForSet().remove(RedisConstants.FEED_DROPPED_KEY, userId.toString());
+    }
+
+    /**
+     * 整理所有收件箱
+     *
+     * @return 整理前后Redis已用内存的差值（字节），其它写入也会影响这个值，只作为参考
+     */
+    public long compact() {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, RedisConstants.FEED_COMPACT_LOCK_NAME);
+        if (!lock.tryLock(LOCK_TTL)) {
+            log.info("其它节点正在整理收件箱");
+            return 0;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            long memoryBefore = usedMemory();
+            long[] stats = new long[3];
+            // 1.SCAN遍历收件箱，每BATCH_SIZE个处理一次
+            ScanOptions options = ScanOptions.scanOptions().match(RedisConstants.FEED_KEY + "*").count(1000).build();
+            try (Cursor<byte[]> cursor = stringRedisTemplate.executeWithStickyConnection(
+                    connection -> connection.scan(options))) {
+                List<String> batch = new ArrayList<>(BATCH_SIZE);
+                while (cursor != null && cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    // 跳过推送任务、发件箱等其它feed:开头的key
+                    if (!INBOX_KEY.matcher(key).matches()) {
+                        continue;
+                    }
+                    batch.add(key);
+                    if (batch.size() == BATCH_SIZE) {
+                        compactBatch(batch, stats);
+                        batch.clear();
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    compactBatch(batch, stats);
+                }
+            }
+            long reclaimed = memoryBefore - usedMemory();
+            log.info("收件箱整理完成, 收件箱数: {}, 删除笔记: {}, 删除不活跃用户的收件箱: {}, 内存减少: {}KB, 耗时: {}ms",
+                    stats[0], stats[1], stats[2], reclaimed / 1024, System.currentTimeMillis() - begin);
+            return reclaimed;
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 整理一批收件箱
+     *
+     * @param stats 累计的收件箱数、删除的笔记数、删除的收件箱数
+     */
+    private void compactBatch(List<String> keys, long[] stats) {
+        long now = System.currentTimeMillis();
+        double inactiveBefore = now - TimeUnit.DAYS.toMillis(inactiveDays);
+        double expireBefore = now - TimeUnit.DAYS.toMillis(maxAgeDays);
+        List<String> userIds = keys.stream()
+                .map(key -> key.substring(RedisConstants.FEED_KEY.length()))
+                .collect(Collectors.toList());
+        // 1.一次管道查询这批用户的最后登录时间
+        List<Object> lastLogins = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String userId : userIds) {
+                conn.zScore(RedisConstants.USER_LAST_LOGIN_KEY, userId);
+            }
+            return null;
+        });
+        // 2.一次管道完成删除：不活跃用户删除整个收件箱，其它用户删除过期和超出条数的笔记
+        // 没有登录记录的用户（开始记录登录时间之前登录的）只裁剪，不删除
+        List<Boolean> dropped = new ArrayList<>(keys.size());
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (int i = 0; i < keys.size(); i++) {
+                Double lastLogin = (Double) lastLogins.get(i);
+                boolean inactive = lastLogin != null && lastLogin < inactiveBefore;
+                dropped.add(inactive);
+                if (inactive) {
+                    conn.zCard(keys.get(i));
+                    conn.del(keys.get(i));
+                    conn.sAdd(RedisConstants.FEED_DROPPED_KEY, userIds.get(i));
+                } else {
+                    conn.zRemRangeByScore(keys.get(i), 0, expireBefore);
+                    conn.zRemRange(keys.get(i), 0, -maxSize - 1);
+                }
+            }
+            return null;
+        });
+        // 3.统计，每个收件箱的结果依次为 ZCARD DEL SADD 或 ZREMRANGEBYSCORE ZREMRANGEBYRANK
+        int pos = 0;
+        for (Boolean inactive : dropped) {
+            if (inactive) {
+                stats[1] += (Long) results.get(pos);
+                stats[2]++;
+                pos += 3;
+            } else {
+                stats[1] += (Long) results.get(pos) + (Long) results.get(pos + 1);
+                pos += 2;
+            }
+        }
+        stats[0] += keys.size();
+    }
+
+    private long usedMemory() {
+        Properties info = stringRedisTemplate.execute(
+                (RedisCallback<Properties>) connection -> connection.serverCommands().info("memory"));
+        return info == null ? 0 : Long.parseLong(info.getProperty("used_memory", "0"));
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.error("收件箱整理失败", e);
+        }
+    }
+}
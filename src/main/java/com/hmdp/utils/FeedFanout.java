@@ -0,0 +1,246 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.BooleanUtil;
+import com.hmdp.constants.RedisConstants;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 笔记推送到粉丝收件箱（feed:{userId}）
+ * 发布笔记后只记录一个推送任务，由后台线程按粉丝id升序分批读取粉丝（关注图就绪时从进程内读取，否则读取Redis中的fans:{authorId}），
+ * 每批通过一次管道写入收件箱
+ * 任务和进度（已推送到的粉丝id）保存在Redis中，进程崩溃后由其它节点或重启后的进程从断点继续，
+ * 重复推送同一批粉丝只会覆盖相同的score，不会产生重复数据
+ * 粉丝数达到阈值（hmdp.feed.big-author-threshold）的作者记为大V，之后的笔记只写入自己的发件箱（feed:outbox:{authorId}），
+ * 由粉丝读取时合并，大V身份不会因为粉丝减少而取消，避免粉丝读取时漏掉发件箱中的笔记
+ */
+@Slf4j
+@Component
+public class FeedFanout {
+
+    /**
+     * 每批读取的粉丝数
+     */
+    private static final int BATCH_SIZE = 1000;
+    /**
+     * 执行任务时持有的锁的过期时间（秒），每推送完一批续期一次
+     */
+    private static final long LOCK_TTL = 60L;
+    /**
+     * 检查未完成任务的间隔（毫秒）
+     */
+    private static final long RECOVER_INTERVAL = 60 * 1000L;
+    /**
+     * 发件箱保留的笔记数
+     */
+    private static final int OUTBOX_SIZE = 1000;
+
+    private static final String FIELD_AUTHOR = "authorId";
+    private static final String FIELD_TIME = "time";
+    private static final String FIELD_LAST_FOLLOWER_ID = "lastFollowerId";
+
+    @Value("${hmdp.feed.big-author-threshold:5000}")
+    private int bigAuthorThreshold;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private FollowGraph followGraph;
+
+    private final ScheduledExecutorService executor = Executors.newScheduledThreadPool(2, r -> {
+        Thread t = new Thread(r, "feed-fanout");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        executor.scheduleWithFixedDelay(this::recover, 0, RECOVER_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 记录推送任务并在后台执行，应在笔记所在的事务提交后调用
+     *
+     * @param blogId   笔记id
+     * @param authorId 作者id
+     * @param time     推送时间，作为收件箱中的score
+     */
+    public void submit(Long blogId, Long authorId, long time) {
+        // 大V只写入发件箱
+        if (BooleanUtil.isTrue(stringRedisTemplate.opsForSet()
+                .isMember(RedisConstants.FEED_BIG_AUTHORS_KEY, authorId.toString()))) {
+            publishToOutbox(blogId, authorId, time);
+            return;
+        }
+        String taskKey = RedisConstants.FEED_FANOUT_TASK_KEY + blogId;
+        Map<String, String> task = new HashMap<>(4);
+        task.put(FIELD_AUTHOR, authorId.toString());
+        task.put(FIELD_TIME, String.valueOf(time));
+        task.put(FIELD_LAST_FOLLOWER_ID, "0");
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hMSet(taskKey, task);
+            conn.zAdd(RedisConstants.FEED_FANOUT_PENDING_KEY, time, blogId.toString());
+            return null;
+        });
+        try {
+            executor.execute(() -> run(blogId));
+        } catch (RejectedExecutionException e) {
+            // 进程正在关闭，任务已保存，由其它节点继续
+            log.warn("推送任务提交失败, 等待恢复, blogId: {}", blogId);
+        }
+    }
+
+    /**
+     * 执行推送任务，同一个任务同时只有一个线程执行
+     */
+    private void run(Long blogId) {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, RedisConstants.FEED_FANOUT_LOCK_NAME + blogId);
+        if (!lock.tryLock(LOCK_TTL)) {
+            return;
+        }
+        String taskKey = RedisConstants.FEED_FANOUT_TASK_KEY + blogId;
+        String lockKey = SimpleRedisLock.KEY_PREFIX + RedisConstants.FEED_FANOUT_LOCK_NAME + blogId;
+        try {
+            // 1.读取任务和进度
+            Map<Object, Object> task = stringRedisTemplate.opsForHash().entries(taskKey);
+            if (task.isEmpty()) {
+                // 任务已完成
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.FEED_FANOUT_PENDING_KEY, blogId.toString());
+                return;
+            }
+            Long authorId = Long.valueOf((String) task.get(FIELD_AUTHOR));
+            double time = Double.parseDouble((String) task.get(FIELD_TIME));
+            // 更早版本的任务记录的是tb_follow.id，没有粉丝id进度时从头推送，重复推送不影响结果
+            long lastFollowerId = Long.parseLong((String) task.getOrDefault(FIELD_LAST_FOLLOWER_ID, "0"));
+            String member = blogId.toString();
+            // 2.开始推送前统计粉丝数，达到阈值时转为大V，只写入发件箱
+            if (lastFollowerId == 0 && followerCount(authorId) >= bigAuthorThreshold) {
+                stringRedisTemplate.opsForSet().add(RedisConstants.FEED_BIG_AUTHORS_KEY, authorId.toString());
+                publishToOutbox(blogId, authorId, (long) time);
+                stringRedisTemplate.delete(taskKey);
+                stringRedisTemplate.opsForZSet().remove(RedisConstants.FEED_FANOUT_PENDING_KEY, member);
+                return;
+            }
+            int total = 0;
+            long[] followers = new long[BATCH_SIZE];
+            while (true) {
+                // 3.按粉丝id升序读取一批粉丝
+                int n = nextFollowers(authorId, lastFollowerId, followers);
+                if (n == 0) {
+                    break;
+                }
+                // 4.一次管道写入这一批粉丝的收件箱，并记录进度、给锁续期
+                long batchLast = followers[n - 1];
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (int i = 0; i < n; i++) {
+                        conn.zAdd(RedisConstants.FEED_KEY + followers[i], time, member);
+                    }
+                    conn.hSet(taskKey, FIELD_LAST_FOLLOWER_ID, String.valueOf(batchLast));
+                    conn.expire(lockKey, LOCK_TTL);
+                    return null;
+                });
+                total += n;
+                lastFollowerId = batchLast;
+                if (n < BATCH_SIZE) {
+                    break;
+                }
+            }
+            // 5.删除任务
+            stringRedisTemplate.delete(taskKey);
+            stringRedisTemplate.opsForZSet().remove(RedisConstants.FEED_FANOUT_PENDING_KEY, member);
+            log.debug("笔记推送完成, blogId: {}, 粉丝数: {}", blogId, total);
+        } catch (Exception e) {
+            log.error("笔记推送失败, 等待恢复, blogId: {}", blogId, e);
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 作者的粉丝数
+     */
+    private int followerCount(Long authorId) {
+        if (followGraph.isReady()) {
+            return followGraph.graph().followerCount(authorId);
+        }
+        Long count = stringRedisTemplate.opsForZSet().zCard(RedisConstants.FANS_KEY + authorId);
+        return count == null ? 0 : count.intValue();
+    }
+
+    /**
+     * 读取粉丝id大于after的一批粉丝，按粉丝id升序
+     *
+     * @return 写入out的个数
+     */
+    private int nextFollowers(Long authorId, long after, long[] out) {
+        if (followGraph.isReady()) {
+            return followGraph.graph().followers(authorId, after, out);
+        }
+        // 粉丝集合的score就是粉丝id
+        Set<String> fans = stringRedisTemplate.opsForZSet()
+                .rangeByScore(RedisConstants.FANS_KEY + authorId, after + 1, Double.POSITIVE_INFINITY, 0, out.length);
+        if (fans == null) {
+            return 0;
+        }
+        int n = 0;
+        for (String fan : fans) {
+            out[n++] = Long.parseLong(fan);
+        }
+        return n;
+    }
+
+    /**
+     * 写入作者的发件箱，只保留最近的OUTBOX_SIZE篇
+     */
+    private void publishToOutbox(Long blogId, Long authorId, long time) {
+        String outboxKey = RedisConstants.FEED_OUTBOX_KEY + authorId;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.zAdd(outboxKey, time, blogId.toString());
+            conn.zRemRange(outboxKey, 0, -OUTBOX_SIZE - 1);
+            return null;
+        });
+    }
+
+    /**
+     * 继续执行提交后一段时间仍未完成的任务，包括崩溃的进程留下的任务
+     */
+    private void recover() {
+        try {
+            long deadline = System.currentTimeMillis() - RECOVER_INTERVAL;
+            Set<String> blogIds = stringRedisTemplate.opsForZSet()
+                    .rangeByScore(RedisConstants.FEED_FANOUT_PENDING_KEY, 0, deadline);
+            if (blogIds == null) {
+                return;
+            }
+            for (String blogId : blogIds) {
+                run(Long.valueOf(blogId));
+            }
+        } catch (Exception e) {
+            log.error("恢复笔记推送任务失败", e);
+        }
+    }
+}
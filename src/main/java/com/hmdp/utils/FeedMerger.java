@@ -0,0 +1,79 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * 合并收件箱和多个发件箱中的笔记
+ * 每个来源都已按score降序（score相同时按member降序）排好，与ZREVRANGEBYSCORE的顺序一致，
+ * 合并后的顺序与把所有来源写入同一个ZSET再查询的结果相同，因此滚动分页的max/offset语义不变
+ */
+public class FeedMerger {
+
+    /**
+     * score降序，score相同时按member降序
+     */
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore(), Comparator.reverseOrder())
+                    .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder());
+
+    /**
+     * k路归并，跳过前offset条后返回count条，同一篇笔记出现在多个来源时只保留一次
+     *
+     * @param sources 各来源中score不大于max的前offset + count条
+     */
+    public static List<ZSetOperations.TypedTuple<String>> merge(
+            List<? extends Collection<ZSetOperations.TypedTuple<String>>> sources, int offset, int count) {
+        // 1.每个来源的当前元素放入堆中
+        PriorityQueue<Head> heap = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> ORDER.compare(a.tuple, b.tuple));
+        for (Collection<ZSetOperations.TypedTuple<String>> source : sources) {
+            if (source == null) {
+                continue;
+            }
+            Iterator<ZSetOperations.TypedTuple<String>> it = source.iterator();
+            if (it.hasNext()) {
+                heap.add(new Head(it.next(), it));
+            }
+        }
+        // 2.依次取出最大的元素，取出后补充同一来源的下一个元素
+        List<ZSetOperations.TypedTuple<String>> result = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        while (!heap.isEmpty() && result.size() < count) {
+            Head head = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = head.tuple;
+            if (head.rest.hasNext()) {
+                head.tuple = head.rest.next();
+                heap.add(head);
+            }
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            result.add(tuple);
+        }
+        return result;
+    }
+
+    private static final class Head {
+        ZSetOperations.TypedTuple<String> tuple;
+        final Iterator<ZSetOperations.TypedTuple<String>> rest;
+
+        Head(ZSetOperations.TypedTuple<String> tuple, Iterator<ZSetOperations.TypedTuple<String>> rest) {
+            this.tuple = tuple;
+            this.rest = rest;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanDesc;
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.PropDesc;
+import cn.hutool.core.util.StrUtil;
+import com.baomidou.mybatisplus.core.metadata.TableFieldInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfo;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 列表接口的字段筛选（fields=id,name,score）
+ * 请求的字段同时用于SQL的select列和返回结果，只返回请求的字段，不认识的字段忽略
+ * 没有数据库列的字段（例如distance、isLike）也可以请求，由调用方填充
+ */
+public class FieldProjection<T> {
+
+    private final Set<String> fields;
+    private final String[] columns;
+
+    private FieldProjection(Set<String> fields, String[] columns) {
+        this.fields = fields;
+        this.columns = columns;
+    }
+
+    /**
+     * 解析请求的字段
+     *
+     * @param entityClass 实体类，需要已被MyBatis-Plus解析过
+     * @param fields      逗号分隔的字段名
+     * @param required    后续处理需要用到的字段，不在返回结果中时也会查询，id总是会查询
+     * @return 没有请求字段或没有可识别的字段时返回null，表示返回完整数据
+     */
+    public static <T> FieldProjection<T> parse(Class<T> entityClass, String fields, String... required) {
+        if (StrUtil.isBlank(fields)) {
+            return null;
+        }
+        BeanDesc desc = BeanUtil.getBeanDesc(entityClass);
+        Set<String> selected = new LinkedHashSet<>();
+        for (String field : StrUtil.splitTrim(fields, ',')) {
+            PropDesc prop = desc.getProp(field);
+            if (prop != null && !"serialVersionUID".equals(field)) {
+                selected.add(prop.getFieldName());
+            }
+        }
+        if (selected.isEmpty()) {
+            return null;
+        }
+        // 1.属性名到列名的映射
+        TableInfo tableInfo = TableInfoHelper.getTableInfo(entityClass);
+        Map<String, String> columnOf = new HashMap<>();
+        columnOf.put(tableInfo.getKeyProperty(), tableInfo.getKeyColumn());
+        for (TableFieldInfo fieldInfo : tableInfo.getFieldList()) {
+            columnOf.put(fieldInfo.getProperty(), fieldInfo.getColumn());
+        }
+        // 2.需要查询的列：id、请求的字段、后续处理需要的字段
+        Set<String> columns = new LinkedHashSet<>();
+        columns.add(tableInfo.getKeyColumn());
+        List<String> props = new ArrayList<>(selected);
+        props.addAll(Arrays.asList(required));
+        for (String prop : props) {
+            String column = columnOf.get(prop);
+            if (column != null) {
+                columns.add(column);
+            }
+        }
+        return new FieldProjection<>(selected, columns.toArray(new String[0]));
+    }
+
+    /**
+     * 是否请求了某个字段
+     */
+    public boolean includes(String field) {
+        return fields.contains(field);
+    }
+
+    /**
+     * 请求的字段是否都在给定的字段中，例如判断是否可以直接使用摘要缓存
+     */
+    public boolean within(Collection<String> available) {
+        return available.containsAll(fields);
+    }
+
+    /**
+     * 只查询需要的列
+     */
+    public QueryChainWrapper<T> select(QueryChainWrapper<T> query) {
+        return query.select(columns);
+    }
+
+    /**
+     * 只保留请求的字段
+     */
+    public List<Map<String, Object>> apply(List<?> rows) {
+        List<Map<String, Object>> result = new ArrayList<>(rows.size());
+        for (Object row : rows) {
+            Map<String, Object> map = new LinkedHashMap<>(fields.size() * 2);
+            for (String field : fields) {
+                map.put(field, BeanUtil.getFieldValue(row, field));
+            }
+            result.add(map);
+        }
+        return result;
+    }
+
+    /**
+     * 对列表或游标分页结果做字段筛选，projection为null时原样返回
+     */
+    public static Object project(FieldProjection<?> projection, Object data) {
+        if (projection == null || data == null) {
+            return data;
+        }
+        if (data instanceof CursorResult) {
+            CursorResult<?> page = (CursorResult<?>) data;
+            return new CursorResult<>(projection.apply(page.getList()), page.getNextCursor());
+        }
+        if (data instanceof List) {
+            return projection.apply((List<?>) data);
+        }
+        return data;
+    }
+}
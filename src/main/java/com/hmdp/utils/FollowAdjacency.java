@@ -0,0 +1,227 @@
+package com.hmdp.utils;
+
+import org.roaringbitmap.PeekableIntIterator;
+import org.roaringbitmap.RoaringBitmap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 关注关系的邻接表，正向（关注了谁）和反向（被谁关注）各一份，每个用户的邻接集合是一个RoaringBitmap
+ * 用户id按无符号32位整数存储，连续的id段压缩为run或bitmap容器，每条边平均只占几个字节
+ * 按用户id分段加锁，修改和查询都在该用户所在分段的锁内直接读写bitmap，关注或取关不会复制大V的整个粉丝集合
+ */
+public class FollowAdjacency {
+
+    private static final long MAX_ID = 0xFFFFFFFFL;
+    /**
+     * 锁的分段数，2的幂
+     */
+    private static final int STRIPES = 64;
+
+    private final Object[] locks = new Object[STRIPES];
+
+    private final Map<Long, RoaringBitmap> following = new ConcurrentHashMap<>();
+    private final Map<Long, RoaringBitmap> followers = new ConcurrentHashMap<>();
+
+    public FollowAdjacency() {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * 用户id是否可以存入关注图
+     */
+    public static boolean accepts(long id) {
+        return id > 0 && id <= MAX_ID;
+    }
+
+    /**
+     * 构建期间添加一条关注，直接修改bitmap，只能在对外发布之前调用
+     */
+    public void load(long userId, long followUserId) {
+        following.computeIfAbsent(userId, k -> new RoaringBitmap()).add((int) followUserId);
+        followers.computeIfAbsent(followUserId, k -> new RoaringBitmap()).add((int) userId);
+    }
+
+    /**
+     * 构建完成后压缩连续的id段
+     */
+    public void optimize() {
+        following.values().forEach(RoaringBitmap::runOptimize);
+        followers.values().forEach(RoaringBitmap::runOptimize);
+    }
+
+    /**
+     * 添加一条关注
+     */
+    public void follow(long userId, long followUserId) {
+        update(following, userId, (int) followUserId, true);
+        update(followers, followUserId, (int) userId, true);
+    }
+
+    /**
+     * 删除一条关注
+     */
+    public void unfollow(long userId, long followUserId) {
+        update(following, userId, (int) followUserId, false);
+        update(followers, followUserId, (int) userId, false);
+    }
+
+    public boolean isFollowing(long userId, long followUserId) {
+        if (!accepts(followUserId)) {
+            return false;
+        }
+        synchronized (lockOf(userId)) {
+            RoaringBitmap set = following.get(userId);
+            return set != null && set.contains((int) followUserId);
+        }
+    }
+
+    public int followingCount(long userId) {
+        synchronized (lockOf(userId)) {
+            RoaringBitmap set = following.get(userId);
+            return set == null ? 0 : set.getCardinality();
+        }
+    }
+
+    public int followerCount(long userId) {
+        synchronized (lockOf(userId)) {
+            RoaringBitmap set = followers.get(userId);
+            return set == null ? 0 : set.getCardinality();
+        }
+    }
+
+    /**
+     * 两个用户共同关注的人数，不生成交集
+     */
+    public int commonCount(long userId, long otherId) {
+        int i = stripeOf(userId);
+        int j = stripeOf(otherId);
+        Object first = locks[Math.min(i, j)];
+        Object second = locks[Math.max(i, j)];
+        synchronized (first) {
+            synchronized (second) {
+                RoaringBitmap a = following.get(userId);
+                RoaringBitmap b = following.get(otherId);
+                return a == null || b == null ? 0 : (int) RoaringBitmap.andCardinality(a, b);
+            }
+        }
+    }
+
+    /**
+     * 两个用户共同关注的用户，按id升序返回前limit个
+     */
+    public List<Long> common(long userId, long otherId, int limit) {
+        RoaringBitmap common;
+        // 按分段下标顺序加锁，避免两个线程交叉等待
+        int i = stripeOf(userId);
+        int j = stripeOf(otherId);
+        Object first = locks[Math.min(i, j)];
+        Object second = locks[Math.max(i, j)];
+        synchronized (first) {
+            synchronized (second) {
+                RoaringBitmap a = following.get(userId);
+                RoaringBitmap b = following.get(otherId);
+                if (a == null || b == null) {
+                    return Collections.emptyList();
+                }
+                common = RoaringBitmap.and(a, b);
+            }
+        }
+        List<Long> ids = new ArrayList<>(Math.min(limit, common.getCardinality()));
+        PeekableIntIterator it = common.getIntIterator();
+        while (it.hasNext() && ids.size() < limit) {
+            ids.add(Integer.toUnsignedLong(it.next()));
+        }
+        return ids;
+    }
+
+    /**
+     * 按id升序读取一批粉丝，用于分批推送
+     *
+     * @param after 上一批最后一个粉丝的id，第一批为0
+     * @param out   写入粉丝id，最多写满
+     * @return 写入的个数，小于out.length表示没有更多粉丝
+     */
+    public int followers(long userId, long after, long[] out) {
+        if (after >= MAX_ID) {
+            return 0;
+        }
+        synchronized (lockOf(userId)) {
+            RoaringBitmap set = followers.get(userId);
+            if (set == null) {
+                return 0;
+            }
+            PeekableIntIterator it = set.getIntIterator();
+            it.advanceIfNeeded((int) (after + 1));
+            int n = 0;
+            while (n < out.length && it.hasNext()) {
+                out[n++] = Integer.toUnsignedLong(it.next());
+            }
+            return n;
+        }
+    }
+
+    /**
+     * 关注的总条数
+     */
+    public long edgeCount() {
+        long count = 0;
+        for (Map.Entry<Long, RoaringBitmap> entry : following.entrySet()) {
+            synchronized (lockOf(entry.getKey())) {
+                count += entry.getValue().getLongCardinality();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 两个方向的bitmap序列化后的总字节数，不包含Map本身的开销
+     */
+    public long sizeInBytes() {
+        return sizeInBytes(following) + sizeInBytes(followers);
+    }
+
+    private long sizeInBytes(Map<Long, RoaringBitmap> sets) {
+        long size = 0;
+        for (Map.Entry<Long, RoaringBitmap> entry : sets.entrySet()) {
+            synchronized (lockOf(entry.getKey())) {
+                size += entry.getValue().getLongSizeInBytes();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 在key所在分段的锁内直接修改bitmap，集合为空时删除
+     */
+    private void update(Map<Long, RoaringBitmap> sets, long key, int value, boolean add) {
+        synchronized (lockOf(key)) {
+            RoaringBitmap set = sets.get(key);
+            if (set == null) {
+                if (add) {
+                    sets.put(key, RoaringBitmap.bitmapOf(value));
+                }
+                return;
+            }
+            if (add) {
+                set.add(value);
+            } else if (set.checkedRemove(value) && set.isEmpty()) {
+                sets.remove(key);
+            }
+        }
+    }
+
+    private Object lockOf(long key) {
+        return locks[stripeOf(key)];
+    }
+
+    private static int stripeOf(long key) {
+        return (int) (key ^ (key >>> 32)) & (STRIPES - 1);
+    }
+}
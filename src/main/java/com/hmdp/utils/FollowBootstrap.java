@@ -0,0 +1,423 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.cursor.Cursor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.DefaultStringTuple;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.Resource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * 从tb_follow全量重建Redis中的关注集合（follows:{userId}）和粉丝集合（fans:{userId}），最后重新计算用户的关注数和粉丝数
+ * 按用户id划分区间并行处理，每个区间通过MyBatis游标按用户id顺序流式读取，同一个用户的数据写入临时key后RENAME替换，
+ * 区间内没有数据的用户删除旧key；每个用户完成后记录进度，中断后从进度继续，全部完成后清除进度
+ * 临时key带过期时间，中断后残留的自动删除；等待区间完成期间由持有锁的线程定期续期，锁失效时所有区间停止写入
+ * 重建期间新的关注变更可能被覆盖，应在维护窗口内执行：启动时加上 --hmdp.follow.bootstrap.enabled=true
+ */
+@Slf4j
+@Component
+public class FollowBootstrap {
+
+    /**
+     * 每个区间包含的用户id个数
+     */
+    private static final long RANGE_SIZE = 100_000L;
+    /**
+     * 每条SADD/ZADD、DEL命令最多包含的元素数
+     */
+    private static final int CHUNK_SIZE = 1000;
+    /**
+     * 每次管道发送的命令数
+     */
+    private static final int PIPELINE_SIZE = 1000;
+    /**
+     * 重建期间持有的锁的过期时间（秒），多个节点只有一个执行
+     */
+    private static final long LOCK_TTL = 30 * 60L;
+    /**
+     * 给锁续期的间隔（秒）
+     */
+    private static final long RENEW_INTERVAL = 60L;
+    /**
+     * 临时key的过期时间（秒），每写入一批元素时刷新
+     */
+    private static final long TEMP_TTL = 30 * 60L;
+
+    /**
+     * 重建的方向
+     */
+    private enum Direction {
+        /**
+         * 关注集合，key为user_id，元素为follow_user_id
+         */
+        FOLLOWING(RedisConstants.FOLLOW_KEY, "user_id"),
+        /**
+         * 粉丝集合，key为follow_user_id，元素为user_id，score为粉丝id
+         */
+        FANS(RedisConstants.FANS_KEY, "follow_user_id");
+
+        private final String keyPrefix;
+        private final String column;
+
+        Direction(String keyPrefix, String column) {
+            this.keyPrefix = keyPrefix;
+            this.column = column;
+        }
+
+        Cursor<Follow> scan(FollowMapper mapper, long from, long to) {
+            return this == FOLLOWING ? mapper.scanFollowing(from, to) : mapper.scanFans(from, to);
+        }
+
+        long keyOf(Follow follow) {
+            return this == FOLLOWING ? follow.getUserId() : follow.getFollowUserId();
+        }
+
+        long memberOf(Follow follow) {
+            return this == FOLLOWING ? follow.getFollowUserId() : follow.getUserId();
+        }
+
+        void write(StringRedisConnection conn, String key, long[] members) {
+            if (this == FOLLOWING) {
+                String[] values = new String[members.length];
+                for (int i = 0; i < members.length; i++) {
+                    values[i] = String.valueOf(members[i]);
+                }
+                conn.sAdd(key, values);
+            } else {
+                Set<StringRedisConnection.StringTuple> tuples = new HashSet<>(members.length * 2);
+                for (long member : members) {
+                    tuples.add(new DefaultStringTuple(String.valueOf(member), member));
+                }
+                conn.zAdd(key, tuples);
+            }
+        }
+    }
+
+    @Value("${hmdp.follow.bootstrap.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.follow.bootstrap.parallelism:4}")
+    private int parallelism;
+    @Value("${hmdp.follow.bootstrap.resume:true}")
+    private boolean resume;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private FollowMapper followMapper;
+    @Resource
+    private PlatformTransactionManager transactionManager;
+    @Resource
+    private FollowCounter followCounter;
+
+    /**
+     * 运维入口：配置hmdp.follow.bootstrap.enabled=true时，启动完成后在后台线程执行一次重建，不阻塞对外服务
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        Thread t = new Thread(this::rebuildQuietly, "follow-bootstrap-runner");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void rebuildQuietly() {
+        try {
+            long edges = rebuild(parallelism, resume);
+            log.info("关注集合重建结束, 写入关注数: {}", edges);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("关注集合重建失败, 可以再次执行从进度继续", e);
+        }
+    }
+
+    /**
+     * 重建关注集合和粉丝集合
+     *
+     * @param parallelism 同时处理的区间数，每个区间占用一个数据库连接
+     * @param resume      true从上次的进度继续，false清除进度重新开始
+     * @return 写入的关注条数，两个方向分别计数
+     */
+    public long rebuild(int parallelism, boolean resume) throws InterruptedException {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, RedisConstants.FOLLOW_REBUILD_LOCK_NAME);
+        if (!lock.tryLock(LOCK_TTL)) {
+            log.info("其它节点正在重建关注集合");
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "follow-bootstrap");
+            t.setDaemon(true);
+            return t;
+        });
+        Lease lease = new Lease(lock);
+        try {
+            if (!resume) {
+                stringRedisTemplate.delete(RedisConstants.FOLLOW_REBUILD_CHECKPOINT_KEY);
+            }
+            long begin = System.currentTimeMillis();
+            long total = 0;
+            for (Direction direction : Direction.values()) {
+                // 1.按最大用户id划分区间，用户id从1开始
+                List<Object> max = followMapper.selectObjs(new QueryWrapper<Follow>()
+                        .select("MAX(" + direction.column + ")"));
+                long maxId = max.isEmpty() || max.get(0) == null ? 0 : ((Number) max.get(0)).longValue();
+                List<Future<Long>> futures = new ArrayList<>();
+                for (long from = 1; from <= maxId; from += RANGE_SIZE) {
+                    long start = from;
+                    long end = Math.min(from + RANGE_SIZE, maxId + 1);
+                    futures.add(executor.submit(() -> rebuildRange(direction, start, end, lease)));
+                }
+                // 2.等待所有区间完成，失败的区间保留进度，下次继续
+                long edges = 0;
+                int failed = 0;
+                for (Future<Long> future : futures) {
+                    try {
+                        edges += lease.await(future);
+                    } catch (ExecutionException e) {
+                        failed++;
+                        log.error("重建关注集合失败, 方向: {}", direction, e.getCause());
+                    }
+                }
+                total += edges;
+                log.info("{}重建完成, 区间数: {}, 失败: {}, 关注数: {}, 累计耗时: {}ms",
+                        direction, futures.size(), failed, edges, System.currentTimeMillis() - begin);
+                if (failed > 0) {
+                    throw new IllegalStateException(direction + "有" + failed + "个区间重建失败，可以从进度继续");
+                }
+            }
+            // 3.按tb_follow重新计算tb_user_info中的关注数和粉丝数，覆盖只靠增量维护的旧值，先续期给它留出完整的时间
+            if (!lock.renew(LOCK_TTL)) {
+                throw new IllegalStateException("重建关注集合的锁已失效");
+            }
+            followCounter.recount();
+            // 4.全部完成后清除进度，下次重建从头开始；计数失败时保留进度，再次执行只重新计算计数
+            stringRedisTemplate.delete(RedisConstants.FOLLOW_REBUILD_CHECKPOINT_KEY);
+            return total;
+        } finally {
+            executor.shutdownNow();
+            lock.unLock();
+        }
+    }
+
+    /**
+     * 重建期间持有的锁，由调用rebuild的线程等待区间完成时续期；区间在其它线程执行，发送管道前检查锁是否仍然有效
+     */
+    private static final class Lease {
+        private final SimpleRedisLock lock;
+        private long renewedAt = System.currentTimeMillis();
+        private volatile boolean lost;
+
+        Lease(SimpleRedisLock lock) {
+            this.lock = lock;
+        }
+
+        /**
+         * 等待区间完成，期间每RENEW_INTERVAL续期一次，续期失败时通知所有区间停止
+         */
+        long await(Future<Long> future) throws InterruptedException, ExecutionException {
+            while (true) {
+                try {
+                    return future.get(RENEW_INTERVAL, TimeUnit.SECONDS);
+                } catch (TimeoutException e) {
+                    // 继续等待
+                } finally {
+                    renewIfDue();
+                }
+            }
+        }
+
+        private void renewIfDue() {
+            long now = System.currentTimeMillis();
+            if (now - renewedAt < RENEW_INTERVAL * 1000) {
+                return;
+            }
+            if (!lock.renew(LOCK_TTL)) {
+                lost = true;
+                throw new IllegalStateException("重建关注集合的锁已失效");
+            }
+            renewedAt = now;
+        }
+
+        void check() {
+            if (lost) {
+                throw new IllegalStateException("重建关注集合的锁已失效，停止写入");
+            }
+        }
+    }
+
+    /**
+     * 重建一个区间[from, to)内所有用户的集合
+     */
+    private long rebuildRange(Direction direction, long from, long to, Lease lease) {
+        String field = direction.name() + ":" + from;
+        Object saved = stringRedisTemplate.opsForHash().get(RedisConstants.FOLLOW_REBUILD_CHECKPOINT_KEY, field);
+        long start = saved == null ? from : Long.parseLong((String) saved) + 1;
+        if (start >= to) {
+            return 0;
+        }
+        // 游标需要在事务中读取，读取完成前连接不能用于其它查询
+        TransactionTemplate tx = new TransactionTemplate(transactionManager);
+        tx.setReadOnly(true);
+        Long edges = tx.execute(status -> {
+            RangeWriter writer = new RangeWriter(direction, field, start, lease);
+            try (Cursor<Follow> cursor = direction.scan(followMapper, start, to)) {
+                for (Follow follow : cursor) {
+                    writer.add(direction.keyOf(follow), direction.memberOf(follow));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            writer.finish(to);
+            return writer.edges;
+        });
+        return edges == null ? 0 : edges;
+    }
+
+    /**
+     * 按用户id顺序写入一个区间，命令攒够一批后通过一次管道发送
+     */
+    private final class RangeWriter {
+        private final Direction direction;
+        private final String field;
+        private final Lease lease;
+        private final List<Consumer<StringRedisConnection>> commands = new ArrayList<>(PIPELINE_SIZE);
+        private final long[] members = new long[CHUNK_SIZE];
+        private int size;
+        /**
+         * 当前用户id，-1表示还没有
+         */
+        private long current = -1;
+        /**
+         * 下一个尚未处理的用户id
+         */
+        private long next;
+        private long edges;
+
+        RangeWriter(Direction direction, String field, long start, Lease lease) {
+            this.direction = direction;
+            this.field = field;
+            this.lease = lease;
+            this.next = start;
+        }
+
+        void add(long key, long member) {
+            if (key != current) {
+                if (current != -1) {
+                    closeUser();
+                }
+                // 跳过的用户没有关注关系，删除旧的集合
+                deleteBetween(next, key);
+                current = key;
+                next = key + 1;
+                String tempKey = tempKeyOf(key);
+                commands.add(conn -> conn.del(tempKey));
+            }
+            members[size++] = member;
+            edges++;
+            if (size == CHUNK_SIZE) {
+                writeMembers();
+            }
+        }
+
+        void finish(long to) {
+            if (current != -1) {
+                closeUser();
+            }
+            deleteBetween(next, to);
+            long last = to - 1;
+            commands.add(conn -> conn.hSet(RedisConstants.FOLLOW_REBUILD_CHECKPOINT_KEY, field, String.valueOf(last)));
+            flush();
+        }
+
+        /**
+         * 当前用户写完，临时key替换正式key并去掉临时key的过期时间，再记录进度
+         */
+        private void closeUser() {
+            writeMembers();
+            long key = current;
+            commands.add(conn -> conn.rename(tempKeyOf(key), direction.keyPrefix + key));
+            commands.add(conn -> conn.persist(direction.keyPrefix + key));
+            commands.add(conn -> conn.hSet(RedisConstants.FOLLOW_REBUILD_CHECKPOINT_KEY, field, String.valueOf(key)));
+            flushIfFull();
+        }
+
+        private void writeMembers() {
+            if (size == 0) {
+                return;
+            }
+            long[] chunk = Arrays.copyOf(members, size);
+            String tempKey = tempKeyOf(current);
+            commands.add(conn -> {
+                direction.write(conn, tempKey, chunk);
+                conn.expire(tempKey, TEMP_TTL);
+            });
+            size = 0;
+            flushIfFull();
+        }
+
+        private void deleteBetween(long from, long to) {
+            for (long id = from; id < to; id += CHUNK_SIZE) {
+                int n = (int) Math.min(CHUNK_SIZE, to - id);
+                String[] keys = new String[n];
+                for (int i = 0; i < n; i++) {
+                    keys[i] = direction.keyPrefix + (id + i);
+                }
+                commands.add(conn -> conn.del(keys));
+                flushIfFull();
+            }
+        }
+
+        private String tempKeyOf(long key) {
+            return RedisConstants.FOLLOW_REBUILD_KEY + direction.keyPrefix + key;
+        }
+
+        private void flushIfFull() {
+            if (commands.size() >= PIPELINE_SIZE) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (commands.isEmpty()) {
+                return;
+            }
+            lease.check();
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Consumer<StringRedisConnection> command : commands) {
+                    command.accept(conn);
+                }
+                return null;
+            });
+            commands.clear();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.UserInfo;
+import com.hmdp.service.IUserInfoService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 关注关系在Redis中的正反向集合和用户的关注数、粉丝数
+ * 关注或取关时通过Lua脚本同时修改关注集合（follows:{userId}）、粉丝集合（fans:{userId}）和计数增量，
+ * 后台定期把增量批量写回tb_user_info.followee和tb_user_info.fans，读取时把尚未写回的增量加到数据库的值上
+ * 计数只随增量变化，引入增量之前已有的关注关系需要通过recount从tb_follow重新计算
+ */
+@Slf4j
+@Component
+public class FollowCounter {
+
+    private static final DefaultRedisScript<Long> FOLLOW_SCRIPT;
+
+    static {
+        FOLLOW_SCRIPT = new DefaultRedisScript<>();
+        FOLLOW_SCRIPT.setLocation(new ClassPathResource("follow.lua"));
+        FOLLOW_SCRIPT.setResultType(Long.class);
+    }
+
+    @Value("${hmdp.follow.count-flush-interval-ms:5000}")
+    private long flushInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CounterFlushLog counterFlushLog;
+    @Resource
+    private IUserInfoService userInfoService;
+
+    private CounterFlusher followeeFlusher;
+    private CounterFlusher fansFlusher;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "follow-count-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    private void init() {
+        followeeFlusher = new CounterFlusher(stringRedisTemplate, counterFlushLog, RedisConstants.USER_FOLLOWEE_DELTA_KEY,
+                deltas -> apply("followee", deltas));
+        fansFlusher = new CounterFlusher(stringRedisTemplate, counterFlushLog, RedisConstants.USER_FANS_DELTA_KEY,
+                deltas -> apply("fans", deltas));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+
+    /**
+     * 数据库中的关注关系修改成功后，修改Redis中的集合和计数增量
+     */
+    public void onFollowChanged(Long userId, Long followUserId, boolean isFollow) {
+        stringRedisTemplate.execute(
+                FOLLOW_SCRIPT,
+                Arrays.asList(RedisConstants.FOLLOW_KEY + userId, RedisConstants.FANS_KEY + followUserId,
+                        RedisConstants.USER_FOLLOWEE_DELTA_KEY, RedisConstants.USER_FANS_DELTA_KEY),
+                userId.toString(), followUserId.toString(), isFollow ? "1" : "0"
+        );
+    }
+
+    /**
+     * 丢弃尚未写回的增量，按tb_follow重新计算所有用户的关注数和粉丝数
+     * 期间两个计数都不写回
+     */
+    public void recount() throws InterruptedException {
+        long begin = System.currentTimeMillis();
+        int[] ranges = new int[1];
+        followeeFlusher.reset(() -> {
+            try {
+                fansFlusher.reset(() -> ranges[0] = userInfoService.recountFollow());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("重新计算关注数被中断", e);
+            }
+        });
+        log.info("关注数重新计算完成, 区间数: {}, 耗时: {}ms", ranges[0], System.currentTimeMillis() - begin);
+    }
+
+    /**
+     * 把尚未写回的关注数、粉丝数加到用户详情上
+     */
+    public void merge(UserInfo info) {
+        Long followee = followeeFlusher.pending(Collections.singletonList(info.getUserId())).get(info.getUserId());
+        Long fans = fansFlusher.pending(Collections.singletonList(info.getUserId())).get(info.getUserId());
+        if (followee != null) {
+            info.setFollowee((int) Math.max(0, valueOf(info.getFollowee()) + followee));
+        }
+        if (fans != null) {
+            info.setFans((int) Math.max(0, valueOf(info.getFans()) + fans));
+        }
+    }
+
+    /**
+     * 没有详情的用户先插入默认详情，再用一条UPDATE累加这一批用户的计数
+     */
+    private void apply(String column, Map<Long, Long> deltas) {
+        userInfoService.createIfAbsent(deltas.keySet());
+        userInfoService.update()
+                .setSql(CounterFlusher.incrementSql(column, "user_id", deltas))
+                .in("user_id", deltas.keySet())
+                .update();
+    }
+
+    private static long valueOf(Integer count) {
+        return count == null ? 0 : count;
+    }
+
+    private void flushQuietly() {
+        try {
+            int followee = followeeFlusher.flush();
+            int fans = fansFlusher.flush();
+            if (followee > 0 || fans > 0) {
+                log.debug("关注数写回完成, 关注数变化的用户: {}, 粉丝数变化的用户: {}", followee, fans);
+            }
+        } catch (Exception e) {
+            log.error("关注数写回失败, 稍后重试", e);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的关注图（hmdp.follow.graph.enabled）
+ * 启动后在后台从tb_follow加载到FollowAdjacency，之后通过Redis发布的关注变更（follow:changed）保持同步，
+ * 用于共同关注、粉丝数和推送笔记时的粉丝遍历；未就绪时调用方继续使用Redis或数据库
+ * Pub/Sub不保证送达，丢失的变更由定期重新加载修正：加载到新的FollowAdjacency，重放加载期间的变更后替换
+ */
+@Slf4j
+@Component
+public class FollowGraph implements MessageListener {
+
+    /**
+     * 启动时分批加载关注关系的批大小
+     */
+    private static final int LOAD_BATCH_SIZE = 10000;
+
+    @Value("${hmdp.follow.graph.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.follow.graph.reload-interval-minutes:60}")
+    private long reloadInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IFollowService followService;
+
+    private volatile FollowAdjacency graph = new FollowAdjacency();
+    /**
+     * 加载期间收到的变更，加载完成后按顺序重放到新的关注图上
+     */
+    private final List<long[]> changedDuringLoad = new ArrayList<>();
+    private boolean loading;
+    private volatile boolean ready;
+
+    private final ScheduledExecutorService loader = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "follow-graph");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        if (reloadInterval > 0) {
+            loader.scheduleWithFixedDelay(this::loadAll, 0, reloadInterval, TimeUnit.MINUTES);
+        } else {
+            loader.execute(this::loadAll);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        loader.shutdownNow();
+    }
+
+    /**
+     * 关注图是否可用，未就绪时各查询方法的结果没有意义
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    public FollowAdjacency graph() {
+        return graph;
+    }
+
+    /**
+     * 发布关注变更，有事务时在事务提交后发布，所有节点（包括自己）收到后更新关注图
+     */
+    public void publish(Long userId, Long followUserId, boolean isFollow) {
+        if (!enabled) {
+            return;
+        }
+        String message = userId + "," + followUserId + "," + (isFollow ? 1 : 0);
+        TxUtils.afterCommit(() -> stringRedisTemplate.convertAndSend(RedisConstants.FOLLOW_CHANGED_CHANNEL, message));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        if (!enabled) {
+            return;
+        }
+        String[] parts = new String(message.getBody(), StandardCharsets.UTF_8).split(",");
+        long[] change = {Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+        synchronized (this) {
+            if (loading) {
+                changedDuringLoad.add(change);
+            }
+            if (!ready) {
+                return;
+            }
+        }
+        // 加载完成前后都可能执行到这里，重复应用同一个变更没有影响
+        apply(graph, change);
+    }
+
+    private void loadAll() {
+        long begin = System.currentTimeMillis();
+        synchronized (this) {
+            loading = true;
+        }
+        FollowAdjacency fresh = new FollowAdjacency();
+        try {
+            // 1.按主键分批读取所有关注关系
+            long lastId = 0;
+            int skipped = 0;
+            while (true) {
+                List<Follow> follows = followService.query()
+                        .select("id", "user_id", "follow_user_id")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE)
+                        .list();
+                for (Follow follow : follows) {
+                    if (FollowAdjacency.accepts(follow.getUserId()) && FollowAdjacency.accepts(follow.getFollowUserId())) {
+                        fresh.load(follow.getUserId(), follow.getFollowUserId());
+                    } else {
+                        skipped++;
+                    }
+                }
+                if (follows.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = follows.get(follows.size() - 1).getId();
+            }
+            fresh.optimize();
+            // 2.重放加载期间的变更后替换，之后的变更直接生效
+            synchronized (this) {
+                for (long[] change : changedDuringLoad) {
+                    apply(fresh, change);
+                }
+                graph = fresh;
+                ready = true;
+            }
+            log.info("关注图加载完成, 关注数: {}, 占用: {}KB, 跳过: {}, 耗时: {}ms",
+                    fresh.edgeCount(), fresh.sizeInBytes() / 1024, skipped, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("关注图加载失败，{}", ready ? "继续使用上一次加载的关注图" : "继续使用Redis和数据库查询", e);
+        } finally {
+            synchronized (this) {
+                changedDuringLoad.clear();
+                loading = false;
+            }
+        }
+    }
+
+    private static void apply(FollowAdjacency graph, long[] change) {
+        if (!FollowAdjacency.accepts(change[0]) || !FollowAdjacency.accepts(change[1])) {
+            return;
+        }
+        if (change[2] == 1) {
+            graph.follow(change[0], change[1]);
+        } else {
+            graph.unfollow(change[0], change[1]);
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 基于经纬度网格的只读空间索引
+ * 所有点按网格编号排序后保存在基本类型数组中，没有为每个点创建对象，
+ * 查询时只扫描半径外接矩形覆盖的网格，用固定大小的大顶堆取出距离最近的前k个点
+ * 构建后不可修改，更新时重新构建一个新的索引
+ */
+public class GeoGridIndex {
+
+    /**
+     * 地球半径（米），与Redis GEO命令使用的值保持一致，保证距离计算结果相同
+     */
+    public static final double EARTH_RADIUS = 6372797.560856;
+    /**
+     * 网格边长（度），约1.1公里
+     */
+    private static final double CELL_DEGREES = 0.01;
+    private static final long COLS = (long) Math.ceil(360 / CELL_DEGREES);
+
+    public static final GeoGridIndex EMPTY = new GeoGridIndex(new long[0], new long[0], new double[0], new double[0]);
+
+    /**
+     * 每个点所在的网格编号，升序
+     */
+    private final long[] cells;
+    private final long[] ids;
+    private final double[] xs;
+    private final double[] ys;
+    /**
+     * 纬度的余弦值，查询时不需要再为每个点计算
+     */
+    private final double[] cosYs;
+
+    private GeoGridIndex(long[] cells, long[] ids, double[] xs, double[] ys) {
+        this.cells = cells;
+        this.ids = ids;
+        this.xs = xs;
+        this.ys = ys;
+        this.cosYs = new double[ys.length];
+        for (int i = 0; i < ys.length; i++) {
+            cosYs[i] = Math.cos(Math.toRadians(ys[i]));
+        }
+    }
+
+    /**
+     * 构建索引
+     *
+     * @param ids 点的id
+     * @param xs  经度
+     * @param ys  纬度
+     * @param n   点的数量
+     * @return 索引，以及每个新位置对应的原始下标（用于重排附加数据）
+     */
+    public static Built build(long[] ids, double[] xs, double[] ys, int n) {
+        // 1.网格编号放在高32位，原始下标放在低32位，对基本类型数组排序
+        long[] packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = cellOf(xs[i], ys[i]) << 32 | i;
+        }
+        Arrays.sort(packed);
+        // 2.按排序后的顺序重排数据
+        long[] sortedCells = new long[n];
+        long[] sortedIds = new long[n];
+        double[] sortedXs = new double[n];
+        double[] sortedYs = new double[n];
+        int[] order = new int[n];
+        for (int i = 0; i < n; i++) {
+            int src = (int) packed[i];
+            order[i] = src;
+            sortedCells[i] = packed[i] >>> 32;
+            sortedIds[i] = ids[src];
+            sortedXs[i] = xs[src];
+            sortedYs[i] = ys[src];
+        }
+        return new Built(new GeoGridIndex(sortedCells, sortedIds, sortedXs, sortedYs), order);
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public long idAt(int slot) {
+        return ids[slot];
+    }
+
+    public double xAt(int slot) {
+        return xs[slot];
+    }
+
+    public double yAt(int slot) {
+        return ys[slot];
+    }
+
+    /**
+     * 查找半径内的点，把每个点的下标和距离交给collector
+     */
+    public void search(double x, double y, double radius, Collector collector) {
+        double latDelta = Math.toDegrees(radius / EARTH_RADIUS);
+        double cosLat = Math.max(Math.cos(Math.toRadians(y)), 0.01);
+        double lonDelta = Math.min(Math.toDegrees(radius / (EARTH_RADIUS * cosLat)), 180);
+        long rowMin = row(y - latDelta);
+        long rowMax = row(y + latDelta);
+        long colMin = col(x - lonDelta);
+        long colMax = col(x + lonDelta);
+        // haversine中间值的上限，超过上限的点不需要再计算反三角函数
+        double maxHav = Math.sin(radius / EARTH_RADIUS / 2);
+        maxHav *= maxHav;
+        double lat1 = Math.toRadians(y);
+        double cosLat1 = Math.cos(lat1);
+        for (long row = rowMin; row <= rowMax; row++) {
+            long from = row * COLS + colMin;
+            long to = row * COLS + colMax;
+            // 同一行相邻网格的点在数组中是连续的
+            for (int i = lowerBound(from); i < cells.length && cells[i] <= to; i++) {
+                // 先用外接矩形过滤
+                if (Math.abs(ys[i] - y) > latDelta || Math.abs(xs[i] - x) > lonDelta) {
+                    continue;
+                }
+                double u = Math.sin((Math.toRadians(ys[i]) - lat1) / 2);
+                double v = Math.sin(Math.toRadians(xs[i] - x) / 2);
+                double hav = u * u + cosLat1 * cosYs[i] * v * v;
+                if (hav <= maxHav) {
+                    collector.accept(i, 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(hav)));
+                }
+            }
+        }
+    }
+
+    private int lowerBound(long cell) {
+        int lo = 0;
+        int hi = cells.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cells[mid] < cell) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static long cellOf(double x, double y) {
+        return row(y) * COLS + col(x);
+    }
+
+    private static long row(double y) {
+        double lat = Math.max(-90, Math.min(90, y));
+        return (long) Math.floor((lat + 90) / CELL_DEGREES);
+    }
+
+    private static long col(double x) {
+        double lon = Math.max(-180, Math.min(180 - 1e-9, x));
+        return (long) Math.floor((lon + 180) / CELL_DEGREES);
+    }
+
+    /**
+     * 两点间的球面距离（米），haversine公式
+     */
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    public interface Collector {
+        void accept(int slot, double distance);
+    }
+
+    public static class Built {
+        public final GeoGridIndex index;
+        /**
+         * order[新下标] = 原始下标
+         */
+        public final int[] order;
+
+        Built(GeoGridIndex index, int[] order) {
+            this.index = index;
+            this.order = order;
+        }
+    }
+
+    /**
+     * 保留距离最小的前k个元素的大顶堆，元素只有int下标和double距离，不创建对象
+     * 距离相同时按id升序，保证分页结果稳定
+     */
+    public static class TopK {
+        private final int k;
+        private final int[] refs;
+        private final long[] ids;
+        private final double[] dists;
+        private int size;
+
+        public TopK(int k) {
+            this.k = k;
+            this.refs = new int[k];
+            this.ids = new long[k];
+            this.dists = new double[k];
+        }
+
+        public void offer(int ref, long id, double dist) {
+            if (k == 0) {
+                return;
+            }
+            if (size < k) {
+                refs[size] = ref;
+                ids[size] = id;
+                dists[size] = dist;
+                siftUp(size++);
+            } else if (less(dist, id, dists[0], ids[0])) {
+                refs[0] = ref;
+                ids[0] = id;
+                dists[0] = dist;
+                siftDown(0);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+
+        /**
+         * 按距离升序排序，之后可以通过下标读取，调用后不能再offer
+         */
+        public void sort() {
+            int n = size;
+            while (size > 1) {
+                swap(0, --size);
+                siftDown(0);
+            }
+            size = n;
+        }
+
+        public int refAt(int i) {
+            return refs[i];
+        }
+
+        public double distanceAt(int i) {
+            return dists[i];
+        }
+
+        private static boolean less(double d1, long id1, double d2, long id2) {
+            return d1 < d2 || (d1 == d2 && id1 < id2);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (!less(dists[parent], ids[parent], dists[i], ids[i])) {
+                    break;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int left = 2 * i + 1;
+                if (left >= size) {
+                    break;
+                }
+                int largest = left;
+                int right = left + 1;
+                if (right < size && less(dists[left], ids[left], dists[right], ids[right])) {
+                    largest = right;
+                }
+                if (!less(dists[i], ids[i], dists[largest], ids[largest])) {
+                    break;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int r = refs[a];
+            refs[a] = refs[b];
+            refs[b] = r;
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double d = dists[a];
+            dists[a] = dists[b];
+            dists[b] = d;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Blog;
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * 热门笔记排行榜（blog:hot）
+ * 分数 = (点赞数 + 评论数 * 权重 + 1) / (发布小时数 + 2) ^ gravity，越新、互动越多的笔记越靠前，旧笔记逐渐下沉
+ * 发布笔记时直接写入；点赞、评论只把笔记id记入blog:hot:dirty，由后台定期与榜单前window名一起从数据库读取计数后重新打分，
+ * 榜单只保留前window名
+ */
+@Slf4j
+@Component
+public class HotBlogRanker {
+
+    /**
+     * 每次从数据库读取的笔记数
+     */
+    private static final int BATCH_SIZE = 500;
+    /**
+     * 重新打分期间持有的锁的过期时间（秒），多个节点只有一个执行
+     */
+    private static final long LOCK_TTL = 5 * 60L;
+
+    @Value("${hmdp.blog.hot.window:1000}")
+    private int window;
+    @Value("${hmdp.blog.hot.gravity:1.8}")
+    private double gravity;
+    @Value("${hmdp.blog.hot.comment-weight:2}")
+    private double commentWeight;
+    @Value("${hmdp.blog.hot.rescore-interval-seconds:30}")
+    private long rescoreInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IBlogService blogService;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "hot-blog-ranker");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::rescoreQuietly, 0, rescoreInterval, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 计算热度分数
+     *
+     * @param createTime 发布时间戳（毫秒）
+     * @param now        当前时间戳（毫秒），同一次打分使用同一个值
+     */
+    public static double score(int liked, int comments, double commentWeight, double gravity, long createTime, long now) {
+        double hours = Math.max(0, now - createTime) / 3600_000.0;
+        return (Math.max(0, liked) + Math.max(0, comments) * commentWeight + 1) / Math.pow(hours + 2, gravity);
+    }
+
+    /**
+     * 新发布的笔记直接进入榜单
+     */
+    public void publish(Long blogId, long createTime) {
+        stringRedisTemplate.opsForZSet().add(RedisConstants.BLOG_HOT_KEY, blogId.toString(),
+                score(0, 0, commentWeight, gravity, createTime, createTime));
+    }
+
+    /**
+     * 点赞数或评论数变化的笔记，等待下一次重新打分
+     */
+    public void touch(Collection<Long> blogIds) {
+        if (blogIds.isEmpty()) {
+            return;
+        }
+        stringRedisTemplate.opsForSet().add(RedisConstants.BLOG_HOT_DIRTY_KEY,
+                blogIds.stream().map(String::valueOf).toArray(String[]::new));
+    }
+
+    /**
+     * 按名次查询笔记id
+     *
+     * @param start 起始名次，从0开始
+     */
+    public List<Long> range(long start, int count) {
+        Set<String> ids = stringRedisTemplate.opsForZSet()
+                .reverseRange(RedisConstants.BLOG_HOT_KEY, start, start + count - 1);
+        if (ids == null || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return ids.stream().map(Long::valueOf).collect(Collectors.toList());
+    }
+
+    /**
+     * 重新打分：榜单为空时用最新的window篇笔记初始化，否则对榜单前window名和有变化的笔记重新打分
+     *
+     * @return 重新打分的笔记数
+     */
+    public int rescore() {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, RedisConstants.BLOG_HOT_KEY);
+        if (!lock.tryLock(LOCK_TTL)) {
+            return 0;
+        }
+        try {
+            long now = System.currentTimeMillis();
+            // 1.需要重新打分的笔记
+            Set<Long> ids = new LinkedHashSet<>();
+            if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.BLOG_HOT_KEY))) {
+                // 按主键倒序取最新的笔记，不需要排序
+                blogService.query().select("id")
+                        .orderByDesc("id")
+                        .last("LIMIT " + window)
+                        .list()
+                        .forEach(blog -> ids.add(blog.getId()));
+            } else {
+                ids.addAll(range(0, window));
+            }
+            List<String> dirty = stringRedisTemplate.opsForSet().pop(RedisConstants.BLOG_HOT_DIRTY_KEY, window);
+            if (dirty != null) {
+                dirty.forEach(id -> ids.add(Long.valueOf(id)));
+            }
+            if (ids.isEmpty()) {
+                return 0;
+            }
+            // 2.分批读取计数，一次管道写回分数，已删除的笔记移出榜单
+            List<Long> all = new ArrayList<>(ids);
+            for (int from = 0; from < all.size(); from += BATCH_SIZE) {
+                List<Long> batch = all.subList(from, Math.min(from + BATCH_SIZE, all.size()));
+                List<Blog> blogs = blogService.query()
+                        .select("id", "liked", "comments", "create_time")
+                        .in("id", batch)
+                        .list();
+                Set<Long> missing = new HashSet<>(batch);
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Blog blog : blogs) {
+                        missing.remove(blog.getId());
+                        conn.zAdd(RedisConstants.BLOG_HOT_KEY, scoreOf(blog, now), blog.getId().toString());
+                    }
+                    for (Long id : missing) {
+                        conn.zRem(RedisConstants.BLOG_HOT_KEY, id.toString());
+                    }
+                    return null;
+                });
+            }
+            // 3.只保留前window名
+            stringRedisTemplate.opsForZSet().removeRange(RedisConstants.BLOG_HOT_KEY, 0, -window - 1);
+            return all.size();
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    private double scoreOf(Blog blog, long now) {
+        LocalDateTime createTime = blog.getCreateTime();
+        long time = createTime == null ? now : createTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        int liked = blog.getLiked() == null ? 0 : blog.getLiked();
+        int comments = blog.getComments() == null ? 0 : blog.getComments();
+        return score(liked, comments, commentWeight, gravity, time, now);
+    }
+
+    private void rescoreQuietly() {
+        try {
+            int count = rescore();
+            if (count > 0) {
+                log.debug("热门笔记重新打分完成, 笔记数: {}", count);
+            }
+        } catch (Exception e) {
+            log.error("热门笔记重新打分失败", e);
+        }
+    }
+}
@@ -9,5 +9,12 @@ public interface ILock {
      */
     public boolean tryLock(long timeoutSec);
 
+    /**
+     * 给自己持有的锁续期
+     * @param timeoutSec 新的过期时间
+     * @return true 续期成功 false 锁已过期或被其它线程持有
+     */
+    public boolean renew(long timeoutSec);
+
     public void unLock();
 }
@@ -0,0 +1,143 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import cn.hutool.core.util.StrUtil;
+import cn.hutool.json.JSONArray;
+import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.extension.conditions.query.QueryChainWrapper;
+import com.hmdp.dto.CursorResult;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 基于游标（keyset）的分页
+ * 按若干排序字段排序，游标中记录上一页最后一行的排序字段值，下一页用 WHERE (a, id) < (?, ?) 的条件直接定位，
+ * 不使用OFFSET，也不查询总数，翻到多深的页代价都和第一页相同
+ * 游标是排序字段值的JSON数组经过Base64编码后的字符串，对客户端不透明
+ * 排序字段的最后一个必须唯一（通常是id），否则相同值的行可能被跳过
+ */
+public class KeysetPager {
+
+    /**
+     * 排序字段
+     */
+    public static final class Key<T> {
+        private final String column;
+        private final boolean descending;
+        private final Function<T, Object> getter;
+
+        private Key(String column, boolean descending, Function<T, Object> getter) {
+            this.column = column;
+            this.descending = descending;
+            this.getter = getter;
+        }
+    }
+
+    public static <T> Key<T> asc(String column, Function<T, Object> getter) {
+        return new Key<>(column, false, getter);
+    }
+
+    public static <T> Key<T> desc(String column, Function<T, Object> getter) {
+        return new Key<>(column, true, getter);
+    }
+
+    /**
+     * 查询一页
+     *
+     * @param query  已设置好过滤条件的查询
+     * @param cursor 上一页返回的游标，第一页为空
+     * @param size   每页条数
+     * @param keys   排序字段，最后一个必须唯一
+     * @return 当前页数据和下一页的游标
+     */
+    @SafeVarargs
+    public static <T> CursorResult<T> page(QueryChainWrapper<T> query, String cursor, int size, Key<T>... keys) {
+        // 1.解析游标，拼接 (k1 > v1) OR (k1 = v1 AND k2 > v2) ... 的条件
+        List<Object> values = decode(cursor);
+        if (values != null && values.size() == keys.length) {
+            query.and(after(keys, values, 0));
+        }
+        // 2.按排序字段排序，多查一条用于判断是否还有下一页
+        for (Key<T> key : keys) {
+            query.orderBy(true, !key.descending, key.column);
+        }
+        List<T> rows = query.last("LIMIT " + (size + 1)).list();
+        if (rows.size() <= size) {
+            return new CursorResult<>(rows, null);
+        }
+        // 3.用当前页最后一行生成下一页的游标
+        List<T> list = new ArrayList<>(rows.subList(0, size));
+        T last = list.get(size - 1);
+        List<Object> next = new ArrayList<>(keys.length);
+        for (Key<T> key : keys) {
+            next.add(key.getter.apply(last));
+        }
+        return new CursorResult<>(list, encode(next));
+    }
+
+    /**
+     * 生成游标，也可用于不基于数据库的分页（例如进程内索引按名次分页）
+     */
+    public static String encode(List<Object> values) {
+        return Base64.encodeUrlSafe(JSONUtil.toJsonStr(values));
+    }
+
+    /**
+     * 解析游标
+     *
+     * @return 游标为空或格式错误时返回null，按第一页处理
+     */
+    public static List<Object> decode(String cursor) {
+        if (StrUtil.isBlank(cursor)) {
+            return null;
+        }
+        try {
+            JSONArray array = JSONUtil.parseArray(Base64.decodeStr(cursor));
+            return new ArrayList<>(array);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 游标是否有效：为空表示第一页；否则必须能解析出size个值，每个值是数字或字符串
+     * 客户端传入无法解析的游标时应返回失败，而不是当作第一页，避免客户端一直翻到第一页
+     */
+    public static boolean isValid(String cursor, int size) {
+        if (StrUtil.isBlank(cursor)) {
+            return true;
+        }
+        List<Object> values = decode(cursor);
+        if (values == null || values.size() != size) {
+            return false;
+        }
+        for (Object value : values) {
+            if (!(value instanceof Number) && !(value instanceof String)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 第i个及之后的排序字段组成的条件：k_i 在 v_i 之后，或 k_i = v_i 且后面的字段在之后
+     */
+    private static <T> Consumer<QueryWrapper<T>> after(Key<T>[] keys, List<Object> values, int i) {
+        Key<T> key = keys[i];
+        Object value = values.get(i);
+        return w -> {
+            if (key.descending) {
+                w.lt(key.column, value);
+            } else {
+                w.gt(key.column, value);
+            }
+            if (i + 1 < keys.length) {
+                w.or(x -> x.eq(key.column, value).and(after(keys, values, i + 1)));
+            }
+        };
+    }
+}
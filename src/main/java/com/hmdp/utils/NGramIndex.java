@@ -0,0 +1,443 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.convert.Convert;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 基于单字和双字（bigram）的只读倒排索引，用于商铺名称的子串搜索
+ * 1.每个gram用一个int表示：单字为字符本身，双字为(c1 << 16 | c2)
+ * 2.倒排列表按文档编号升序，相邻编号的差值用变长整数编码后连续存放在一个byte[]中
+ * 3.文档编号就是排序名次，构建前由调用方按排序规则排好，
+ *   因此倒排列表求交集后的结果天然有序，不需要再排序
+ * 4.另外保存按文本排序的文档编号，完全匹配和前缀匹配的文档可以二分查找
+ * 构建后不可修改，更新时重新构建一个新的索引
+ */
+public class NGramIndex {
+
+    /**
+     * 匹配程度：完全相同
+     */
+    public static final int TIER_EXACT = 0;
+    /**
+     * 匹配程度：前缀
+     */
+    public static final int TIER_PREFIX = 1;
+    /**
+     * 匹配程度：包含
+     */
+    public static final int TIER_CONTAINS = 2;
+
+    /**
+     * 前缀匹配的文档数不超过该值时，直接从byText中取出排序
+     */
+    private static final int DIRECT_PREFIX_LIMIT = 4096;
+
+    public static final NGramIndex EMPTY = build(new String[0], 0);
+
+    /**
+     * 归一化后的文本，下标为文档编号
+     */
+    private final String[] texts;
+    /**
+     * gram，升序
+     */
+    private final int[] grams;
+    /**
+     * 每个gram的倒排列表在postings中的起始位置，长度为grams.length + 1
+     */
+    private final int[] offsets;
+    /**
+     * 每个gram的文档数
+     */
+    private final int[] counts;
+    private final byte[] postings;
+    /**
+     * 按(文本, 文档编号)升序排列的文档编号，用于二分查找完全匹配和前缀匹配的文档
+     */
+    private final int[] byText;
+
+    private NGramIndex(String[] texts, int[] grams, int[] offsets, int[] counts, byte[] postings, int[] byText) {
+        this.texts = texts;
+        this.byText = byText;
+        this.grams = grams;
+        this.offsets = offsets;
+        this.counts = counts;
+        this.postings = postings;
+    }
+
+    /**
+     * 构建索引
+     *
+     * @param texts 原始文本，下标为文档编号，编号越小排名越靠前
+     * @param n     文档数量
+     */
+    public static NGramIndex build(String[] texts, int n) {
+        // 1.归一化，统计gram总数
+        String[] normalized = new String[n];
+        int total = 0;
+        for (int i = 0; i < n; i++) {
+            normalized[i] = normalize(texts[i]);
+            int len = normalized[i].length();
+            total += len == 0 ? 0 : 2 * len - 1;
+        }
+        // 2.gram放在高32位，文档编号放在低32位，排序后同一个gram的文档连续且升序
+        long[] pairs = new long[total];
+        int p = 0;
+        for (int doc = 0; doc < n; doc++) {
+            String text = normalized[doc];
+            for (int i = 0; i < text.length(); i++) {
+                pairs[p++] = (long) unigram(text.charAt(i)) << 32 | doc;
+                if (i + 1 < text.length()) {
+                    pairs[p++] = (long) bigram(text.charAt(i), text.charAt(i + 1)) << 32 | doc;
+                }
+            }
+        }
+        Arrays.sort(pairs);
+        // 3.按gram分组，写入差值编码的倒排列表
+        int[] grams = new int[16];
+        int[] offsets = new int[17];
+        int[] counts = new int[16];
+        int gramCount = 0;
+        ByteBuffer out = new ByteBuffer(Math.max(16, total * 2));
+        int i = 0;
+        while (i < total) {
+            int gram = (int) (pairs[i] >> 32);
+            if (gramCount == grams.length) {
+                grams = Arrays.copyOf(grams, gramCount * 2);
+                counts = Arrays.copyOf(counts, gramCount * 2);
+                offsets = Arrays.copyOf(offsets, gramCount * 2 + 1);
+            }
+            grams[gramCount] = gram;
+            offsets[gramCount] = out.size;
+            int prev = -1;
+            int count = 0;
+            for (; i < total && (int) (pairs[i] >> 32) == gram; i++) {
+                int doc = (int) pairs[i];
+                // 同一个文档中重复出现的gram只记录一次
+                if (doc != prev) {
+                    out.writeVarInt(doc - prev);
+                    prev = doc;
+                    count++;
+                }
+            }
+            counts[gramCount++] = count;
+        }
+        offsets[gramCount] = out.size;
+        // 4.按文本排序，文本相同的按文档编号
+        Integer[] boxed = new Integer[n];
+        for (int doc = 0; doc < n; doc++) {
+            boxed[doc] = doc;
+        }
+        Arrays.sort(boxed, (a, b) -> {
+            int c = normalized[a].compareTo(normalized[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        int[] byText = new int[n];
+        for (int k = 0; k < n; k++) {
+            byText[k] = boxed[k];
+        }
+        return new NGramIndex(normalized,
+                Arrays.copyOf(grams, gramCount),
+                Arrays.copyOf(offsets, gramCount + 1),
+                Arrays.copyOf(counts, gramCount),
+                out.toArray(),
+                byText);
+    }
+
+    public int size() {
+        return texts.length;
+    }
+
+    /**
+     * 索引占用的倒排列表字节数
+     */
+    public int postingBytes() {
+        return postings.length;
+    }
+
+    /**
+     * 搜索包含query的文档，按(匹配程度, 文档编号)升序返回前limit个
+     * 1.完全匹配和前缀匹配的文档在byText中是连续的一段，二分查找即可得到
+     * 2.只包含的文档按文档编号顺序流式求交集，凑够数量后立即结束，不需要解码完整的倒排列表
+     *
+     * @param query  搜索词，未归一化
+     * @param limit  返回的最大数量
+     * @param accept 过滤条件，返回false的文档被跳过
+     * @return 文档编号
+     */
+    public int[] search(String query, int limit, IntPredicate accept) {
+        String q = normalize(query);
+        if (q.isEmpty() || limit <= 0 || texts.length == 0) {
+            return new int[0];
+        }
+        int[] result = new int[limit];
+        int size = 0;
+        // 1.完全匹配：文本相同的一段已经按文档编号有序
+        int lo = lowerBound(q);
+        int exactHi = upperBound(q, lo);
+        for (int k = lo; k < exactHi && size < limit; k++) {
+            if (accept.test(byText[k])) {
+                result[size++] = byText[k];
+            }
+        }
+        // 2.前缀匹配：数量少时直接排序，数量多时说明分布密集，按文档编号顺序扫描很快就能凑够
+        int prefixHi = prefixUpperBound(q, exactHi);
+        int prefixCount = prefixHi - exactHi;
+        if (size < limit && prefixCount > 0) {
+            if (prefixCount <= DIRECT_PREFIX_LIMIT) {
+                int[] docs = Arrays.copyOfRange(byText, exactHi, prefixHi);
+                Arrays.sort(docs);
+                for (int k = 0; k < docs.length && size < limit; k++) {
+                    if (accept.test(docs[k])) {
+                        result[size++] = docs[k];
+                    }
+                }
+            } else {
+                size = scan(q, TIER_PREFIX, result, size, accept);
+            }
+        }
+        // 3.包含：按文档编号顺序扫描
+        if (size < limit) {
+            size = scan(q, TIER_CONTAINS, result, size, accept);
+        }
+        return size == limit ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * 按文档编号顺序遍历所有gram的倒排列表的交集，把指定匹配程度的文档追加到result中，直到填满
+     *
+     * @return 追加后的数量
+     */
+    private int scan(String q, int tier, int[] result, int size, IntPredicate accept) {
+        // 1.查询词拆成gram：一个字时用单字，否则用所有双字
+        int[] slots = lookup(q);
+        if (slots == null) {
+            return size;
+        }
+        // 2.以最短的倒排列表为主，其它列表跳到相同的文档编号
+        Cursor[] cursors = new Cursor[slots.length];
+        for (int s = 0; s < slots.length; s++) {
+            cursors[s] = new Cursor(slots[s]);
+        }
+        boolean verified = q.length() <= 2;
+        Cursor lead = cursors[0];
+        outer:
+        while (size < result.length && lead.next()) {
+            int doc = lead.doc;
+            for (int s = 1; s < cursors.length; s++) {
+                if (!cursors[s].advance(doc)) {
+                    break outer;
+                }
+                if (cursors[s].doc != doc) {
+                    continue outer;
+                }
+            }
+            // 3.双字都命中不代表连续出现，超过两个字时需要校验
+            int actual = verified ? tierOfMatched(texts[doc], q) : tierOf(texts[doc], q);
+            if (actual == tier && accept.test(doc)) {
+                result[size++] = doc;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 第一个文本不小于q的位置
+     */
+    private int lowerBound(String q) {
+        int lo = 0;
+        int hi = byText.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (texts[byText[mid]].compareTo(q) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 从from开始第一个文本大于q的位置
+     */
+    private int upperBound(String q, int from) {
+        int lo = from;
+        int hi = byText.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (texts[byText[mid]].compareTo(q) <= 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 从from开始第一个不以q开头的位置
+     */
+    private int prefixUpperBound(String q, int from) {
+        int lo = from;
+        int hi = byText.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (texts[byText[mid]].startsWith(q)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 文本的匹配程度
+     *
+     * @return TIER_EXACT、TIER_PREFIX、TIER_CONTAINS，不包含时返回-1
+     */
+    public static int tierOf(String normalizedText, String normalizedQuery) {
+        if (normalizedText.startsWith(normalizedQuery)) {
+            return normalizedText.length() == normalizedQuery.length() ? TIER_EXACT : TIER_PREFIX;
+        }
+        return normalizedText.contains(normalizedQuery) ? TIER_CONTAINS : -1;
+    }
+
+    /**
+     * 已知包含时的匹配程度，不需要再查找子串
+     */
+    private static int tierOfMatched(String text, String q) {
+        if (!text.startsWith(q)) {
+            return TIER_CONTAINS;
+        }
+        return text.length() == q.length() ? TIER_EXACT : TIER_PREFIX;
+    }
+
+    /**
+     * 归一化：全角转半角，转小写，只保留字母、数字和汉字
+     */
+    public static String normalize(String text) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+        String dbc = Convert.toDBC(text);
+        StringBuilder sb = new StringBuilder(dbc.length());
+        for (int i = 0; i < dbc.length(); i++) {
+            char c = dbc.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 查找查询词的所有gram，按文档数升序返回下标，有gram不存在时返回null
+     */
+    private int[] lookup(String q) {
+        int n = q.length() == 1 ? 1 : q.length() - 1;
+        long[] found = new long[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int gram = q.length() == 1 ? unigram(q.charAt(0)) : bigram(q.charAt(i), q.charAt(i + 1));
+            int slot = Arrays.binarySearch(grams, gram);
+            if (slot < 0) {
+                return null;
+            }
+            // 文档数放在高位，排序后文档数少的在前
+            found[size++] = (long) counts[slot] << 32 | slot;
+        }
+        Arrays.sort(found, 0, size);
+        int[] slots = new int[size];
+        int distinct = 0;
+        for (int i = 0; i < size; i++) {
+            int slot = (int) found[i];
+            if (distinct == 0 || slots[distinct - 1] != slot) {
+                slots[distinct++] = slot;
+            }
+        }
+        return Arrays.copyOf(slots, distinct);
+    }
+
+    /**
+     * 倒排列表的游标，按需解码
+     */
+    private final class Cursor {
+        private int pos;
+        private final int end;
+        int doc = -1;
+
+        Cursor(int slot) {
+            this.pos = offsets[slot];
+            this.end = offsets[slot + 1];
+        }
+
+        boolean next() {
+            if (pos >= end) {
+                return false;
+            }
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = postings[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            return true;
+        }
+
+        /**
+         * 移动到第一个不小于target的文档
+         *
+         * @return false 列表已经遍历完
+         */
+        boolean advance(int target) {
+            while (doc < target) {
+                if (!next()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static int unigram(char c) {
+        return c;
+    }
+
+    private static int bigram(char c1, char c2) {
+        return c1 << 16 | c2;
+    }
+
+    /**
+     * 可扩容的字节数组
+     */
+    private static final class ByteBuffer {
+        private byte[] bytes;
+        private int size;
+
+        ByteBuffer(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void writeVarInt(int value) {
+            if (size + 5 > bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        byte[] toArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Shop;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 解析后的营业时间
+ * 一周按分钟划分为 7 * 1440 个时间点（周一 00:00 为 0），营业的分钟在位图中置1，判断是否营业只需要一次位运算
+ * 支持的格式：
+ * 1.时间段：10:00-22:00，跨过午夜的 11:30-03:00 或 10:00-次日02:00，多个时间段用逗号、分号、顿号或空格分隔
+ * 2.全天：全天、24小时、00:00-24:00
+ * 3.星期：周一至周五 10:00-22:00 周六-周日 09:00-23:00，时间段前没有星期时表示每天
+ * 相同的文本只解析一次，所有营业时间相同的商铺共享同一个对象
+ */
+public class OpenHours {
+
+    /**
+     * 商铺营业时间使用的时区
+     */
+    public static final ZoneId ZONE = ZoneId.of("Asia/Shanghai");
+
+    private static final int MINUTES_OF_DAY = 24 * 60;
+    private static final int MINUTES_OF_WEEK = 7 * MINUTES_OF_DAY;
+    /**
+     * 缓存的不同营业时间文本的上限，超过后不再缓存，防止异常数据占满内存
+     */
+    private static final int MAX_CACHED = 10000;
+
+    private static final Pattern TOKEN = Pattern.compile(
+            "周([一二三四五六日天])(?:\\s*[至到~\\-]\\s*周([一二三四五六日天]))?"
+                    + "|(\\d{1,2})[:：](\\d{2})\\s*[至到~\\-]\\s*(?:次日)?\\s*(\\d{1,2})[:：](\\d{2})"
+                    + "|全天|24小时");
+    private static final String WEEK_DAYS = "一二三四五六日";
+
+    /**
+     * 无法解析的营业时间
+     */
+    public static final OpenHours UNKNOWN = new OpenHours(new long[0]);
+
+    private static final Map<String, OpenHours> CACHE = new ConcurrentHashMap<>();
+
+    private final long[] bits;
+
+    private OpenHours(long[] bits) {
+        this.bits = bits;
+    }
+
+    /**
+     * 解析营业时间，相同文本返回同一个对象
+     *
+     * @return 为空或无法解析时返回UNKNOWN
+     */
+    public static OpenHours of(String text) {
+        if (StrUtil.isBlank(text)) {
+            return UNKNOWN;
+        }
+        OpenHours hours = CACHE.get(text);
+        if (hours != null) {
+            return hours;
+        }
+        hours = parse(text);
+        if (CACHE.size() < MAX_CACHED) {
+            CACHE.putIfAbsent(text, hours);
+        }
+        return hours;
+    }
+
+    /**
+     * 商铺的营业时间，优先使用商铺摘要中已解析好的
+     */
+    public static OpenHours forShop(Shop shop) {
+        OpenHours hours = shop.getOpenSchedule();
+        return hours != null ? hours : of(shop.getOpenHours());
+    }
+
+    /**
+     * 当前时间在一周中的分钟数
+     */
+    public static int nowMinuteOfWeek() {
+        return minuteOfWeek(ZonedDateTime.now(ZONE));
+    }
+
+    public static int minuteOfWeek(ZonedDateTime time) {
+        return (time.getDayOfWeek().getValue() - 1) * MINUTES_OF_DAY + time.getHour() * 60 + time.getMinute();
+    }
+
+    /**
+     * 是否无法解析
+     */
+    public boolean isUnknown() {
+        return bits.length == 0;
+    }
+
+    /**
+     * 指定时间是否营业，无法解析的营业时间视为不营业
+     *
+     * @param minuteOfWeek 一周中的分钟数
+     */
+    public boolean isOpenAt(int minuteOfWeek) {
+        return bits.length > 0 && (bits[minuteOfWeek >>> 6] & (1L << minuteOfWeek)) != 0;
+    }
+
+    private static OpenHours parse(String text) {
+        long[] bits = new long[(MINUTES_OF_WEEK + 63) / 64];
+        // 当前时间段适用的星期，默认每天
+        boolean[] days = allDays();
+        boolean daysDeclared = false;
+        boolean found = false;
+        Matcher m = TOKEN.matcher(text);
+        while (m.find()) {
+            if (m.group(1) != null) {
+                // 1.星期：周X 或 周X至周Y，之后的时间段都只在这些天营业
+                int from = WEEK_DAYS.indexOf(dayChar(m.group(1)));
+                int to = m.group(2) == null ? from : WEEK_DAYS.indexOf(dayChar(m.group(2)));
+                // 两个星期连续出现时合并，例如 周六 周日 10:00-22:00
+                if (!daysDeclared) {
+                    days = new boolean[7];
+                    daysDeclared = true;
+                }
+                for (int d = from; ; d = (d + 1) % 7) {
+                    days[d] = true;
+                    if (d == to) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            // 2.时间段或全天
+            int start;
+            int end;
+            if (m.group(3) != null) {
+                start = Integer.parseInt(m.group(3)) * 60 + Integer.parseInt(m.group(4));
+                end = Integer.parseInt(m.group(5)) * 60 + Integer.parseInt(m.group(6));
+                if (start > MINUTES_OF_DAY || end > MINUTES_OF_DAY) {
+                    continue;
+                }
+            } else {
+                start = 0;
+                end = MINUTES_OF_DAY;
+            }
+            // 结束时间不晚于开始时间说明跨过了午夜，00:00-00:00 视为全天
+            int length = end > start ? end - start : end + MINUTES_OF_DAY - start;
+            for (int d = 0; d < 7; d++) {
+                if (days[d]) {
+                    setRange(bits, d * MINUTES_OF_DAY + start, length);
+                }
+            }
+            found = true;
+            daysDeclared = false;
+        }
+        return found ? new OpenHours(bits) : UNKNOWN;
+    }
+
+    /**
+     * 把从start开始的length分钟置1，超过周日24:00的部分回到周一
+     */
+    private static void setRange(long[] bits, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            int minute = (start + i) % MINUTES_OF_WEEK;
+            bits[minute >>> 6] |= 1L << minute;
+        }
+    }
+
+    private static char dayChar(String s) {
+        char c = s.charAt(0);
+        return c == '天' ? '日' : c;
+    }
+
+    private static boolean[] allDays() {
+        boolean[] days = new boolean[7];
+        for (int d = 0; d < 7; d++) {
+            days[d] = true;
+        }
+        return days;
+    }
+}
@@ -0,0 +1,299 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * 前缀联想的只读索引
+ * 1.所有词条归一化后按字典序排序，任意前缀对应排序数组中连续的一段，二分查找即可得到
+ * 2.词条多的前缀在一棵压平到数组中的字典树上预先计算好权重最高的前TOP_SIZE个词条，
+ *   词条少的前缀（不超过SCAN_LIMIT个）不建节点，查询时直接扫描这一段，
+ *   因此字典树只包含少量“热门”节点，内存占用与词条数成正比
+ * 构建后不可修改，更新时重新构建一个新的索引
+ */
+public class PrefixSuggester {
+
+    /**
+     * 词条数不超过该值的前缀不预先计算，查询时直接扫描
+     */
+    private static final int SCAN_LIMIT = 64;
+    /**
+     * 每个节点预先保存的词条数，多保存一些，给查询时的过滤留出余量
+     */
+    private static final int TOP_SIZE = 20;
+
+    public static final PrefixSuggester EMPTY = build(new String[0], new long[0], 0);
+
+    /**
+     * 归一化后的词条，升序
+     */
+    private final String[] keys;
+    /**
+     * 与keys一一对应的权重
+     */
+    private final long[] weights;
+    /**
+     * 与keys一一对应的原始下标
+     */
+    private final int[] origins;
+
+    /**
+     * 字典树节点，按层序存放，同一节点的子节点连续且按字符升序
+     */
+    private final char[] labels;
+    private final int[] firstChild;
+    private final int[] childCount;
+    /**
+     * 节点的预计算结果在tops中的起始位置，长度为节点数 + 1
+     */
+    private final int[] topOffsets;
+    /**
+     * 所有节点的预计算结果（keys的下标），按权重降序
+     */
+    private final int[] tops;
+
+    private PrefixSuggester(String[] keys, long[] weights, int[] origins, char[] labels, int[] firstChild,
+                            int[] childCount, int[] topOffsets, int[] tops) {
+        this.keys = keys;
+        this.weights = weights;
+        this.origins = origins;
+        this.labels = labels;
+        this.firstChild = firstChild;
+        this.childCount = childCount;
+        this.topOffsets = topOffsets;
+        this.tops = tops;
+    }
+
+    /**
+     * 构建索引
+     *
+     * @param texts   词条原文
+     * @param weights 词条权重，越大越靠前
+     * @param n       词条数量
+     */
+    public static PrefixSuggester build(String[] texts, long[] weights, int n) {
+        // 1.归一化后排序，记录每个位置对应的原始下标
+        String[] normalized = new String[n];
+        Integer[] boxed = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            normalized[i] = NGramIndex.normalize(texts[i]);
+            boxed[i] = i;
+        }
+        Arrays.sort(boxed, (a, b) -> {
+            int c = normalized[a].compareTo(normalized[b]);
+            return c != 0 ? c : Integer.compare(a, b);
+        });
+        String[] keys = new String[n];
+        long[] sortedWeights = new long[n];
+        int[] origins = new int[n];
+        for (int i = 0; i < n; i++) {
+            origins[i] = boxed[i];
+            keys[i] = normalized[origins[i]];
+            sortedWeights[i] = weights[origins[i]];
+        }
+        // 2.层序构建字典树，只展开词条数超过SCAN_LIMIT的节点
+        NodeBuffer nodes = new NodeBuffer();
+        nodes.add('\0', 0, n, 0);
+        for (int node = 0; node < nodes.size; node++) {
+            int lo = nodes.lo[node];
+            int hi = nodes.hi[node];
+            int depth = nodes.depth[node];
+            nodes.firstChild[node] = nodes.size;
+            if (hi - lo <= SCAN_LIMIT) {
+                continue;
+            }
+            // 长度等于depth的词条排在最前面，不属于任何子节点
+            int i = lo;
+            while (i < hi && keys[i].length() == depth) {
+                i++;
+            }
+            // 按第depth个字符分组，每组一个子节点
+            while (i < hi) {
+                char c = keys[i].charAt(depth);
+                int start = i;
+                while (i < hi && keys[i].charAt(depth) == c) {
+                    i++;
+                }
+                nodes.add(c, start, i, depth + 1);
+            }
+            nodes.childCount[node] = nodes.size - nodes.firstChild[node];
+        }
+        // 3.计算每个展开节点的前TOP_SIZE个词条
+        int nodeCount = nodes.size;
+        int[] topOffsets = new int[nodeCount + 1];
+        int[] tops = new int[16];
+        int topSize = 0;
+        int[] buffer = new int[TOP_SIZE];
+        for (int node = 0; node < nodeCount; node++) {
+            topOffsets[node] = topSize;
+            if (nodes.hi[node] - nodes.lo[node] <= SCAN_LIMIT) {
+                continue;
+            }
+            int count = selectTop(keys, sortedWeights, nodes.lo[node], nodes.hi[node], buffer, TOP_SIZE, i -> true);
+            if (topSize + count > tops.length) {
+                tops = Arrays.copyOf(tops, Math.max(tops.length * 2, topSize + count));
+            }
+            System.arraycopy(buffer, 0, tops, topSize, count);
+            topSize += count;
+        }
+        topOffsets[nodeCount] = topSize;
+        return new PrefixSuggester(keys, sortedWeights, origins,
+                Arrays.copyOf(nodes.labels, nodeCount),
+                Arrays.copyOf(nodes.firstChild, nodeCount),
+                Arrays.copyOf(nodes.childCount, nodeCount),
+                topOffsets,
+                Arrays.copyOf(tops, topSize));
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * 字典树的节点数
+     */
+    public int nodeCount() {
+        return labels.length;
+    }
+
+    /**
+     * 查询以prefix开头、权重最高的词条
+     *
+     * @param prefix 前缀，未归一化
+     * @param limit  返回的最大数量，不超过TOP_SIZE
+     * @param accept 过滤条件（参数为原始下标），返回false的词条被跳过
+     * @return 词条的原始下标，按权重降序
+     */
+    public int[] suggest(String prefix, int limit, IntPredicate accept) {
+        String p = NGramIndex.normalize(prefix);
+        limit = Math.min(limit, TOP_SIZE);
+        if (p.isEmpty() || limit <= 0 || keys.length == 0) {
+            return new int[0];
+        }
+        // 1.二分查找前缀对应的一段
+        int lo = lowerBound(p);
+        int hi = prefixUpperBound(p, lo);
+        int[] result = new int[limit];
+        int size;
+        if (hi - lo <= SCAN_LIMIT) {
+            // 2.词条少，直接扫描
+            size = selectTop(keys, weights, lo, hi, result, limit, i -> accept.test(origins[i]));
+        } else {
+            // 3.词条多，沿字典树找到前缀对应的节点，读取预计算的结果
+            int node = 0;
+            for (int d = 0; d < p.length(); d++) {
+                node = child(node, p.charAt(d));
+            }
+            size = 0;
+            for (int k = topOffsets[node]; k < topOffsets[node + 1] && size < limit; k++) {
+                if (accept.test(origins[tops[k]])) {
+                    result[size++] = tops[k];
+                }
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            result[i] = origins[result[i]];
+        }
+        return size == limit ? result : Arrays.copyOf(result, size);
+    }
+
+    private int child(int node, char c) {
+        int lo = firstChild[node];
+        int hi = lo + childCount[node] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (labels[mid] < c) {
+                lo = mid + 1;
+            } else if (labels[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        // 词条数超过SCAN_LIMIT的前缀，路径上的节点一定都已展开
+        throw new IllegalStateException("字典树节点不存在: " + c);
+    }
+
+    private int lowerBound(String p) {
+        int lo = 0;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(p) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private int prefixUpperBound(String p, int from) {
+        int lo = from;
+        int hi = keys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].startsWith(p)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * 选出[lo, hi)中权重最高的limit个（权重相同时按字典序），插入排序，limit很小
+     *
+     * @return 选出的数量
+     */
+    private static int selectTop(String[] keys, long[] weights, int lo, int hi, int[] out, int limit, IntPredicate accept) {
+        int size = 0;
+        for (int i = lo; i < hi; i++) {
+            if (size == limit && weights[i] <= weights[out[size - 1]]) {
+                // 排序数组中靠后的词条字典序更大，权重相同时不会更靠前
+                continue;
+            }
+            if (!accept.test(i)) {
+                continue;
+            }
+            int pos = size < limit ? size++ : limit - 1;
+            while (pos > 0 && weights[out[pos - 1]] < weights[i]) {
+                out[pos] = out[pos - 1];
+                pos--;
+            }
+            out[pos] = i;
+        }
+        return size;
+    }
+
+    /**
+     * 构建时使用的可扩容节点数组
+     */
+    private static final class NodeBuffer {
+        char[] labels = new char[16];
+        int[] lo = new int[16];
+        int[] hi = new int[16];
+        int[] depth = new int[16];
+        int[] firstChild = new int[16];
+        int[] childCount = new int[16];
+        int size;
+
+        void add(char label, int from, int to, int d) {
+            if (size == labels.length) {
+                int capacity = size * 2;
+                labels = Arrays.copyOf(labels, capacity);
+                lo = Arrays.copyOf(lo, capacity);
+                hi = Arrays.copyOf(hi, capacity);
+                depth = Arrays.copyOf(depth, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                childCount = Arrays.copyOf(childCount, capacity);
+            }
+            labels[size] = label;
+            lo[size] = from;
+            hi[size] = to;
+            depth[size] = d;
+            size++;
+        }
+    }
+}
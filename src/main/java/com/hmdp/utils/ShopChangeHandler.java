@@ -0,0 +1,17 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 商铺变更的处理器，用于维护各节点上的进程内索引
+ */
+public interface ShopChangeHandler {
+
+    /**
+     * 商铺新增、修改或删除后调用
+     *
+     * @param shopId 商铺id
+     * @param shop   最新的商铺数据，商铺已被删除时为null
+     */
+    void onShopChanged(Long shopId, Shop shop);
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 商铺变更通知
+ * 写商铺的节点在事务提交后通过Redis发布商铺id，所有节点（包括自己）收到后重新查询商铺，
+ * 再交给各个ShopChangeHandler更新进程内的索引
+ */
+@Slf4j
+@Component
+public class ShopChangeNotifier implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private List<ShopChangeHandler> handlers;
+
+    /**
+     * 发布商铺变更，有事务时在事务提交后发布
+     */
+    public void publish(Long shopId) {
+        TxUtils.afterCommit(() ->
+                stringRedisTemplate.convertAndSend(RedisConstants.SHOP_CHANGED_CHANNEL, shopId.toString()));
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Long shopId = Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8));
+        // 重新查询最新数据，查不到说明商铺已被删除
+        Shop shop = shopService.getById(shopId);
+        for (ShopChangeHandler handler : handlers) {
+            try {
+                handler.onShopChanged(shopId, shop);
+            } catch (Exception e) {
+                log.error("处理商铺变更失败, shopId: {}, handler: {}", shopId, handler.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
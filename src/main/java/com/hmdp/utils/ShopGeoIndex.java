@@ -0,0 +1,302 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * 进程内的附近商铺索引（可选，hmdp.geo.local-index.enabled）
+ * 每个商铺类型一个分片，分片由只读的GeoGridIndex和少量增量数据组成：
+ * 商铺变更时先写入增量并屏蔽旧数据（ShopIndexState），1秒后在后台把增量合并进新的GeoGridIndex
+ * 分片加载完成前不合并，加载时把已有的增量合并进加载的数据
+ * 索引中保存商铺摘要，查询直接返回带距离的商铺，不需要再查询Redis和MySQL
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements ShopChangeHandler {
+
+    /**
+     * 增量合并的延迟（毫秒），合并多次连续的变更
+     */
+    private static final long COMPACT_DELAY = 1000L;
+    /**
+     * 启动时分批加载商铺的批大小
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Value("${hmdp.geo.local-index.enabled:false}")
+    private boolean enabled;
+
+    @Resource
+    private IShopService shopService;
+
+    private final Map<Long, Shard> shards = new ConcurrentHashMap<>();
+    /**
+     * 商铺id -> 商铺类型id，用于商铺切换类型时从旧分片中删除
+     */
+    private final Map<Long, Long> shopTypes = new ConcurrentHashMap<>();
+    /**
+     * 加载完成前收到变更的商铺id，加载时以变更为准
+     */
+    private final Set<Long> changedBeforeReady = ConcurrentHashMap.newKeySet();
+    private volatile boolean ready;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shop-geo-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (enabled) {
+            scheduler.execute(this::loadAll);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 查询附近的商铺，按距离升序分页
+     *
+     * @param typeId 商铺类型
+     * @param x      经度
+     * @param y      纬度
+     * @param radius 半径（米）
+     * @param from   跳过的条数
+     * @param size   返回的条数
+     * @param filter 额外的过滤条件，在截取分页之前判断，可以为null
+     * @return 带距离的商铺列表，索引未就绪时返回null
+     */
+    public List<Shop> search(Long typeId, double x, double y, double radius, int from, int size,
+                             Predicate<Shop> filter) {
+        return search(typeId, x, y, radius, -1, 0, from, size, filter);
+    }
+
+    /**
+     * 按游标查询附近的商铺，返回排在(lastDistance, lastId)之后的size条
+     * 只保留游标之后的商铺，堆大小固定为size，翻到后面的页也不需要保留前面所有页
+     *
+     * @param lastDistance 上一页最后一个商铺的距离
+     * @param lastId       上一页最后一个商铺的id
+     * @param filter       额外的过滤条件，可以为null
+     * @return 带距离的商铺列表，索引未就绪时返回null
+     */
+    public List<Shop> searchAfter(Long typeId, double x, double y, double radius,
+                                  double lastDistance, long lastId, int size, Predicate<Shop> filter) {
+        return search(typeId, x, y, radius, lastDistance, lastId, 0, size, filter);
+    }
+
+    private List<Shop> search(Long typeId, double x, double y, double radius,
+                              double afterDistance, long afterId, int from, int size, Predicate<Shop> filter) {
+        if (!ready) {
+            return null;
+        }
+        Shard shard = shards.get(typeId);
+        if (shard == null) {
+            return Collections.emptyList();
+        }
+        ShopIndexState<GeoGridIndex> state = shard.state;
+        GeoGridIndex base = state.base;
+        // 1.基础索引中的商铺，跳过已被增量覆盖或删除的，以及游标之前的
+        GeoGridIndex.TopK top = new GeoGridIndex.TopK(from + size);
+        base.search(x, y, radius, (slot, distance) -> {
+            long id = base.idAt(slot);
+            if (isAfter(distance, id, afterDistance, afterId) && !state.isMasked(id)
+                    && (filter == null || filter.test(state.shops[slot]))) {
+                top.offer(slot, id, distance);
+            }
+        });
+        // 2.增量中的商铺，用负数下标区分
+        for (int i = 0; i < state.delta.length; i++) {
+            Shop shop = state.delta[i];
+            double distance = GeoGridIndex.distance(x, y, shop.getX(), shop.getY());
+            if (distance <= radius && isAfter(distance, shop.getId(), afterDistance, afterId)
+                    && (filter == null || filter.test(shop))) {
+                top.offer(-(i + 1), shop.getId(), distance);
+            }
+        }
+        // 3.排序并截取 from ~ end 的部分
+        top.sort();
+        if (top.size() <= from) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = new ArrayList<>(top.size() - from);
+        for (int i = from; i < top.size(); i++) {
+            int ref = top.refAt(i);
+            Shop summary = ref >= 0 ? state.shops[ref] : state.delta[-ref - 1];
+            shops.add(ShopSummaries.copyOf(summary).setDistance(top.distanceAt(i)));
+        }
+        return shops;
+    }
+
+    /**
+     * 按(距离, id)排序时是否在游标之后，Redis中的GEO索引分页使用同样的顺序
+     */
+    public static boolean isAfter(double distance, long id, double afterDistance, long afterId) {
+        return distance > afterDistance || (distance == afterDistance && id > afterId);
+    }
+
+    @Override
+    public void onShopChanged(Long shopId, Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        if (!ready) {
+            changedBeforeReady.add(shopId);
+        }
+        // 1.从旧分片中删除（商铺可能切换了类型）
+        Long oldType = shop == null ? shopTypes.remove(shopId) : shopTypes.put(shopId, shop.getTypeId());
+        if (oldType != null && (shop == null || !oldType.equals(shop.getTypeId()))) {
+            shard(oldType).remove(shopId);
+        }
+        // 2.写入新分片
+        if (shop != null && shop.getX() != null && shop.getY() != null) {
+            shard(shop.getTypeId()).upsert(ShopSummaries.summaryOf(shop));
+        }
+    }
+
+    private void loadAll() {
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.分批读取所有商铺，按类型分组
+            Map<Long, List<Shop>> shopsByType = new HashMap<>();
+            shopService.scanShops(LOAD_BATCH_SIZE, batch -> {
+                for (Shop shop : batch) {
+                    if (shop.getX() == null || shop.getY() == null || changedBeforeReady.contains(shop.getId())) {
+                        continue;
+                    }
+                    shopTypes.putIfAbsent(shop.getId(), shop.getTypeId());
+                    shopsByType.computeIfAbsent(shop.getTypeId(), t -> new ArrayList<>()).add(ShopSummaries.summaryOf(shop));
+                }
+            });
+            // 2.构建每个类型的基础索引，合并加载期间产生的增量；只有增量的分片也一起处理
+            int total = 0;
+            synchronized (this) {
+                for (Long typeId : shopsByType.keySet()) {
+                    shard(typeId);
+                }
+                for (Map.Entry<Long, Shard> entry : shards.entrySet()) {
+                    List<Shop> loaded = shopsByType.getOrDefault(entry.getKey(), Collections.emptyList());
+                    entry.getValue().load(loaded);
+                    total += loaded.size();
+                }
+                ready = true;
+            }
+            changedBeforeReady.clear();
+            log.info("附近商铺索引加载完成, 商铺数: {}, 类型数: {}, 耗时: {}ms",
+                    total, shopsByType.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("附近商铺索引加载失败，继续使用Redis GEO查询", e);
+        }
+    }
+
+    /**
+     * 加载完成后创建的分片不需要加载，创建与加载完成互斥
+     */
+    private Shard shard(Long typeId) {
+        Shard shard = shards.get(typeId);
+        if (shard != null) {
+            return shard;
+        }
+        synchronized (this) {
+            return shards.computeIfAbsent(typeId, t -> new Shard(ready));
+        }
+    }
+
+    /**
+     * 一个商铺类型的分片，state中的快照与base中的下标一一对应
+     */
+    private class Shard {
+        private volatile ShopIndexState<GeoGridIndex> state = ShopIndexState.empty(GeoGridIndex.EMPTY);
+        /**
+         * 加载完成前不合并增量，否则加载的数据会覆盖合并的结果，或者合并清空的增量不会进入加载的数据
+         */
+        private boolean loaded;
+        private boolean compactScheduled;
+
+        Shard(boolean loaded) {
+            this.loaded = loaded;
+        }
+
+        synchronized void upsert(Shop shop) {
+            state = state.withChange(shop.getId(), shop);
+            scheduleCompact();
+        }
+
+        synchronized void remove(Long shopId) {
+            state = state.withChange(shopId, null);
+            scheduleCompact();
+        }
+
+        /**
+         * 用加载的数据构建基础索引，同时合并加载期间产生的增量
+         */
+        synchronized void load(List<Shop> shops) {
+            List<Shop> merged = state.merge(shops);
+            Shop[] ordered = new Shop[merged.size()];
+            GeoGridIndex base = build(merged, ordered);
+            state = state.rebuilt(state, base, ordered);
+            loaded = true;
+        }
+
+        private synchronized void compact() {
+            compactScheduled = false;
+            ShopIndexState<GeoGridIndex> current = state;
+            List<Shop> shops = current.merged();
+            Shop[] ordered = new Shop[shops.size()];
+            GeoGridIndex base = build(shops, ordered);
+            state = current.rebuilt(current, base, ordered);
+        }
+
+        private void scheduleCompact() {
+            if (loaded && !compactScheduled) {
+                compactScheduled = true;
+                scheduler.schedule(this::compact, COMPACT_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private GeoGridIndex build(List<Shop> shops, Shop[] ordered) {
+            int n = shops.size();
+            long[] ids = new long[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int i = 0; i < n; i++) {
+                Shop shop = shops.get(i);
+                ids[i] = shop.getId();
+                xs[i] = shop.getX();
+                ys[i] = shop.getY();
+            }
+            GeoGridIndex.Built built = GeoGridIndex.build(ids, xs, ys, n);
+            for (int i = 0; i < n; i++) {
+                ordered[i] = shops.get(built.order[i]);
+            }
+            return built.index;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 维护Redis中按类型划分的商铺GEO索引（shop:geo:{typeId}）
+ * 1.商铺新增、修改后同步单个商铺，包括切换类型
+ * 2.全量重建：分批读取tb_shop，通过管道写入临时key，全部写完后再原子地RENAME，
+ *   重建过程中查询仍然使用旧索引，不会读到只写了一半的数据
+ */
+@Slf4j
+@Component
+public class ShopGeoSync {
+
+    /**
+     * 重建时每批读取的商铺数
+     */
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> SYNC_SCRIPT;
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+    static {
+        SYNC_SCRIPT = new DefaultRedisScript<>();
+        SYNC_SCRIPT.setLocation(new ClassPathResource("shop_geo.lua"));
+        SYNC_SCRIPT.setResultType(Long.class);
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setLocation(new ClassPathResource("shop_geo_swap.lua"));
+        SWAP_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+
+    /**
+     * 同步单个商铺的位置
+     *
+     * @param shopId    商铺id
+     * @param oldTypeId 修改前的类型，新增时为null
+     * @param shop      修改后的商铺，商铺已删除时为null
+     */
+    public void sync(Long shopId, Long oldTypeId, Shop shop) {
+        boolean located = shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+        stringRedisTemplate.execute(
+                SYNC_SCRIPT,
+                Collections.singletonList(RedisConstants.SHOP_GEO_REBUILDING_KEY),
+                RedisConstants.SHOP_GEO_KEY,
+                RedisConstants.SHOP_GEO_REBUILD_KEY,
+                shopId.toString(),
+                oldTypeId == null ? "" : oldTypeId.toString(),
+                located ? shop.getTypeId().toString() : "",
+                located ? shop.getX().toString() : "",
+                located ? shop.getY().toString() : "",
+                String.valueOf(TimeUnit.MINUTES.toSeconds(RedisConstants.SHOP_GEO_REBUILD_TTL))
+        );
+    }
+
+    /**
+     * 全量重建GEO索引
+     *
+     * @return 写入的商铺数，已有重建在进行时返回-1
+     */
+    public int rebuild() {
+        // 1.同一时间只允许一个重建，标记的值作为本次临时key的token
+        String token = UUID.randomUUID().toString(true);
+        Boolean started = stringRedisTemplate.opsForValue().setIfAbsent(
+                RedisConstants.SHOP_GEO_REBUILDING_KEY, token, RedisConstants.SHOP_GEO_REBUILD_TTL, TimeUnit.MINUTES);
+        if (!Boolean.TRUE.equals(started)) {
+            log.warn("商铺GEO索引正在重建中，忽略本次请求");
+            return -1;
+        }
+        long begin = System.currentTimeMillis();
+        String tempPrefix = RedisConstants.SHOP_GEO_REBUILD_KEY + token + ":";
+        String typesKey = tempPrefix + "types";
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.SHOP_GEO_REBUILD_TTL);
+        Set<String> rebuiltTypes = new HashSet<>();
+        int[] total = {0};
+        try {
+            // 2.分批读取商铺，每批通过一次管道写入临时key
+            shopService.scanShops(REBUILD_BATCH_SIZE, batch -> {
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    Set<String> batchTypes = new HashSet<>();
+                    for (Shop shop : batch) {
+                        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                            continue;
+                        }
+                        String typeId = shop.getTypeId().toString();
+                        conn.geoAdd(tempPrefix + typeId, new Point(shop.getX(), shop.getY()), shop.getId().toString());
+                        batchTypes.add(typeId);
+                        total[0]++;
+                    }
+                    // 临时key带过期时间，重建中途失败也不会残留
+                    for (String typeId : batchTypes) {
+                        conn.sAdd(typesKey, typeId);
+                        conn.expire(tempPrefix + typeId, ttl);
+                    }
+                    conn.expire(typesKey, ttl);
+                    rebuiltTypes.addAll(batchTypes);
+                    return null;
+                });
+            });
+            // 3.数据库中已经没有商铺的类型，替换时删除旧索引
+            List<String> args = new ArrayList<>();
+            args.add(token);
+            args.add(RedisConstants.SHOP_GEO_KEY);
+            args.add(tempPrefix);
+            for (ShopType type : shopTypeService.list()) {
+                if (!rebuiltTypes.contains(type.getId().toString())) {
+                    args.add(type.getId().toString());
+                }
+            }
+            // 4.原子地替换为正式索引
+            Long swapped = stringRedisTemplate.execute(SWAP_SCRIPT,
+                    Collections.singletonList(RedisConstants.SHOP_GEO_REBUILDING_KEY), args.toArray());
+            if (swapped == null || swapped == 0L && total[0] > 0) {
+                log.error("商铺GEO索引替换失败，重建标记已过期");
+                return -1;
+            }
+            log.info("商铺GEO索引重建完成, 商铺数: {}, 类型数: {}, 耗时: {}ms",
+                    total[0], rebuiltTypes.size(), System.currentTimeMillis() - begin);
+            return total[0];
+        } finally {
+            // 失败时释放标记，成功时标记已在替换脚本中删除
+            stringRedisTemplate.execute(SimpleRedisLock.UNLOCK_SCRIPT,
+                    Collections.singletonList(RedisConstants.SHOP_GEO_REBUILDING_KEY), token);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 进程内商铺索引（ShopGeoIndex、ShopNameIndex、ShopSuggestIndex）的不可变状态
+ * 由只读的基础索引、构建它时使用的商铺快照和少量增量组成：商铺变更时写入增量并屏蔽快照中的旧数据，
+ * 之后在后台把快照中未屏蔽的商铺和增量合并后重新构建基础索引
+ * 写时复制，查询时读取volatile引用即可，不需要加锁；修改由索引在自己的锁内完成
+ *
+ * @param <B> 基础索引
+ */
+final class ShopIndexState<B> {
+
+    private static final long[] NO_MASK = new long[0];
+    private static final Shop[] NO_SHOPS = new Shop[0];
+
+    final B base;
+    /**
+     * 构建base时使用的商铺快照
+     */
+    final Shop[] shops;
+    /**
+     * base中需要屏蔽的商铺id，升序
+     */
+    final long[] masked;
+    /**
+     * 尚未合并进base的商铺
+     */
+    final Shop[] delta;
+
+    private ShopIndexState(B base, Shop[] shops, long[] masked, Shop[] delta) {
+        this.base = base;
+        this.shops = shops;
+        this.masked = masked;
+        this.delta = delta;
+    }
+
+    static <B> ShopIndexState<B> empty(B base) {
+        return new ShopIndexState<>(base, NO_SHOPS, NO_MASK, NO_SHOPS);
+    }
+
+    boolean isMasked(long id) {
+        return masked.length > 0 && Arrays.binarySearch(masked, id) >= 0;
+    }
+
+    /**
+     * 商铺变更后的状态：屏蔽快照中的旧数据，增量中的旧数据替换为entry
+     *
+     * @param entry 商铺在索引中的数据，为null表示商铺已删除或不再属于这个索引
+     */
+    ShopIndexState<B> withChange(long shopId, Shop entry) {
+        List<Shop> list = new ArrayList<>(delta.length + 1);
+        for (Shop shop : delta) {
+            if (shop.getId() != shopId) {
+                list.add(shop);
+            }
+        }
+        if (entry != null) {
+            list.add(entry);
+        }
+        return new ShopIndexState<>(base, shops, withMasked(masked, shopId), list.toArray(NO_SHOPS));
+    }
+
+    /**
+     * 当前快照合并增量后的商铺，用于重新构建
+     */
+    List<Shop> merged() {
+        return merge(Arrays.asList(shops));
+    }
+
+    /**
+     * 用新的快照（例如启动时从数据库加载的商铺）合并增量，快照中被屏蔽的商铺以增量为准
+     */
+    List<Shop> merge(Collection<Shop> snapshot) {
+        List<Shop> list = new ArrayList<>(snapshot.size() + delta.length);
+        for (Shop shop : snapshot) {
+            if (!isMasked(shop.getId())) {
+                list.add(shop);
+            }
+        }
+        list.addAll(Arrays.asList(delta));
+        return list;
+    }
+
+    /**
+     * 替换为由from.merged()或from.merge(...)构建的基础索引
+     * 当前状态就是from时清空增量；构建期间又有新的变更时保留最新的屏蔽和增量，由下一次合并处理，
+     * 屏蔽的商铺在新的快照中也会被跳过，不会重复
+     *
+     * @param from  构建时读取的状态
+     * @param base  新的基础索引
+     * @param shops 构建base使用的商铺
+     */
+    ShopIndexState<B> rebuilt(ShopIndexState<B> from, B base, Shop[] shops) {
+        return this == from
+                ? new ShopIndexState<>(base, shops, NO_MASK, NO_SHOPS)
+                : new ShopIndexState<>(base, shops, masked, delta);
+    }
+
+    boolean hasDelta() {
+        return masked.length > 0 || delta.length > 0;
+    }
+
+    /**
+     * 有序数组中插入id，已存在时返回原数组
+     */
+    static long[] withMasked(long[] masked, long id) {
+        int pos = Arrays.binarySearch(masked, id);
+        if (pos >= 0) {
+            return masked;
+        }
+        int insert = -pos - 1;
+        long[] result = new long[masked.length + 1];
+        System.arraycopy(masked, 0, result, 0, insert);
+        result[insert] = id;
+        System.arraycopy(masked, insert, result, insert + 1, masked.length - insert);
+        return result;
+    }
+}
@@ -0,0 +1,224 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内的商铺名称搜索索引（hmdp.search.name-index.enabled）
+ * 由只读的NGramIndex和少量增量数据组成（ShopIndexState）：商铺变更时先写入增量并屏蔽旧数据，1秒后在后台重新构建
+ * 加载完成前不合并，加载时把已有的增量合并进加载的数据
+ * 排序规则：匹配程度（完全相同 > 前缀 > 包含），其次评分、销量降序，最后按id升序
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements ShopChangeHandler {
+
+    /**
+     * 增量合并的延迟（毫秒），合并多次连续的变更
+     */
+    private static final long COMPACT_DELAY = 1000L;
+    /**
+     * 启动时分批加载商铺的批大小
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    /**
+     * 评分、销量降序，id升序，与NGramIndex中的文档编号顺序一致
+     */
+    private static final Comparator<Shop> RANK_ORDER = Comparator
+            .comparing((Shop shop) -> shop.getScore() == null ? 0 : shop.getScore(), Comparator.reverseOrder())
+            .thenComparing(shop -> shop.getSold() == null ? 0 : shop.getSold(), Comparator.reverseOrder())
+            .thenComparing(Shop::getId);
+
+    @Value("${hmdp.search.name-index.enabled:false}")
+    private boolean enabled;
+
+    @Resource
+    private IShopService shopService;
+
+    /**
+     * 加载完成前收到变更的商铺id，加载时以变更为准
+     */
+    private final Set<Long> changedBeforeReady = ConcurrentHashMap.newKeySet();
+    private volatile boolean ready;
+    private volatile ShopIndexState<NGramIndex> state = ShopIndexState.empty(NGramIndex.EMPTY);
+    private boolean compactScheduled;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shop-name-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (enabled) {
+            scheduler.execute(this::loadAll);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 按名称搜索商铺
+     *
+     * @param name 搜索词
+     * @param from 跳过的条数
+     * @param size 返回的条数
+     * @return 商铺列表，索引未就绪时返回null
+     */
+    public List<Shop> search(String name, int from, int size) {
+        if (!ready) {
+            return null;
+        }
+        ShopIndexState<NGramIndex> current = state;
+        String query = NGramIndex.normalize(name);
+        int limit = from + size;
+        // 1.基础索引中的商铺，跳过已被增量覆盖或删除的
+        int[] docs = current.base.search(query, limit, doc -> !current.isMasked(current.shops[doc].getId()));
+        List<Match> matches = new ArrayList<>(docs.length);
+        for (int doc : docs) {
+            Shop shop = current.shops[doc];
+            matches.add(new Match(NGramIndex.tierOf(NGramIndex.normalize(shop.getName()), query), shop));
+        }
+        // 2.增量中的商铺
+        for (Shop shop : current.delta) {
+            int tier = NGramIndex.tierOf(NGramIndex.normalize(shop.getName()), query);
+            if (tier >= 0) {
+                matches.add(new Match(tier, shop));
+            }
+        }
+        // 3.有增量时重新排序，截取 from ~ end 的部分
+        if (current.delta.length > 0) {
+            matches.sort(Comparator.comparingInt((Match m) -> m.tier).thenComparing(m -> m.shop, RANK_ORDER));
+        }
+        if (matches.size() <= from) {
+            return Collections.emptyList();
+        }
+        List<Shop> shops = new ArrayList<>(Math.min(size, matches.size() - from));
+        for (int i = from; i < matches.size() && i < limit; i++) {
+            shops.add(matches.get(i).shop);
+        }
+        return shops;
+    }
+
+    @Override
+    public void onShopChanged(Long shopId, Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        if (!ready) {
+            changedBeforeReady.add(shopId);
+        }
+        synchronized (this) {
+            state = state.withChange(shopId, shop != null && shop.getName() != null ? ShopSummaries.summaryOf(shop) : null);
+            scheduleCompact();
+        }
+    }
+
+    /**
+     * 加载完成前不合并，否则合并的结果会被加载的数据覆盖，或者合并清空的增量不会进入加载的数据
+     */
+    private void scheduleCompact() {
+        if (ready && !compactScheduled) {
+            compactScheduled = true;
+            scheduler.schedule(this::compact, COMPACT_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void loadAll() {
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.分批读取所有商铺
+            List<Shop> shops = new ArrayList<>();
+            shopService.scanShops(LOAD_BATCH_SIZE, batch -> {
+                for (Shop shop : batch) {
+                    if (shop.getName() != null && !changedBeforeReady.contains(shop.getId())) {
+                        shops.add(ShopSummaries.summaryOf(shop));
+                    }
+                }
+            });
+            // 2.把已有的增量合并进加载的数据后构建基础索引
+            ShopIndexState<NGramIndex> pending;
+            synchronized (this) {
+                pending = state;
+            }
+            Shop[] ordered = pending.merge(shops).toArray(new Shop[0]);
+            NGramIndex base = build(ordered);
+            // 3.与变更互斥地替换并标记就绪，构建期间又有新的变更时保留这部分增量，稍后合并
+            synchronized (this) {
+                state = state.rebuilt(pending, base, ordered);
+                ready = true;
+                if (state.hasDelta()) {
+                    scheduleCompact();
+                }
+            }
+            changedBeforeReady.clear();
+            log.info("商铺名称索引加载完成, 商铺数: {}, 倒排列表: {}KB, 耗时: {}ms",
+                    ordered.length, base.postingBytes() / 1024, System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("商铺名称索引加载失败，继续使用数据库查询", e);
+        }
+    }
+
+    private void compact() {
+        ShopIndexState<NGramIndex> current;
+        synchronized (this) {
+            compactScheduled = false;
+            current = state;
+        }
+        Shop[] ordered = current.merged().toArray(new Shop[0]);
+        NGramIndex base = build(ordered);
+        synchronized (this) {
+            // 构建期间又有新的变更时保留这部分增量，由下一次合并处理
+            state = state.rebuilt(current, base, ordered);
+        }
+    }
+
+    /**
+     * 按排序规则排好后构建，文档编号即名次
+     */
+    private static NGramIndex build(Shop[] shops) {
+        Arrays.sort(shops, RANK_ORDER);
+        String[] names = new String[shops.length];
+        for (int i = 0; i < shops.length; i++) {
+            names[i] = shops[i].getName();
+        }
+        return NGramIndex.build(names, names.length);
+    }
+
+    private static final class Match {
+        final int tier;
+        final Shop shop;
+
+        Match(int tier, Shop shop) {
+            this.tier = tier;
+            this.shop = shop;
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.hmdp.constants.RedisConstants;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IShopService;
+import com.hmdp.service.IShopTypeService;
+import com.hmdp.service.IVoucherService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * 商铺排行榜
+ * 每个商铺类型、每个排序字段一个ZSET（shop:rank:{typeId}:{criterion}），score为字段值，member为商铺id
+ * 商铺新增、修改后同步更新，分页时按名次读取，不需要数据库排序
+ * 下单后销量先累加在Redis中（shop:sold-delta），同时增加销量排行榜的分数，后台定期批量写回tb_shop.sold；
+ * 销量排行榜中的分数是实时值，同步和重建时按数据库的值加上尚未写回的增量计算
+ * 排行榜需要先通过rebuild全量建立，重建期间的增量更新可能被覆盖，下一次修改时会再次同步
+ */
+@Slf4j
+@Component
+public class ShopRanking {
+
+    /**
+     * 重建时每批读取的商铺数
+     */
+    private static final int REBUILD_BATCH_SIZE = 1000;
+
+    private static final DefaultRedisScript<Long> SOLD_SCRIPT;
+    static {
+        SOLD_SCRIPT = new DefaultRedisScript<>();
+        SOLD_SCRIPT.setLocation(new ClassPathResource("shop_sold.lua"));
+        SOLD_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> SWAP_SCRIPT;
+    static {
+        SWAP_SCRIPT = new DefaultRedisScript<>();
+        SWAP_SCRIPT.setLocation(new ClassPathResource("shop_rank_swap.lua"));
+        SWAP_SCRIPT.setResultType(Long.class);
+    }
+    /**
+     * 本地缓存排行榜是否已建立的时间（毫秒），避免每次查询都访问Redis
+     */
+    private static final long READY_CACHE_MILLIS = 5000L;
+
+    /**
+     * 排序字段
+     */
+    public enum Criterion {
+        SOLD("sold", "sold", true, Shop::getSold),
+        SCORE("score", "score", true, Shop::getScore),
+        COMMENTS("comments", "comments", true, Shop::getComments),
+        AVG_PRICE("avgPrice", "avg_price", false, Shop::getAvgPrice);
+
+        private final String value;
+        /**
+         * 数据库字段名
+         */
+        private final String column;
+        /**
+         * 是否降序
+         */
+        private final boolean descending;
+        private final Function<Shop, Number> getter;
+
+        Criterion(String value, String column, boolean descending, Function<Shop, Number> getter) {
+            this.value = value;
+            this.column = column;
+            this.descending = descending;
+            this.getter = getter;
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public String getColumn() {
+            return column;
+        }
+
+        public boolean isDescending() {
+            return descending;
+        }
+
+        double scoreOf(Shop shop) {
+            Number n = getter.apply(shop);
+            return n == null ? 0 : n.doubleValue();
+        }
+
+        /**
+         * 根据请求参数查找排序字段
+         *
+         * @return 不支持的字段返回null
+         */
+        public static Criterion of(String value) {
+            for (Criterion criterion : values()) {
+                if (criterion.value.equals(value)) {
+                    return criterion;
+                }
+            }
+            return null;
+        }
+    }
+
+    @Value("${hmdp.shop.sold-flush-interval-ms:5000}")
+    private long flushInterval;
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private CounterFlushLog counterFlushLog;
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private IShopTypeService shopTypeService;
+    @Resource
+    private IVoucherService voucherService;
+
+    private CounterFlusher soldFlusher;
+    private volatile boolean ready;
+    private volatile long readyCheckedAt;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shop-sold-flusher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @PostConstruct
+    private void init() {
+        soldFlusher = new CounterFlusher(stringRedisTemplate, counterFlushLog, RedisConstants.SHOP_SOLD_DELTA_KEY, this::applySold);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 停止前再写回一次，剩余的增量由其它节点或重启后写回
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        flushQuietly();
+    }
+
+    /**
+     * 排行榜是否已经全量建立过，未建立时由调用方按数据库排序，避免出现只有部分商铺的排行榜
+     * 结果在本地缓存READY_CACHE_MILLIS，其它节点重建完成后最多延迟这么久才开始使用排行榜
+     */
+    public boolean isReady() {
+        long now = System.currentTimeMillis();
+        if (now - readyCheckedAt >= READY_CACHE_MILLIS) {
+            ready = isReadyInRedis();
+            readyCheckedAt = now;
+        }
+        return ready;
+    }
+
+    /**
+     * 直接查询Redis中的标记，增量更新使用，不能因为本地缓存而漏掉其它节点刚重建完成后的变更
+     */
+    private boolean isReadyInRedis() {
+        return Boolean.TRUE.equals(stringRedisTemplate.hasKey(RedisConstants.SHOP_RANK_READY_KEY));
+    }
+
+    /**
+     * 按名次分页查询商铺id
+     *
+     * @param lastId 上一页最后一个商铺的id，为null时按from分页
+     * @param from   跳过的条数，lastId不为null时忽略
+     * @param size   返回的条数
+     * @return 商铺id，lastId已不在排行榜中时返回null
+     */
+    public List<Long> page(Long typeId, Criterion criterion, Long lastId, int from, int size) {
+        String key = keyOf(typeId, criterion);
+        // 1.游标分页：查出上一页最后一个商铺的名次，从下一名开始读取
+        long start = from;
+        if (lastId != null) {
+            Long rank = criterion.descending
+                    ? stringRedisTemplate.opsForZSet().reverseRank(key, lastId.toString())
+                    : stringRedisTemplate.opsForZSet().rank(key, lastId.toString());
+            if (rank == null) {
+                return null;
+            }
+            start = rank + 1;
+        }
+        // 2.按名次读取，ZREVRANGE / ZRANGE
+        Set<String> members = criterion.descending
+                ? stringRedisTemplate.opsForZSet().reverseRange(key, start, start + size - 1)
+                : stringRedisTemplate.opsForZSet().range(key, start, start + size - 1);
+        if (members == null || members.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Long> ids = new ArrayList<>(members.size());
+        for (String member : members) {
+            ids.add(Long.valueOf(member));
+        }
+        return ids;
+    }
+
+    /**
+     * 同步单个商铺在各个排行榜中的分数
+     * 销量排行榜中已有的分数是实时值，只在新增或切换类型时按数据库的值加上未写回的增量写入
+     *
+     * @param shopId    商铺id
+     * @param oldTypeId 修改前的类型，新增时为null
+     * @param shop      修改后的商铺，商铺已删除时为null
+     */
+    public void sync(Long shopId, Long oldTypeId, Shop shop) {
+        if (!isReadyInRedis()) {
+            return;
+        }
+        String member = shopId.toString();
+        Long newTypeId = shop == null ? null : shop.getTypeId();
+        boolean moved = newTypeId != null && !newTypeId.equals(oldTypeId);
+        double sold = moved ? liveSold(shop, soldFlusher.pending(Collections.singletonList(shopId))) : 0;
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Criterion criterion : Criterion.values()) {
+                // 1.切换了类型或商铺已删除，从旧类型的排行榜中删除
+                if (oldTypeId != null && !oldTypeId.equals(newTypeId)) {
+                    conn.zRem(keyOf(oldTypeId, criterion), member);
+                }
+                // 2.写入新类型的排行榜
+                if (newTypeId == null) {
+                    continue;
+                }
+                if (criterion != Criterion.SOLD) {
+                    conn.zAdd(keyOf(newTypeId, criterion), criterion.scoreOf(shop), member);
+                } else if (moved) {
+                    conn.zAdd(keyOf(newTypeId, criterion), sold, member);
+                }
+            }
+            // 3.下单时按商铺类型找到销量排行榜
+            if (newTypeId != null) {
+                conn.hSet(RedisConstants.SHOP_RANK_TYPES_KEY, member, newTypeId.toString());
+            } else {
+                conn.hDel(RedisConstants.SHOP_RANK_TYPES_KEY, member);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 下单后增加优惠券所属商铺的销量，一次脚本调用累加增量并增加销量排行榜中的分数
+     */
+    public void recordOrder(Long voucherId) {
+        Long shopId = shopOfVoucher(voucherId);
+        if (shopId == null) {
+            return;
+        }
+        stringRedisTemplate.execute(
+                SOLD_SCRIPT,
+                Arrays.asList(RedisConstants.SHOP_SOLD_DELTA_KEY, RedisConstants.SHOP_RANK_TYPES_KEY,
+                        RedisConstants.SHOP_RANK_READY_KEY),
+                shopId.toString(), RedisConstants.SHOP_RANK_KEY, ":" + Criterion.SOLD.value
+        );
+    }
+
+    /**
+     * 优惠券所属的商铺，优惠券的商铺不会变化，第一次查询数据库后缓存在HASH中
+     */
+    private Long shopOfVoucher(Long voucherId) {
+        Object cached = stringRedisTemplate.opsForHash().get(RedisConstants.VOUCHER_SHOP_KEY, voucherId.toString());
+        if (cached != null) {
+            return Long.valueOf((String) cached);
+        }
+        Voucher voucher = voucherService.getById(voucherId);
+        if (voucher == null || voucher.getShopId() == null) {
+            return null;
+        }
+        stringRedisTemplate.opsForHash().put(RedisConstants.VOUCHER_SHOP_KEY, voucherId.toString(),
+                voucher.getShopId().toString());
+        return voucher.getShopId();
+    }
+
+    /**
+     * 写回一次销量
+     *
+     * @return 写回的商铺数
+     */
+    public int flush() {
+        return soldFlusher.flush();
+    }
+
+    /**
+     * 一条UPDATE写回一批商铺的销量，提交后删除这些商铺的缓存
+     */
+    private void applySold(Map<Long, Long> deltas) {
+        shopService.update()
+                .setSql(CounterFlusher.incrementSql("sold", deltas))
+                .in("id", deltas.keySet())
+                .update();
+        TxUtils.afterCommit(() -> stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Long id : deltas.keySet()) {
+                conn.del(RedisConstants.CACHE_SHOP_KEY + id, RedisConstants.CACHE_SHOP_SUMMARY_KEY + id,
+                        RedisConstants.CACHE_SHOP_ETAG_KEY + id);
+            }
+            return null;
+        }));
+    }
+
+    private void flushQuietly() {
+        try {
+            int count = soldFlusher.flush();
+            if (count > 0) {
+                log.debug("销量写回完成, 商铺数: {}", count);
+            }
+        } catch (Exception e) {
+            log.error("销量写回失败, 稍后重试", e);
+        }
+    }
+
+    /**
+     * 实时销量：数据库中的值加上尚未写回的增量
+     */
+    private static double liveSold(Shop shop, Map<Long, Long> pending) {
+        return Criterion.SOLD.scoreOf(shop) + pending.getOrDefault(shop.getId(), 0L);
+    }
+
+    /**
+     * 全量重建所有排行榜，先写入带过期时间的临时key，再通过Lua脚本一次性替换，读取方不会看到新旧混合的排行榜
+     * 同一时间只允许一个节点重建，每写入一批给锁续期；数据库中已经没有商铺的类型删除旧排行榜
+     *
+     * @return 写入的商铺数，已有重建在进行或锁已过期时返回-1
+     */
+    public int rebuild() {
+        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, RedisConstants.SHOP_RANK_REBUILD_LOCK_NAME);
+        long ttl = TimeUnit.MINUTES.toSeconds(RedisConstants.SHOP_RANK_REBUILD_TTL);
+        if (!lock.tryLock(ttl)) {
+            log.warn("商铺排行榜正在重建中，忽略本次请求");
+            return -1;
+        }
+        String lockKey = SimpleRedisLock.KEY_PREFIX + RedisConstants.SHOP_RANK_REBUILD_LOCK_NAME;
+        try {
+            long begin = System.currentTimeMillis();
+            String tempPrefix = RedisConstants.SHOP_RANK_REBUILD_KEY + UUID.randomUUID().toString(true) + ":";
+            String typesKey = tempPrefix + "types";
+            Set<String> suffixes = new HashSet<>();
+            int[] total = {0};
+            // 1.分批读取商铺，每批通过一次管道写入临时key，销量加上尚未写回的增量
+            shopService.scanShops(REBUILD_BATCH_SIZE, batch -> {
+                Map<Long, Long> pending = soldFlusher.pending(
+                        batch.stream().map(Shop::getId).collect(Collectors.toList()));
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    Set<String> batchSuffixes = new HashSet<>();
+                    for (Shop shop : batch) {
+                        if (shop.getTypeId() == null) {
+                            continue;
+                        }
+                        String member = shop.getId().toString();
+                        for (Criterion criterion : Criterion.values()) {
+                            String suffix = shop.getTypeId() + ":" + criterion.value;
+                            double score = criterion == Criterion.SOLD
+                                    ? liveSold(shop, pending) : criterion.scoreOf(shop);
+                            conn.zAdd(tempPrefix + suffix, score, member);
+                            batchSuffixes.add(suffix);
+                        }
+                        conn.hSet(typesKey, member, shop.getTypeId().toString());
+                        total[0]++;
+                    }
+                    // 临时key带过期时间，重建中途失败也不会残留
+                    for (String suffix : batchSuffixes) {
+                        conn.expire(tempPrefix + suffix, ttl);
+                    }
+                    conn.expire(typesKey, ttl);
+                    conn.expire(lockKey, ttl);
+                    suffixes.addAll(batchSuffixes);
+                    return null;
+                });
+            });
+            // 2.数据库中已经没有商铺的类型，删除旧排行榜
+            List<String> stale = new ArrayList<>();
+            for (ShopType type : shopTypeService.list()) {
+                for (Criterion criterion : Criterion.values()) {
+                    String suffix = type.getId() + ":" + criterion.value;
+                    if (!suffixes.contains(suffix)) {
+                        stale.add(suffix);
+                    }
+                }
+            }
+            // 3.仍持有锁时原子地替换正式的排行榜
+            List<String> args = new ArrayList<>(6 + suffixes.size() + stale.size());
+            args.add(SimpleRedisLock.ID_PREFIX + Thread.currentThread().getId());
+            args.add(RedisConstants.SHOP_RANK_KEY);
+            args.add(tempPrefix);
+            args.add(RedisConstants.SHOP_RANK_TYPES_KEY);
+            args.add(RedisConstants.SHOP_RANK_READY_KEY);
+            args.add(String.valueOf(suffixes.size()));
+            args.addAll(suffixes);
+            args.addAll(stale);
+            Long swapped = stringRedisTemplate.execute(SWAP_SCRIPT, Collections.singletonList(lockKey), args.toArray());
+            if (swapped == null || swapped < 0) {
+                log.warn("商铺排行榜重建期间锁已过期，放弃替换");
+                return -1;
+            }
+            ready = true;
+            readyCheckedAt = System.currentTimeMillis();
+            log.info("商铺排行榜重建完成, 商铺数: {}, 排行榜数: {}, 删除旧排行榜: {}, 耗时: {}ms",
+                    total[0], suffixes.size(), stale.size(), System.currentTimeMillis() - begin);
+            return total[0];
+        } finally {
+            lock.unLock();
+        }
+    }
+
+    private static String keyOf(Long typeId, Criterion criterion) {
+        return RedisConstants.SHOP_RANK_KEY + typeId + ":" + criterion.value;
+    }
+}
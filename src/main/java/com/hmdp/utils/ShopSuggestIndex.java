@@ -0,0 +1,284 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.ShopSuggestion;
+import com.hmdp.entity.Shop;
+import com.hmdp.service.IShopService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 商铺名称和商圈的输入联想（hmdp.search.suggest.enabled）
+ * 商铺按销量排序，商圈按商圈内商铺的总销量排序
+ * 与ShopNameIndex相同，由只读的PrefixSuggester和少量增量数据组成：商铺变更时先写入增量并屏蔽旧词条，
+ * 稍后在后台用内存中的商铺快照合并增量后重新构建，商圈的权重在合并时更新；只有启动时遍历数据库
+ * 加载完成前不合并，加载时把已有的增量合并进加载的数据
+ */
+@Slf4j
+@Component
+public class ShopSuggestIndex implements ShopChangeHandler {
+
+    /**
+     * 增量合并的延迟（毫秒），合并需要重新排序全部词条，因此比名称索引的间隔更长
+     */
+    private static final long COMPACT_DELAY = 5000L;
+    /**
+     * 启动时分批加载商铺的批大小
+     */
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    @Value("${hmdp.search.suggest.enabled:false}")
+    private boolean enabled;
+
+    @Resource
+    private IShopService shopService;
+
+    /**
+     * 加载完成前收到变更的商铺id，加载时以变更为准
+     */
+    private final Set<Long> changedBeforeReady = ConcurrentHashMap.newKeySet();
+    private volatile boolean ready;
+    private volatile ShopIndexState<Terms> state = ShopIndexState.empty(Terms.EMPTY);
+    private boolean compactScheduled;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "shop-suggest-index");
+        t.setDaemon(true);
+        return t;
+    });
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (enabled) {
+            scheduler.execute(this::loadAll);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * 查询联想词
+     *
+     * @param prefix 用户已输入的内容
+     * @param size   返回的最大数量
+     * @return 联想词，索引未就绪时返回null
+     */
+    public List<ShopSuggestion> suggest(String prefix, int size) {
+        if (!ready) {
+            return null;
+        }
+        ShopIndexState<Terms> current = state;
+        Terms base = current.base;
+        // 1.基础索引中的词条，跳过已被增量覆盖或删除的商铺
+        int[] terms = base.suggester.suggest(prefix, size,
+                term -> base.shopIds[term] == null || !current.isMasked(base.shopIds[term]));
+        List<Candidate> candidates = new ArrayList<>(terms.length);
+        for (int term : terms) {
+            candidates.add(new Candidate(base.texts[term], base.shopIds[term], base.weights[term]));
+        }
+        // 2.增量中的商铺
+        String p = NGramIndex.normalize(prefix);
+        if (current.delta.length > 0 && !p.isEmpty()) {
+            for (Shop shop : current.delta) {
+                if (StrUtil.isNotBlank(shop.getName()) && NGramIndex.normalize(shop.getName()).startsWith(p)) {
+                    candidates.add(new Candidate(shop.getName(), shop.getId(), weightOf(shop)));
+                }
+            }
+            candidates.sort(Comparator.comparingLong((Candidate c) -> c.weight).reversed());
+        }
+        // 3.转换为返回结果
+        List<ShopSuggestion> suggestions = new ArrayList<>(Math.min(size, candidates.size()));
+        for (int i = 0; i < candidates.size() && i < size; i++) {
+            Candidate c = candidates.get(i);
+            suggestions.add(c.shopId == null
+                    ? new ShopSuggestion(c.text, ShopSuggestion.TYPE_AREA, null)
+                    : new ShopSuggestion(c.text, ShopSuggestion.TYPE_SHOP, c.shopId));
+        }
+        return suggestions;
+    }
+
+    @Override
+    public void onShopChanged(Long shopId, Shop shop) {
+        if (!enabled) {
+            return;
+        }
+        if (!ready) {
+            changedBeforeReady.add(shopId);
+        }
+        synchronized (this) {
+            // 写时复制，商铺已删除时只屏蔽旧词条
+            state = state.withChange(shopId, shop == null ? null : entryOf(shop));
+            scheduleCompact();
+        }
+    }
+
+    /**
+     * 加载完成前不合并，否则合并的结果会被加载的数据覆盖，或者合并清空的增量不会进入加载的数据
+     */
+    private void scheduleCompact() {
+        if (ready && !compactScheduled) {
+            compactScheduled = true;
+            scheduler.schedule(this::compact, COMPACT_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void loadAll() {
+        long begin = System.currentTimeMillis();
+        try {
+            // 1.分批读取所有商铺，只保留联想需要的字段
+            List<Shop> shops = new ArrayList<>();
+            shopService.scanShops(LOAD_BATCH_SIZE, batch -> {
+                for (Shop shop : batch) {
+                    if (!changedBeforeReady.contains(shop.getId())) {
+                        shops.add(entryOf(shop));
+                    }
+                }
+            });
+            // 2.把已有的增量合并进加载的数据后构建基础索引
+            ShopIndexState<Terms> pending;
+            synchronized (this) {
+                pending = state;
+            }
+            Shop[] snapshot = pending.merge(shops).toArray(new Shop[0]);
+            Terms base = build(snapshot);
+            // 3.与变更互斥地替换并标记就绪，构建期间又有新的变更时保留这部分增量，稍后合并
+            synchronized (this) {
+                state = state.rebuilt(pending, base, snapshot);
+                ready = true;
+                if (state.hasDelta()) {
+                    scheduleCompact();
+                }
+            }
+            changedBeforeReady.clear();
+            log.info("商铺联想索引加载完成, 词条数: {}, 字典树节点数: {}, 耗时: {}ms",
+                    base.texts.length, base.suggester.nodeCount(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            log.error("商铺联想索引加载失败", e);
+        }
+    }
+
+    /**
+     * 把增量合并进快照后重新构建，不查询数据库
+     */
+    private void compact() {
+        ShopIndexState<Terms> current;
+        synchronized (this) {
+            compactScheduled = false;
+            current = state;
+        }
+        try {
+            Shop[] shops = current.merged().toArray(new Shop[0]);
+            Terms base = build(shops);
+            synchronized (this) {
+                // 构建期间又有新的变更时保留这部分增量，由下一次合并处理
+                state = state.rebuilt(current, base, shops);
+            }
+        } catch (Exception e) {
+            log.error("商铺联想索引合并失败", e);
+        }
+    }
+
+    /**
+     * 商铺一个词条，商圈按归一化后的名称合并为一个词条
+     */
+    private static Terms build(Shop[] shops) {
+        List<String> texts = new ArrayList<>();
+        List<Long> shopIds = new ArrayList<>();
+        List<Long> weights = new ArrayList<>();
+        Map<String, long[]> areas = new LinkedHashMap<>();
+        Map<String, String> areaTexts = new HashMap<>();
+        for (Shop shop : shops) {
+            if (StrUtil.isNotBlank(shop.getName())) {
+                texts.add(shop.getName());
+                shopIds.add(shop.getId());
+                weights.add(weightOf(shop));
+            }
+            String area = NGramIndex.normalize(shop.getArea());
+            if (!area.isEmpty()) {
+                areas.computeIfAbsent(area, a -> new long[1])[0] += weightOf(shop);
+                areaTexts.putIfAbsent(area, shop.getArea());
+            }
+        }
+        for (Map.Entry<String, long[]> entry : areas.entrySet()) {
+            texts.add(areaTexts.get(entry.getKey()));
+            shopIds.add(null);
+            weights.add(entry.getValue()[0]);
+        }
+        int n = texts.size();
+        String[] textArray = texts.toArray(new String[0]);
+        Long[] idArray = shopIds.toArray(new Long[0]);
+        long[] weightArray = new long[n];
+        for (int i = 0; i < n; i++) {
+            weightArray[i] = weights.get(i);
+        }
+        return new Terms(PrefixSuggester.build(textArray, weightArray, n), textArray, idArray, weightArray);
+    }
+
+    /**
+     * 快照中只保留联想需要的字段
+     */
+    private static Shop entryOf(Shop shop) {
+        return new Shop().setId(shop.getId()).setName(shop.getName()).setArea(shop.getArea()).setSold(shop.getSold());
+    }
+
+    private static long weightOf(Shop shop) {
+        return shop.getSold() == null ? 0 : shop.getSold();
+    }
+
+    private static final class Candidate {
+        final String text;
+        final Long shopId;
+        final long weight;
+
+        Candidate(String text, Long shopId, long weight) {
+            this.text = text;
+            this.shopId = shopId;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * 基础索引：PrefixSuggester和词条信息，不可变
+     */
+    private static final class Terms {
+        static final Terms EMPTY = new Terms(PrefixSuggester.EMPTY, new String[0], new Long[0], new long[0]);
+
+        final PrefixSuggester suggester;
+        /**
+         * 词条原文，下标与suggester中的原始下标一致
+         */
+        final String[] texts;
+        /**
+         * 商铺词条对应的商铺id，商圈词条为null
+         */
+        final Long[] shopIds;
+        final long[] weights;
+
+        Terms(PrefixSuggester suggester, String[] texts, Long[] shopIds, long[] weights) {
+            this.suggester = suggester;
+            this.texts = texts;
+            this.shopIds = shopIds;
+            this.weights = weights;
+        }
+    }
+}
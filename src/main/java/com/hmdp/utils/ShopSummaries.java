@@ -0,0 +1,37 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 进程内索引中保存的商铺摘要
+ */
+public class ShopSummaries {
+
+    /**
+     * 只保留列表展示需要的字段
+     */
+    public static Shop summaryOf(Shop shop) {
+        return copyOf(shop).setCreateTime(null).setUpdateTime(null).setDistance(null)
+                .setOpenSchedule(OpenHours.of(shop.getOpenHours()));
+    }
+
+    public static Shop copyOf(Shop shop) {
+        return new Shop()
+                .setId(shop.getId())
+                .setName(shop.getName())
+                .setTypeId(shop.getTypeId())
+                .setImages(shop.getImages())
+                .setArea(shop.getArea())
+                .setAddress(shop.getAddress())
+                .setX(shop.getX())
+                .setY(shop.getY())
+                .setAvgPrice(shop.getAvgPrice())
+                .setSold(shop.getSold())
+                .setComments(shop.getComments())
+                .setScore(shop.getScore())
+                .setOpenHours(shop.getOpenHours())
+                .setOpenSchedule(shop.getOpenSchedule())
+                .setCreateTime(shop.getCreateTime())
+                .setUpdateTime(shop.getUpdateTime());
+    }
+}
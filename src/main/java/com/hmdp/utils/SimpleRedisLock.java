@@ -27,10 +27,14 @@ public class SimpleRedisLock implements ILock{
     public static final String KEY_PREFIX = "lock:";
     public static final String ID_PREFIX = UUID.randomUUID().toString(true) + "-";
     public static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    public static final DefaultRedisScript<Long> RENEW_SCRIPT;
     static {
         UNLOCK_SCRIPT = new DefaultRedisScript<>();
         UNLOCK_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
         UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
     }
 
     /**
@@ -46,6 +50,16 @@ public class SimpleRedisLock implements ILock{
         return Boolean.TRUE.equals(ifAbsent);
     }
 
+    @Override
+    public boolean renew(long timeoutSec) {
+        Long result = stringRedisTemplate.execute(
+                RENEW_SCRIPT,
+                Collections.singletonList(KEY_PREFIX + name),
+                ID_PREFIX + Thread.currentThread().getId(), String.valueOf(timeoutSec)
+        );
+        return result != null && result == 1L;
+    }
+
     @Override
     public void unLock() {
         stringRedisTemplate.execute(
@@ -5,4 +5,12 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    /**
+     * 附近商铺的查询半径（米）
+     */
+    public static final double NEARBY_RADIUS = 5000;
+    /**
+     * 只查询营业中的商铺时，一次请求最多检查的商铺数，避免深夜大部分商铺都已打烊时扫描整个分类
+     */
+    public static final int OPEN_NOW_SCAN_LIMIT = 1000;
 }
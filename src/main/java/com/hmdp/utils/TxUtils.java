@@ -0,0 +1,24 @@
+package com.hmdp.utils;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public class TxUtils {
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     * 用于删除缓存、发布变更消息等操作，避免其它线程在事务提交前读到旧数据并写回缓存
+     */
+    public static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+}
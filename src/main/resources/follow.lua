@@ -0,0 +1,32 @@
+-- 关注或取关，同时修改关注集合、粉丝集合和待写回数据库的关注数、粉丝数增量
+-- 在数据库中的关注关系修改成功后调用
+-- 1.参数列表
+-- 1.1.关注集合 follows:{userId}
+local followsKey = KEYS[1]
+-- 1.2.粉丝集合 fans:{followUserId}，score为粉丝id，按粉丝id升序分批读取
+local fansKey = KEYS[2]
+-- 1.3.待写回的关注数增量
+local followeeDeltaKey = KEYS[3]
+-- 1.4.待写回的粉丝数增量
+local fansDeltaKey = KEYS[4]
+-- 1.5.用户id
+local userId = ARGV[1]
+-- 1.6.被关注的用户id
+local followUserId = ARGV[2]
+-- 1.7.1表示关注，0表示取关
+local isFollow = ARGV[3]
+
+-- 2.关注
+if (isFollow == '1') then
+    redis.call('sadd', followsKey, followUserId)
+    redis.call('zadd', fansKey, userId, userId)
+    redis.call('hincrby', followeeDeltaKey, userId, 1)
+    redis.call('hincrby', fansDeltaKey, followUserId, 1)
+    return 1
+end
+-- 3.取关
+redis.call('srem', followsKey, followUserId)
+redis.call('zrem', fansKey, userId)
+redis.call('hincrby', followeeDeltaKey, userId, -1)
+redis.call('hincrby', fansDeltaKey, followUserId, -1)
+return 0
@@ -0,0 +1,42 @@
+-- 点赞或取消点赞，同时修改待写回数据库的点赞数增量
+-- 返回值的最低位表示点赞（1）或取消点赞（0），第二位表示最早点赞的前5名是否变化（2）
+-- 前5名变化时在脚本中删除点赞用户缓存，与修改点赞用户集合是原子的
+-- 1.参数列表
+-- 1.1.点赞用户集合，例如 blog:liked:{blogId}
+local likedKey = KEYS[1]
+-- 1.2.待写回的点赞数增量，例如 blog:liked-delta
+local deltaKey = KEYS[2]
+-- 1.3.点赞用户缓存，例如 cache:blog:likes:{blogId}，可选
+local cacheKey = KEYS[3]
+-- 1.4.用户id
+local userId = ARGV[1]
+-- 1.5.当前时间戳
+local now = ARGV[2]
+-- 1.6.笔记或评论的id
+local id = ARGV[3]
+
+-- 2.已点赞，取消点赞
+local rank = redis.call('zrank', likedKey, userId)
+if (rank) then
+    redis.call('zrem', likedKey, userId)
+    redis.call('hincrby', deltaKey, id, -1)
+    -- 2.1.移除的是前5名之一
+    if (rank < 5) then
+        if (cacheKey) then
+            redis.call('del', cacheKey)
+        end
+        return 2
+    end
+    return 0
+end
+-- 3.未点赞，点赞
+redis.call('zadd', likedKey, now, userId)
+redis.call('hincrby', deltaKey, id, 1)
+-- 3.1.新的点赞进入了前5名
+if (redis.call('zrank', likedKey, userId) < 5) then
+    if (cacheKey) then
+        redis.call('del', cacheKey)
+    end
+    return 3
+end
+return 1
@@ -0,0 +1,14 @@
+-- 锁续期，只有持有锁的线程可以续期
+-- 1.参数列表
+-- 1.1.锁的key
+local key = KEYS[1]
+-- 1.2.持有者标识
+local owner = ARGV[1]
+-- 1.3.新的过期时间（秒）
+local ttl = ARGV[2]
+
+-- 2.判断是否是自己的锁
+if (redis.call('get', key) == owner) then
+    return redis.call('expire', key, ttl)
+end
+return 0
@@ -0,0 +1,45 @@
+-- 同步单个商铺在GEO索引中的位置
+-- 1.参数列表
+-- 1.1.重建标记的key，存在时值为本次重建的token
+local rebuildingKey = KEYS[1]
+-- 1.2.正式索引的key前缀
+local geoPrefix = ARGV[1]
+-- 1.3.重建临时key的前缀
+local rebuildPrefix = ARGV[2]
+-- 1.4.商铺id
+local shopId = ARGV[3]
+-- 1.5.旧类型id，没有时为空字符串
+local oldType = ARGV[4]
+-- 1.6.新类型id，商铺被删除或没有坐标时为空字符串
+local newType = ARGV[5]
+-- 1.7.经纬度
+local x = ARGV[6]
+local y = ARGV[7]
+-- 1.8.临时key的过期时间（秒）
+local ttl = ARGV[8]
+
+-- 2.从旧类型中删除（切换了类型或不再有坐标），写入新类型
+local function apply(prefix)
+    if (oldType ~= '' and oldType ~= newType) then
+        redis.call('zrem', prefix .. oldType, shopId)
+    end
+    if (newType ~= '') then
+        redis.call('geoadd', prefix .. newType, x, y, shopId)
+    end
+end
+
+-- 3.写正式索引
+apply(geoPrefix)
+
+-- 4.正在重建时同时写临时key，避免重建扫描过之后的变更在RENAME时丢失
+local token = redis.call('get', rebuildingKey)
+if (token) then
+    local tempPrefix = rebuildPrefix .. token .. ':'
+    apply(tempPrefix)
+    if (newType ~= '') then
+        redis.call('sadd', tempPrefix .. 'types', newType)
+        redis.call('expire', tempPrefix .. newType, ttl)
+        redis.call('expire', tempPrefix .. 'types', ttl)
+    end
+end
+return 0
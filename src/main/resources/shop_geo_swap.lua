@@ -0,0 +1,43 @@
+-- 重建完成后把临时key原子地替换为正式索引
+-- 1.参数列表
+-- 1.1.重建标记的key
+local rebuildingKey = KEYS[1]
+-- 1.2.本次重建的token
+local token = ARGV[1]
+-- 1.3.正式索引的key前缀
+local geoPrefix = ARGV[2]
+-- 1.4.本次重建的临时key前缀
+local tempPrefix = ARGV[3]
+
+-- 2.标记已过期或被其它重建占用，放弃替换
+if (redis.call('get', rebuildingKey) ~= token) then
+    return 0
+end
+
+-- 3.逐个类型RENAME，临时key带有过期时间，替换后需要去掉
+local typesKey = tempPrefix .. 'types'
+local types = redis.call('smembers', typesKey)
+local seen = {}
+for _, typeId in ipairs(types) do
+    seen[typeId] = true
+    local tempKey = tempPrefix .. typeId
+    if (redis.call('exists', tempKey) == 1) then
+        redis.call('rename', tempKey, geoPrefix .. typeId)
+        redis.call('persist', geoPrefix .. typeId)
+    else
+        -- 重建期间该类型的商铺都被移走了
+        redis.call('del', geoPrefix .. typeId)
+    end
+end
+
+-- 4.数据库中已经没有商铺的类型，删除旧索引
+for i = 4, #ARGV do
+    if (not seen[ARGV[i]]) then
+        redis.call('del', geoPrefix .. ARGV[i])
+    end
+end
+
+-- 5.清理
+redis.call('del', typesKey)
+redis.call('del', rebuildingKey)
+return #types
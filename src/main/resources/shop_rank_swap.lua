@@ -0,0 +1,46 @@
+-- 重建完成后把临时排行榜原子地替换为正式排行榜，读取方不会看到新旧混合的排行榜
+-- 1.参数列表
+-- 1.1.重建锁的key
+local lockKey = KEYS[1]
+-- 1.2.锁的持有者标识
+local owner = ARGV[1]
+-- 1.3.正式排行榜的key前缀，例如 shop:rank:
+local rankPrefix = ARGV[2]
+-- 1.4.本次重建的临时key前缀
+local tempPrefix = ARGV[3]
+-- 1.5.商铺所属类型的HASH
+local typesKey = ARGV[4]
+-- 1.6.排行榜已建立的标记
+local readyKey = ARGV[5]
+-- 1.7.本次写入的排行榜个数n，ARGV[7]~ARGV[6+n]是写入的排行榜后缀（类型id:排序字段），之后是需要删除的旧排行榜后缀
+local n = tonumber(ARGV[6])
+
+-- 2.锁已过期或被其它节点持有，放弃替换
+if (redis.call('get', lockKey) ~= owner) then
+    return -1
+end
+
+-- 3.替换写入的排行榜，临时key带有过期时间，替换后需要去掉
+for i = 7, 6 + n do
+    local tempKey = tempPrefix .. ARGV[i]
+    if (redis.call('exists', tempKey) == 1) then
+        redis.call('rename', tempKey, rankPrefix .. ARGV[i])
+        redis.call('persist', rankPrefix .. ARGV[i])
+    end
+end
+local tempTypesKey = tempPrefix .. 'types'
+if (redis.call('exists', tempTypesKey) == 1) then
+    redis.call('rename', tempTypesKey, typesKey)
+    redis.call('persist', typesKey)
+else
+    redis.call('del', typesKey)
+end
+
+-- 4.数据库中已经没有商铺的类型，删除旧排行榜
+for i = 7 + n, #ARGV do
+    redis.call('del', rankPrefix .. ARGV[i])
+end
+
+-- 5.标记排行榜已建立
+redis.call('set', readyKey, '1')
+return n
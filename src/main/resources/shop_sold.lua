@@ -0,0 +1,27 @@
+-- 下单后增加商铺的销量：累加待写回数据库的增量，排行榜已建立时同时增加销量排行榜中的分数
+-- 1.参数列表
+-- 1.1.待写回的销量增量，例如 shop:sold-delta
+local deltaKey = KEYS[1]
+-- 1.2.商铺id到类型id的HASH
+local typesKey = KEYS[2]
+-- 1.3.排行榜已建立的标记
+local readyKey = KEYS[3]
+-- 1.4.商铺id
+local shopId = ARGV[1]
+-- 1.5.排行榜key的前缀和后缀，中间是类型id
+local rankPrefix = ARGV[2]
+local rankSuffix = ARGV[3]
+
+-- 2.累加增量
+redis.call('hincrby', deltaKey, shopId, 1)
+
+-- 3.增加排行榜中的分数
+if (redis.call('exists', readyKey) == 0) then
+    return 0
+end
+local typeId = redis.call('hget', typesKey, shopId)
+if (not typeId) then
+    return 0
+end
+redis.call('zincrby', rankPrefix .. typeId .. rankSuffix, 1, shopId)
+return 1
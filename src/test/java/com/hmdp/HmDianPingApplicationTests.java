@@ -4,17 +4,26 @@ import com.hmdp.constants.RedisConstants;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.hmdp.utils.FeedCompactor;
+import com.hmdp.utils.GeoGridIndex;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopGeoSync;
+import com.hmdp.utils.ShopRanking;
+import com.hmdp.utils.SystemConstants;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
 
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
@@ -30,6 +39,12 @@ class HmDianPingApplicationTests {
     private RedisIdWorker redisIdWorker;
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private ShopGeoSync shopGeoSync;
+    @Resource
+    private ShopRanking shopRanking;
+    @Resource
+    private FeedCompactor feedCompactor;
 
     private ExecutorService es = Executors.newFixedThreadPool(500);
 
@@ -83,4 +98,82 @@ class HmDianPingApplicationTests {
             stringRedisTemplate.opsForGeo().add(key, locations);
         }
     }
+
+    /**
+     * 全量重建商铺GEO索引，写入临时key后原子替换
+     */
+    @Test
+    void rebuildShopGeo() {
+        int count = shopGeoSync.rebuild();
+        System.out.println("重建商铺数: " + count);
+    }
+
+    /**
+     * 全量重建商铺排行榜
+     */
+    @Test
+    void rebuildShopRanking() {
+        int count = shopRanking.rebuild();
+        System.out.println("重建商铺数: " + count);
+    }
+
+    /**
+     * 立即整理一次所有收件箱
+     */
+    @Test
+    void compactFeedInboxes() {
+        long reclaimed = feedCompactor.compact();
+        System.out.println("内存减少: " + reclaimed / 1024 + "KB");
+    }
+
+    /**
+     * 对比Redis GEOSEARCH与进程内GeoGridIndex的查询耗时，需要连接Redis，会写入约100万个GEO点
+     * 只在 mvn test -Pbenchmark 时执行
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmarkGeoSearch() {
+        String key = RedisConstants.SHOP_GEO_KEY + "benchmark";
+        for (int n : new int[]{100_000, 1_000_000}) {
+            Random random = new Random(n);
+            long[] ids = new long[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(10000);
+            stringRedisTemplate.delete(key);
+            for (int i = 0; i < n; i++) {
+                ids[i] = i + 1;
+                xs[i] = 120.15 + (random.nextDouble() - 0.5) * 0.4;
+                ys[i] = 30.28 + (random.nextDouble() - 0.5) * 0.4;
+                locations.add(new RedisGeoCommands.GeoLocation<>(String.valueOf(ids[i]), new Point(xs[i], ys[i])));
+                if (locations.size() == 10000) {
+                    stringRedisTemplate.opsForGeo().add(key, locations);
+                    locations.clear();
+                }
+            }
+            GeoGridIndex index = GeoGridIndex.build(ids, xs, ys, n).index;
+
+            int queries = 1000;
+            long redisNanos = 0;
+            long localNanos = 0;
+            for (int q = 0; q < queries; q++) {
+                double x = 120.15 + (random.nextDouble() - 0.5) * 0.4;
+                double y = 30.28 + (random.nextDouble() - 0.5) * 0.4;
+                long begin = System.nanoTime();
+                stringRedisTemplate.opsForGeo().search(key, GeoReference.fromCoordinate(x, y), new Distance(1000),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending()
+                                .limit(SystemConstants.DEFAULT_PAGE_SIZE));
+                redisNanos += System.nanoTime() - begin;
+
+                begin = System.nanoTime();
+                GeoGridIndex.TopK top = new GeoGridIndex.TopK(SystemConstants.DEFAULT_PAGE_SIZE);
+                index.search(x, y, 1000, (slot, d) -> top.offer(slot, index.idAt(slot), d));
+                top.sort();
+                localNanos += System.nanoTime() - begin;
+            }
+            System.out.printf("n=%d redis=%dus/query local=%dus/query%n",
+                    n, redisNanos / 1000 / queries, localNanos / 1000 / queries);
+        }
+        stringRedisTemplate.delete(key);
+    }
 }
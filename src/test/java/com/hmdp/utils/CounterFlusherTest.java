@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CounterFlusherTest {
+
+    @Test
+    void incrementSql() {
+        Map<Long, Long> deltas = new LinkedHashMap<>();
+        deltas.put(1L, 3L);
+        deltas.put(2L, -1L);
+        assertEquals("liked = GREATEST(CAST(IFNULL(liked, 0) AS SIGNED) + CASE id WHEN 1 THEN 3 WHEN 2 THEN -1 ELSE 0 END, 0)",
+                CounterFlusher.incrementSql("liked", deltas));
+        assertEquals("fans = GREATEST(CAST(IFNULL(fans, 0) AS SIGNED) + CASE user_id WHEN 1 THEN 3 WHEN 2 THEN -1 ELSE 0 END, 0)",
+                CounterFlusher.incrementSql("fans", "user_id", deltas));
+    }
+}
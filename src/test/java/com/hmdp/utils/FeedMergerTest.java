@@ -0,0 +1,104 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FeedMergerTest {
+
+    private static final Comparator<ZSetOperations.TypedTuple<String>> REV =
+            Comparator.comparing((ZSetOperations.TypedTuple<String> t) -> t.getScore(), Comparator.reverseOrder())
+                    .thenComparing(ZSetOperations.TypedTuple::getValue, Comparator.reverseOrder());
+
+    @Test
+    void mergeMatchesSingleZSet() {
+        Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            int k = 1 + random.nextInt(6);
+            List<TreeSet<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>();
+            Map<String, Double> all = new LinkedHashMap<>();
+            for (int i = 0; i < k; i++) {
+                TreeSet<ZSetOperations.TypedTuple<String>> source = new TreeSet<>(REV);
+                int n = random.nextInt(30);
+                for (int j = 0; j < n; j++) {
+                    // 分数范围很小，制造大量相同的score；同一个member在不同来源中score相同
+                    String member = String.valueOf(random.nextInt(60));
+                    double score = Integer.parseInt(member) / 4;
+                    source.add(new DefaultTypedTuple<>(member, score));
+                    all.put(member, score);
+                }
+                sources.add(source);
+            }
+            // 暴力计算：所有元素写入同一个ZSET后按 score <= max LIMIT offset count 查询
+            double max = random.nextInt(16);
+            int offset = random.nextInt(5);
+            int count = 1 + random.nextInt(4);
+            List<String> expected = all.entrySet().stream()
+                    .map(e -> (ZSetOperations.TypedTuple<String>) new DefaultTypedTuple<>(e.getKey(), e.getValue()))
+                    .filter(t -> t.getScore() <= max)
+                    .sorted(REV)
+                    .skip(offset).limit(count)
+                    .map(ZSetOperations.TypedTuple::getValue)
+                    .collect(Collectors.toList());
+            // 各来源只读取 score <= max 的前 offset + count 条
+            List<List<ZSetOperations.TypedTuple<String>>> heads = new ArrayList<>();
+            for (TreeSet<ZSetOperations.TypedTuple<String>> source : sources) {
+                heads.add(source.stream().filter(t -> t.getScore() <= max).limit(offset + count)
+                        .collect(Collectors.toList()));
+            }
+            List<String> actual = FeedMerger.merge(heads, offset, count).stream()
+                    .map(ZSetOperations.TypedTuple::getValue).collect(Collectors.toList());
+            assertEquals(expected, actual, "round " + round);
+        }
+    }
+
+    /**
+     * 推模式与推拉结合的对比：一个大V每天发posts篇，粉丝fans人
+     * 推模式需要 posts * fans 个收件箱元素，推拉结合只需要 posts 个发件箱元素，代价是读取时多合并k个发件箱
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmark() {
+        int fans = 100_000;
+        int posts = 20;
+        // Redis中一个小ZSET元素（listpack编码，member为id，score为时间戳）约 20 字节
+        long bytesPerEntry = 20;
+        System.out.printf("push: %d entries, ~%dMB; hybrid: %d entries, ~%dB%n",
+                (long) posts * fans, (long) posts * fans * bytesPerEntry / 1024 / 1024, posts, posts * bytesPerEntry);
+
+        Random random = new Random(1);
+        int pageSize = 2;
+        for (int k : new int[]{1, 5, 20, 50}) {
+            List<List<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>();
+            for (int i = 0; i < k; i++) {
+                TreeSet<ZSetOperations.TypedTuple<String>> source = new TreeSet<>(REV);
+                for (int j = 0; j < pageSize + 10; j++) {
+                    source.add(new DefaultTypedTuple<>(String.valueOf(random.nextInt(1_000_000)),
+                            (double) (1_700_000_000_000L + random.nextInt(86_400_000))));
+                }
+                sources.add(new ArrayList<>(source));
+            }
+            int rounds = 100_000;
+            for (int i = 0; i < rounds; i++) {
+                FeedMerger.merge(sources, 10, pageSize);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                FeedMerger.merge(sources, 10, pageSize);
+            }
+            System.out.printf("merge k=%d: %.2fus/op%n", k, (System.nanoTime() - start) / 1000.0 / rounds);
+        }
+    }
+}
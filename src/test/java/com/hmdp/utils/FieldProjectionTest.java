@@ -0,0 +1,54 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.MybatisConfiguration;
+import com.baomidou.mybatisplus.core.metadata.TableInfoHelper;
+import com.hmdp.dto.ShopSummaryDTO;
+import com.hmdp.entity.Shop;
+import org.apache.ibatis.builder.MapperBuilderAssistant;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FieldProjectionTest {
+
+    @BeforeAll
+    static void initTableInfo() {
+        TableInfoHelper.initTableInfo(new MapperBuilderAssistant(new MybatisConfiguration(), ""), Shop.class);
+    }
+
+    @Test
+    void blankOrUnknownFieldsReturnFullData() {
+        assertNull(FieldProjection.parse(Shop.class, null));
+        assertNull(FieldProjection.parse(Shop.class, " "));
+        assertNull(FieldProjection.parse(Shop.class, "foo,serialVersionUID"));
+    }
+
+    @Test
+    void projectsRequestedFieldsOnly() {
+        FieldProjection<Shop> projection = FieldProjection.parse(Shop.class, "name, score,distance,foo", "openHours");
+        Shop shop = new Shop().setId(1L).setName("茶餐厅").setScore(45).setImages("a.jpg,b.jpg")
+                .setOpenHours("10:00-22:00").setDistance(12.5);
+        List<Map<String, Object>> rows = projection.apply(Collections.singletonList(shop));
+        assertEquals(Arrays.asList("name", "score", "distance"), new ArrayList<>(rows.get(0).keySet()));
+        assertEquals("茶餐厅", rows.get(0).get("name"));
+        assertEquals(12.5, rows.get(0).get("distance"));
+        assertTrue(projection.includes("distance"));
+        assertFalse(projection.includes("openHours"));
+    }
+
+    @Test
+    void withinSummaryFields() {
+        assertTrue(FieldProjection.parse(Shop.class, "id,name,score,sold").within(ShopSummaryDTO.FIELDS));
+        assertFalse(FieldProjection.parse(Shop.class, "id,name,images").within(ShopSummaryDTO.FIELDS));
+    }
+}
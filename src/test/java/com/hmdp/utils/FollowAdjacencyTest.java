@@ -0,0 +1,165 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FollowAdjacencyTest {
+
+    @Test
+    void matchesHashSets() {
+        Random random = new Random(11);
+        FollowAdjacency graph = new FollowAdjacency();
+        Map<Long, Set<Long>> following = new HashMap<>();
+        Map<Long, Set<Long>> followers = new HashMap<>();
+        for (int i = 0; i < 20_000; i++) {
+            long user = 1 + random.nextInt(300);
+            long target = 1 + random.nextInt(300);
+            if (random.nextInt(4) == 0) {
+                graph.unfollow(user, target);
+                following.getOrDefault(user, new HashSet<>()).remove(target);
+                followers.getOrDefault(target, new HashSet<>()).remove(user);
+            } else {
+                graph.follow(user, target);
+                following.computeIfAbsent(user, k -> new HashSet<>()).add(target);
+                followers.computeIfAbsent(target, k -> new HashSet<>()).add(user);
+            }
+        }
+        for (long a = 1; a <= 300; a++) {
+            Set<Long> fa = following.getOrDefault(a, new HashSet<>());
+            assertEquals(fa.size(), graph.followingCount(a));
+            assertEquals(followers.getOrDefault(a, new HashSet<>()).size(), graph.followerCount(a));
+            long b = 1 + random.nextInt(300);
+            TreeSet<Long> common = new TreeSet<>(fa);
+            common.retainAll(following.getOrDefault(b, new HashSet<>()));
+            assertEquals(new ArrayList<>(common), graph.common(a, b, Integer.MAX_VALUE));
+            assertEquals(common.size(), graph.commonCount(a, b));
+        }
+    }
+
+    @Test
+    void followersInBatches() {
+        FollowAdjacency graph = new FollowAdjacency();
+        // 超过int范围的id按无符号整数存储
+        long[] fans = {3, 7, 1L << 31, 0xFFFFFFFFL};
+        for (long fan : fans) {
+            graph.follow(fan, 42);
+        }
+        List<Long> read = new ArrayList<>();
+        long[] out = new long[3];
+        long after = 0;
+        int n;
+        do {
+            n = graph.followers(42, after, out);
+            for (int i = 0; i < n; i++) {
+                read.add(out[i]);
+            }
+            after = n > 0 ? out[n - 1] : after;
+        } while (n == out.length);
+        assertEquals(Arrays.asList(3L, 7L, 1L << 31, 0xFFFFFFFFL), read);
+    }
+
+    @Test
+    void concurrentFollowsOnOneAuthor() throws InterruptedException {
+        FollowAdjacency graph = new FollowAdjacency();
+        int threads = 8;
+        int perThread = 5000;
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long base = (long) t * perThread;
+            workers.add(new Thread(() -> {
+                long[] out = new long[100];
+                for (long fan = base + 1; fan <= base + perThread; fan++) {
+                    graph.follow(fan, 42);
+                    // 同时分批读取粉丝
+                    graph.followers(42, fan / 2, out);
+                    if (fan % 2 == 0) {
+                        graph.unfollow(fan, 42);
+                    }
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * perThread / 2, graph.followerCount(42));
+        assertEquals(threads * perThread / 2, graph.edgeCount());
+    }
+
+    /**
+     * 共同关注的耗时和每条关注占用的空间，与两个Redis集合SINTER后在Java中转换为Long的方式对比
+     */
+    @Test
+    @Tag("benchmark")
+    void benchmark() {
+        Random random = new Random(5);
+        FollowAdjacency graph = new FollowAdjacency();
+        int users = 1_000_000;
+        // 两个各关注5万人的用户，另有1万个用户各关注100人
+        Set<Long> a = new HashSet<>();
+        Set<Long> b = new HashSet<>();
+        while (a.size() < 50_000) {
+            a.add(1L + random.nextInt(users));
+        }
+        while (b.size() < 50_000) {
+            b.add(1L + random.nextInt(users));
+        }
+        a.forEach(id -> graph.load(1, id));
+        b.forEach(id -> graph.load(2, id));
+        for (long user = 3; user < 10_003; user++) {
+            for (int i = 0; i < 100; i++) {
+                graph.load(user, 1 + random.nextInt(users));
+            }
+        }
+        graph.optimize();
+        long edges = graph.edgeCount();
+        System.out.printf("edges: %d, bitmaps: %dKB, %.1f bytes/edge (both directions)%n",
+                edges, graph.sizeInBytes() / 1024, (double) graph.sizeInBytes() / edges);
+
+        int rounds = 2000;
+        for (int i = 0; i < rounds; i++) {
+            graph.commonCount(1, 2);
+        }
+        long start = System.nanoTime();
+        int common = 0;
+        for (int i = 0; i < rounds; i++) {
+            common = graph.commonCount(1, 2);
+        }
+        System.out.printf("bitmap andCardinality: %d common, %.1fus/op%n", common, (System.nanoTime() - start) / 1000.0 / rounds);
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            common = graph.common(1, 2, Integer.MAX_VALUE).size();
+        }
+        System.out.printf("bitmap and + ids: %.1fus/op%n", (System.nanoTime() - start) / 1000.0 / rounds);
+
+        // SINTER返回的是字符串，再逐个转换为Long
+        List<String> sa = new ArrayList<>();
+        a.forEach(id -> sa.add(id.toString()));
+        Set<String> sb = new HashSet<>();
+        b.forEach(id -> sb.add(id.toString()));
+        int setRounds = 200;
+        start = System.nanoTime();
+        for (int i = 0; i < setRounds; i++) {
+            List<Long> ids = new ArrayList<>();
+            for (String id : sa) {
+                if (sb.contains(id)) {
+                    ids.add(Long.valueOf(id));
+                }
+            }
+            common = ids.size();
+        }
+        System.out.printf("string sets: %d common, %.1fus/op%n", common, (System.nanoTime() - start) / 1000.0 / setRounds);
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GeoGridIndexTest {
+
+    /**
+     * 杭州市中心附近
+     */
+    private static final double CENTER_X = 120.15;
+    private static final double CENTER_Y = 30.28;
+
+    @Test
+    void searchMatchesBruteForce() {
+        Random random = new Random(1);
+        int n = 20000;
+        long[] ids = new long[n];
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        fill(random, ids, xs, ys, n, 0.2);
+        GeoGridIndex index = GeoGridIndex.build(ids, xs, ys, n).index;
+
+        for (int q = 0; q < 50; q++) {
+            double x = CENTER_X + (random.nextDouble() - 0.5) * 0.2;
+            double y = CENTER_Y + (random.nextDouble() - 0.5) * 0.2;
+            // 暴力计算前20个
+            List<double[]> expected = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                double d = GeoGridIndex.distance(x, y, xs[i], ys[i]);
+                if (d <= 5000) {
+                    expected.add(new double[]{d, ids[i]});
+                }
+            }
+            expected.sort(Comparator.<double[]>comparingDouble(e -> e[0]).thenComparingDouble(e -> e[1]));
+
+            GeoGridIndex.TopK top = new GeoGridIndex.TopK(20);
+            index.search(x, y, 5000, (slot, d) -> top.offer(slot, index.idAt(slot), d));
+            top.sort();
+            assertEquals(Math.min(20, expected.size()), top.size());
+            for (int i = 0; i < top.size(); i++) {
+                assertEquals((long) expected.get(i)[1], index.idAt(top.refAt(i)));
+                assertEquals(expected.get(i)[0], top.distanceAt(i), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() {
+        for (int n : new int[]{100_000, 1_000_000}) {
+            Random random = new Random(n);
+            long[] ids = new long[n];
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            // 约40公里见方的城市范围
+            fill(random, ids, xs, ys, n, 0.4);
+            long begin = System.nanoTime();
+            GeoGridIndex index = GeoGridIndex.build(ids, xs, ys, n).index;
+            long buildMs = (System.nanoTime() - begin) / 1_000_000;
+
+            int queries = 2000;
+            long checksum = 0;
+            begin = System.nanoTime();
+            for (int q = 0; q < queries; q++) {
+                double x = CENTER_X + (random.nextDouble() - 0.5) * 0.4;
+                double y = CENTER_Y + (random.nextDouble() - 0.5) * 0.4;
+                GeoGridIndex.TopK top = new GeoGridIndex.TopK(SystemConstants.DEFAULT_PAGE_SIZE);
+                index.search(x, y, 1000, (slot, d) -> top.offer(slot, index.idAt(slot), d));
+                checksum += top.size();
+            }
+            long avgMicros = (System.nanoTime() - begin) / 1000 / queries;
+            System.out.printf("GeoGridIndex n=%d build=%dms radius=1km avg=%dus/query (results=%d)%n",
+                    n, buildMs, avgMicros, checksum);
+        }
+    }
+
+    private static void fill(Random random, long[] ids, double[] xs, double[] ys, int n, double span) {
+        for (int i = 0; i < n; i++) {
+            ids[i] = i + 1;
+            xs[i] = CENTER_X + (random.nextDouble() - 0.5) * span;
+            ys[i] = CENTER_Y + (random.nextDouble() - 0.5) * span;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HotBlogRankerTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private static double score(int liked, int comments, long hoursAgo) {
+        return HotBlogRanker.score(liked, comments, 2, 1.8, NOW - TimeUnit.HOURS.toMillis(hoursAgo), NOW);
+    }
+
+    @Test
+    void newPostScore() {
+        assertEquals(1 / Math.pow(2, 1.8), score(0, 0, 0), 1e-12);
+    }
+
+    @Test
+    void oldPostsSink() {
+        // 同样的互动，越旧分数越低
+        assertTrue(score(100, 10, 1) > score(100, 10, 24));
+        // 一个月前的1000赞不如一小时前的20赞
+        assertTrue(score(20, 0, 1) > score(1000, 0, 24 * 30));
+    }
+
+    @Test
+    void commentsWeighMore() {
+        assertEquals(score(10, 0, 5), score(0, 5, 5), 1e-12);
+        assertTrue(score(10, 1, 5) > score(10, 0, 5));
+    }
+}
@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.codec.Base64;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class KeysetPagerTest {
+
+    @Test
+    void roundTrip() {
+        String cursor = KeysetPager.encode(Arrays.asList(3.5, 42L));
+        assertEquals(2, KeysetPager.decode(cursor).size());
+        assertTrue(KeysetPager.isValid(cursor, 2));
+    }
+
+    @Test
+    void blankCursorIsFirstPage() {
+        assertNull(KeysetPager.decode(null));
+        assertTrue(KeysetPager.isValid(null, 1));
+        assertTrue(KeysetPager.isValid("", 1));
+    }
+
+    @Test
+    void invalidCursor() {
+        // 无法解析
+        assertFalse(KeysetPager.isValid("not-a-cursor", 1));
+        // 个数不对
+        assertFalse(KeysetPager.isValid(KeysetPager.encode(Arrays.asList(1, 2)), 1));
+        assertFalse(KeysetPager.isValid(KeysetPager.encode(Collections.emptyList()), 1));
+        // 值不是数字或字符串
+        assertFalse(KeysetPager.isValid(Base64.encodeUrlSafe("[{\"a\":1}]"), 1));
+        assertFalse(KeysetPager.isValid(Base64.encodeUrlSafe("[null]"), 1));
+    }
+}
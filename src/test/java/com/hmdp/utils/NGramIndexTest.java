@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class NGramIndexTest {
+
+    private static final String[] PREFIXES = {"老", "小", "大", "新", "阿", "陈记", "张姐", "蜀", "港式", "Happy"};
+    private static final String[] WORDS = {"火锅", "茶餐厅", "烤肉", "面馆", "奶茶", "KTV", "酒吧", "烧烤", "小吃", "咖啡",
+            "串串", "米线", "饺子", "寿司", "披萨", "汉堡", "甜品", "粥铺", "麻辣烫", "鱼庄"};
+    private static final String[] SUFFIXES = {"", "(西湖店)", "（滨江店）", " 总店", "·拱墅", "2号店", "旗舰店"};
+
+    @Test
+    void searchMatchesBruteForce() {
+        Random random = new Random(1);
+        int n = 20000;
+        String[] names = names(random, n);
+        NGramIndex index = NGramIndex.build(names, n);
+
+        String[] queries = {"火锅", "老", "茶餐", "西湖店", "KTV", "ktv", "港式茶餐厅", "滨江", "不存在", "小吃(", "2号"};
+        for (String query : queries) {
+            String q = NGramIndex.normalize(query);
+            // 暴力计算：匹配程度升序，再按文档编号升序
+            List<int[]> expected = new ArrayList<>();
+            for (int doc = 0; doc < n; doc++) {
+                int tier = NGramIndex.tierOf(NGramIndex.normalize(names[doc]), q);
+                if (tier >= 0 && doc % 7 != 0) {
+                    expected.add(new int[]{tier, doc});
+                }
+            }
+            expected.sort(Comparator.<int[]>comparingInt(e -> e[0]).thenComparingInt(e -> e[1]));
+
+            int[] docs = index.search(query, 30, doc -> doc % 7 != 0);
+            int[] expectedDocs = expected.stream().limit(30).mapToInt(e -> e[1]).toArray();
+            assertArrayEquals(expectedDocs, docs, query);
+        }
+    }
+
+    @Test
+    void normalize() {
+        assertEquals("港式茶餐厅西湖店", NGramIndex.normalize("港式茶餐厅（西湖店）"));
+        assertEquals("ktv2号店", NGramIndex.normalize("ＫＴＶ 2号店"));
+        assertEquals("", NGramIndex.normalize(null));
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() {
+        int n = 1_000_000;
+        Random random = new Random(n);
+        String[] names = names(random, n);
+        long begin = System.currentTimeMillis();
+        NGramIndex index = NGramIndex.build(names, n);
+        System.out.printf("build n=%d: %dms, postings=%dKB%n",
+                n, System.currentTimeMillis() - begin, index.postingBytes() / 1024);
+
+        String[] queries = {"火锅", "老火锅", "茶餐厅", "西湖", "港式茶餐厅", "k", "麻辣烫滨江"};
+        int rounds = 2000;
+        for (String query : queries) {
+            // 预热
+            for (int i = 0; i < 200; i++) {
+                index.search(query, 10, doc -> true);
+            }
+            long start = System.nanoTime();
+            int hits = 0;
+            for (int i = 0; i < rounds; i++) {
+                hits += index.search(query, 10, doc -> true).length;
+            }
+            System.out.printf("query=%s: %.1fus/op, hits=%d%n",
+                    query, (System.nanoTime() - start) / 1000.0 / rounds, hits / rounds);
+        }
+    }
+
+    private static String[] names(Random random, int n) {
+        String[] names = new String[n];
+        for (int i = 0; i < n; i++) {
+            names[i] = PREFIXES[random.nextInt(PREFIXES.length)]
+                    + WORDS[random.nextInt(WORDS.length)]
+                    + (random.nextInt(4) == 0 ? WORDS[random.nextInt(WORDS.length)] : "")
+                    + SUFFIXES[random.nextInt(SUFFIXES.length)];
+        }
+        return names;
+    }
+}
@@ -0,0 +1,84 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OpenHoursTest {
+
+    @Test
+    void sameDayRange() {
+        OpenHours hours = OpenHours.of("10:00-22:00");
+        for (int day = 0; day < 7; day++) {
+            assertFalse(hours.isOpenAt(at(day, 9, 59)));
+            assertTrue(hours.isOpenAt(at(day, 10, 0)));
+            assertTrue(hours.isOpenAt(at(day, 21, 59)));
+            assertFalse(hours.isOpenAt(at(day, 22, 0)));
+        }
+    }
+
+    @Test
+    void crossMidnight() {
+        OpenHours hours = OpenHours.of("11:30-03:00");
+        assertTrue(hours.isOpenAt(at(0, 11, 30)));
+        assertTrue(hours.isOpenAt(at(0, 23, 59)));
+        assertTrue(hours.isOpenAt(at(1, 2, 59)));
+        assertFalse(hours.isOpenAt(at(1, 3, 0)));
+        assertFalse(hours.isOpenAt(at(1, 11, 29)));
+        // 周日晚上的营业时间延续到周一凌晨
+        assertTrue(hours.isOpenAt(at(0, 1, 0)));
+        assertTrue(OpenHours.of("10:00-次日02:00").isOpenAt(at(3, 1, 30)));
+    }
+
+    @Test
+    void multipleRangesAndWeekDays() {
+        OpenHours hours = OpenHours.of("10:00-14:00，17:00-21:00");
+        assertTrue(hours.isOpenAt(at(2, 13, 0)));
+        assertFalse(hours.isOpenAt(at(2, 15, 0)));
+        assertTrue(hours.isOpenAt(at(2, 18, 0)));
+
+        OpenHours week = OpenHours.of("周一至周五 10:00-22:00 周六-周日 09:00-23:30");
+        assertFalse(week.isOpenAt(at(0, 9, 30)));
+        assertTrue(week.isOpenAt(at(5, 9, 30)));
+        assertFalse(week.isOpenAt(at(4, 22, 30)));
+        assertTrue(week.isOpenAt(at(6, 23, 0)));
+
+        OpenHours weekend = OpenHours.of("周六 周日 10:00-16:00");
+        assertFalse(weekend.isOpenAt(at(4, 12, 0)));
+        assertTrue(weekend.isOpenAt(at(5, 12, 0)));
+        assertTrue(weekend.isOpenAt(at(6, 12, 0)));
+    }
+
+    @Test
+    void allDayAndUnknown() {
+        assertTrue(OpenHours.of("全天").isOpenAt(at(3, 4, 0)));
+        assertTrue(OpenHours.of("00:00-24:00").isOpenAt(at(6, 23, 59)));
+        assertTrue(OpenHours.of("24小时营业").isOpenAt(at(0, 0, 0)));
+        assertTrue(OpenHours.of("暂停营业").isUnknown());
+        assertTrue(OpenHours.of(null).isUnknown());
+        assertFalse(OpenHours.of("").isOpenAt(at(0, 12, 0)));
+    }
+
+    @Test
+    void sameTextSharesInstance() {
+        assertSame(OpenHours.of(new String("10:00-22:00")), OpenHours.of("10:00-22:00"));
+    }
+
+    @Test
+    void minuteOfWeek() {
+        // 2024-01-01 是周一
+        LocalDateTime monday = LocalDateTime.of(2024, 1, 1, 0, 0);
+        assertEquals(0, OpenHours.minuteOfWeek(monday.atZone(OpenHours.ZONE)));
+        assertEquals(7 * 24 * 60 - 1,
+                OpenHours.minuteOfWeek(monday.plusDays(6).plusHours(23).plusMinutes(59).atZone(OpenHours.ZONE)));
+    }
+
+    private static int at(int day, int hour, int minute) {
+        return day * 24 * 60 + hour * 60 + minute;
+    }
+}
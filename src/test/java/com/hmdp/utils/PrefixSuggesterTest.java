@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+class PrefixSuggesterTest {
+
+    private static final String[] HEADS = {"拱宸桥", "拱墅", "西湖", "西溪", "滨江", "老", "小", "大", "蜀", "港式", "happy"};
+    private static final String[] WORDS = {"火锅", "茶餐厅", "烤肉", "面馆", "奶茶", "ktv", "酒吧", "烧烤", "小吃", "咖啡"};
+
+    @Test
+    void suggestMatchesBruteForce() {
+        Random random = new Random(1);
+        int n = 20000;
+        String[] texts = texts(random, n);
+        long[] weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = random.nextInt(500);
+        }
+        PrefixSuggester suggester = PrefixSuggester.build(texts, weights, n);
+
+        String[] prefixes = {"拱", "拱宸", "拱宸桥火", "西", "老火锅", "HAPPY", "h", "不存在", "蜀咖啡"};
+        for (String prefix : prefixes) {
+            String p = NGramIndex.normalize(prefix);
+            // 暴力计算：权重降序，权重相同时按归一化后的字典序，再按原始下标
+            List<Integer> expected = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                if (NGramIndex.normalize(texts[i]).startsWith(p) && i % 5 != 0) {
+                    expected.add(i);
+                }
+            }
+            expected.sort(Comparator.<Integer>comparingLong(i -> -weights[i])
+                    .thenComparing(i -> NGramIndex.normalize(texts[i]))
+                    .thenComparingInt(i -> i));
+            int[] expectedTerms = expected.stream().limit(10).mapToInt(i -> i).toArray();
+            assertArrayEquals(expectedTerms, suggester.suggest(prefix, 10, i -> i % 5 != 0), prefix);
+        }
+    }
+
+    @Test
+    @Tag("benchmark")
+    void benchmark() {
+        int n = 1_000_000;
+        Random random = new Random(n);
+        String[] texts = texts(random, n);
+        long[] weights = new long[n];
+        for (int i = 0; i < n; i++) {
+            weights[i] = random.nextInt(100000);
+        }
+        long begin = System.currentTimeMillis();
+        PrefixSuggester suggester = PrefixSuggester.build(texts, weights, n);
+        System.out.printf("build n=%d: %dms, nodes=%d%n", n, System.currentTimeMillis() - begin, suggester.nodeCount());
+
+        String[] prefixes = {"拱", "拱宸桥", "西湖火", "老火锅", "h", "蜀咖啡1"};
+        int rounds = 20000;
+        for (String prefix : prefixes) {
+            for (int i = 0; i < 2000; i++) {
+                suggester.suggest(prefix, 10, term -> true);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < rounds; i++) {
+                suggester.suggest(prefix, 10, term -> true);
+            }
+            System.out.printf("prefix=%s: %.2fus/op%n", prefix, (System.nanoTime() - start) / 1000.0 / rounds);
+        }
+    }
+
+    private static String[] texts(Random random, int n) {
+        String[] texts = new String[n];
+        for (int i = 0; i < n; i++) {
+            texts[i] = HEADS[random.nextInt(HEADS.length)] + WORDS[random.nextInt(WORDS.length)]
+                    + (random.nextBoolean() ? "" : String.valueOf(random.nextInt(1000)));
+        }
+        return texts;
+    }
+}
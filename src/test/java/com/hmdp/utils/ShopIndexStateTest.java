@@ -0,0 +1,58 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShopIndexStateTest {
+
+    @Test
+    void changeMasksSnapshotAndReplacesDelta() {
+        ShopIndexState<String> state = ShopIndexState.empty("empty")
+                .rebuilt(null, "base", new Shop[]{shop(1, "a"), shop(2, "b")});
+        state = state.withChange(2, shop(2, "b1")).withChange(2, shop(2, "b2")).withChange(3, null);
+        assertArrayEquals(new long[]{2, 3}, state.masked);
+        assertTrue(state.isMasked(3));
+        assertFalse(state.isMasked(1));
+        assertEquals(Arrays.asList("a", "b2"), names(state.merged()));
+    }
+
+    @Test
+    void rebuiltKeepsChangesMadeDuringTheBuild() {
+        ShopIndexState<String> before = ShopIndexState.<String>empty("empty").withChange(1, shop(1, "a"));
+        // 构建期间没有新的变更，清空增量
+        ShopIndexState<String> clean = before.rebuilt(before, "v1", before.merged().toArray(new Shop[0]));
+        assertFalse(clean.hasDelta());
+        assertEquals("v1", clean.base);
+        // 构建期间有新的变更，保留最新的增量，已合并的商铺仍被屏蔽，不会重复
+        ShopIndexState<String> latest = before.withChange(2, shop(2, "b"));
+        ShopIndexState<String> kept = latest.rebuilt(before, "v1", before.merged().toArray(new Shop[0]));
+        assertSame(latest.delta, kept.delta);
+        assertEquals(Arrays.asList("a", "b"), names(kept.merged()));
+    }
+
+    @Test
+    void mergeLoadedSnapshotPrefersDelta() {
+        ShopIndexState<String> pending = ShopIndexState.<String>empty("empty")
+                .withChange(2, shop(2, "new")).withChange(3, null);
+        List<Shop> loaded = Arrays.asList(shop(1, "a"), shop(2, "old"), shop(3, "deleted"));
+        assertEquals(Arrays.asList("a", "new"), names(pending.merge(loaded)));
+    }
+
+    private static Shop shop(long id, String name) {
+        return new Shop().setId(id).setName(name);
+    }
+
+    private static List<String> names(List<Shop> shops) {
+        return shops.stream().map(Shop::getName).collect(Collectors.toList());
+    }
+}